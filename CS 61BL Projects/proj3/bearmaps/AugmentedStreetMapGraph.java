@@ -1,16 +1,21 @@
 package bearmaps;
 
-import bearmaps.utils.MyTrieSet;
-import bearmaps.utils.graph.streetmap.Node;
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.ContractionHierarchy;
 import bearmaps.utils.graph.streetmap.StreetMapGraph;
-import bearmaps.utils.ps.KDTree;
-import bearmaps.utils.ps.Point;
-import bearmaps.utils.ps.WeirdPointSet;
+import bearmaps.utils.ps.StaticKDTree;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static bearmaps.utils.Constants.FUZZY_SEARCH_BUDGET_MILLIS;
+import static bearmaps.utils.Constants.NEARBY_SEARCH_BUDGET_MILLIS;
 
 /**
  * An augmented graph that is more powerful that a standard StreetMapGraph.
@@ -21,50 +26,98 @@ import java.util.LinkedList;
  */
 public class AugmentedStreetMapGraph extends StreetMapGraph {
 
-    private List<Node> nodes;
-    private HashMap<Point, Long> pointNodeMap;
-    private KDTree wps;
-    private MyTrieSet trie;
-    private HashMap<String, LinkedList<String>> trieHash = new HashMap<>();
-    private HashMap<String, LinkedList<Node>> nodeTrieHash = new HashMap<>();
+    /* Spatial index over the vertices that have edges; ids are vertex indices. */
+    private StaticKDTree wps;
+    private NameIndex names;
 
     public AugmentedStreetMapGraph(String dbPath) {
         super(dbPath);
-        // You might find it helpful to uncomment the line below:
-        nodes = this.getNodes();
-        List<Point> points = new LinkedList<>();
-        pointNodeMap = new HashMap<>();
-
-        for (Node n : nodes) {
-            if (neighbors(n.id()).size() > 0) {
-                Point p = new Point(n.lon(), n.lat());
-                pointNodeMap.put(p, n.id());
-                points.add(p);
+        CompactGraph graph = compactGraph();
+        int numRoutable = 0;
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            if (graph.degree(v) > 0) {
+                numRoutable++;
             }
         }
-        wps = new KDTree(points);
-        // Convert list of nodes into a trie
-        trie = new MyTrieSet();
-        for (Node n : nodes) {
-            if (n.name() != null) {
-                String cleanedString = cleanString(n.name());
-                if (!trieHash.containsKey(cleanedString)) {
-                    // Create new linked list and add to hashmap
-                    LinkedList<String> value = new LinkedList<>();
-                    value.add(n.name());
-                    trieHash.put(cleanedString, value);
-                    LinkedList<Node> nodeLL = new LinkedList<>();
-                    nodeLL.add(n);
-                    nodeTrieHash.put(cleanedString, nodeLL);
-                } else {
-                    trieHash.get(cleanedString).add(n.name());
-                    nodeTrieHash.get(cleanedString).add(n);
-                }
-                trie.add(cleanedString);
+        double[] lons = new double[numRoutable];
+        double[] lats = new double[numRoutable];
+        int[] vertices = new int[numRoutable];
+        int i = 0;
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            if (graph.degree(v) > 0) {
+                lons[i] = graph.lon(v);
+                lats[i] = graph.lat(v);
+                vertices[i] = v;
+                i++;
+            }
+        }
+        wps = new StaticKDTree(lons, lats, vertices);
+        names = new NameIndex(graph);
+    }
+
+    /* Rebuilds a graph and its indexes from the contents of a snapshot. */
+    private AugmentedStreetMapGraph(GraphSnapshot.Contents contents) {
+        super(contents.graph);
+        CompactGraph graph = contents.graph;
+        int[] vertices = contents.spatialOrder;
+        double[] lons = new double[vertices.length];
+        double[] lats = new double[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            lons[i] = graph.lon(vertices[i]);
+            lats[i] = graph.lat(vertices[i]);
+        }
+        wps = StaticKDTree.fromTreeOrder(lons, lats, vertices);
+        names = new NameIndex(graph, contents.cleanedNames, contents.nameVertices);
+    }
+
+    /**
+     * Returns the graph for the OSM XML file at DBPATH, read from the snapshot at
+     * SNAPSHOTPATH if that is a valid, up to date snapshot of it. Otherwise the XML is
+     * parsed and a fresh snapshot is written for next time.
+     */
+    public static AugmentedStreetMapGraph load(String dbPath, String snapshotPath) {
+        return load(dbPath, snapshotPath, false);
+    }
+
+    /**
+     * Returns the graph for the OSM XML file at DBPATH like load above, and if HIERARCHY
+     * is true with its contraction hierarchy set. The hierarchy is read from the snapshot
+     * when it has one; otherwise it is built, and the snapshot rewritten to include it.
+     */
+    public static AugmentedStreetMapGraph load(String dbPath, String snapshotPath,
+                                               boolean hierarchy) {
+        GraphSnapshot.Contents contents = GraphSnapshot.read(dbPath, snapshotPath);
+        AugmentedStreetMapGraph graph;
+        if (contents != null) {
+            graph = new AugmentedStreetMapGraph(contents);
+            if (!hierarchy) {
+                return graph;
+            }
+            if (contents.hierarchy != null) {
+                graph.setContractionHierarchy(contents.hierarchy);
+                return graph;
             }
+        } else {
+            graph = new AugmentedStreetMapGraph(dbPath);
         }
+        if (hierarchy) {
+            graph.setContractionHierarchy(ContractionHierarchy.build(graph.compactGraph()));
+        }
+        try {
+            GraphSnapshot.write(graph.snapshotContents(), dbPath, snapshotPath);
+        } catch (IOException e) {
+            System.out.println("Could not write graph snapshot " + snapshotPath + ": " + e);
+        }
+        return graph;
     }
 
+    /* Collects this graph and its indexes in the form GraphSnapshot writes. */
+    GraphSnapshot.Contents snapshotContents() {
+        CompactGraph graph = compactGraph();
+        int[] spatialOrder = wps.treeOrderIds();
+        return new GraphSnapshot.Contents(graph, spatialOrder, names.cleanedNames(),
+                names.vertices(), contractionHierarchy());
+    }
 
     /**
      * For Project Part II
@@ -74,8 +127,7 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
      * @return The id of the node in the graph closest to the target.
      */
     public long closest(double lon, double lat) {
-        Point closest = wps.nearest(lon, lat);
-        return pointNodeMap.get(closest);
+        return compactGraph().id(wps.nearestId(lon, lat));
     }
 
 
@@ -88,21 +140,88 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
      * cleaned <code>prefix</code>.
      */
     public List<String> getLocationsByPrefix(String prefix) {
-        // Use method from MyTrieSet to find words with this prefix
-        List<String> temp = new LinkedList<>();
-        temp.addAll(trie.keysWithPrefix(prefix));
-        LinkedList<String> finalList = new LinkedList<>();
-        for (String key : temp) {
-            finalList.addAll(trieHash.get(key));
+        return names.getLocationsByPrefix(prefix);
+    }
+
+    /**
+     * Returns up to K distinct full names of OSM locations whose cleaned name starts with the
+     * cleaned PREFIX, taking the names shared by the most locations first. Only the part of
+     * the name index that could hold them is searched, however many names match.
+     * @param prefix Prefix string to be searched for, in any case and with or without
+     *               punctuation.
+     * @param k The most names to return.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int k) {
+        return names.getLocationsByPrefix(prefix, k);
+    }
+
+    /**
+     * Returns up to K distinct full names of OSM locations whose cleaned name starts with a
+     * string within a few typing errors of the cleaned QUERY: none for queries of up to two
+     * letters, one for up to five and two beyond that. Names needing fewer corrections come
+     * first, then those shared by the most locations. The search gives up after
+     * Constants.FUZZY_SEARCH_BUDGET_MILLIS with what it has found by then.
+     * @param query What has been typed so far, in any case and with or without
+     *              punctuation.
+     * @param k The most names to return.
+     */
+    public List<String> getLocationsNear(String query, int k) {
+        String cleaned = cleanString(query);
+        int maxEdits = cleaned.length() <= 2 ? 0 : cleaned.length() <= 5 ? 1 : 2;
+        Deadline deadline = Deadline.afterNanos(
+                TimeUnit.MILLISECONDS.toNanos(FUZZY_SEARCH_BUDGET_MILLIS));
+        return names.getLocationsNear(cleaned, maxEdits, k, deadline);
+    }
+
+    /**
+     * Returns up to K distinct full names of OSM locations whose cleaned name starts with the
+     * cleaned PREFIX, for a user looking at the map within RADIUS miles of (LON, LAT). The
+     * matches in that area come first, ranked by how well they match and how near they are
+     * as NameIndex.getNearbyLocationsByPrefix does; if there are fewer than K, the rest are
+     * those getLocationsByPrefix(PREFIX, K) would return.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int k, double lon, double lat,
+                                             double radius) {
+        return nearbyFirst(prefix, k, lon, lat, radius, () -> getLocationsByPrefix(prefix, k));
+    }
+
+    /**
+     * Returns up to K distinct full names of OSM locations for a user typing QUERY while
+     * looking at the map within RADIUS miles of (LON, LAT): the names in that area that
+     * QUERY is a prefix of, ranked as getLocationsByPrefix ranks them, then if there are
+     * fewer than K those getLocationsNear(QUERY, K) would return.
+     */
+    public List<String> getLocationsNear(String query, int k, double lon, double lat,
+                                         double radius) {
+        return nearbyFirst(query, k, lon, lat, radius, () -> getLocationsNear(query, k));
+    }
+
+    /* Returns the names within RADIUS of (LON, LAT) that start with PREFIX, best first, then
+       if there are fewer than K the ones MORE supplies, up to K distinct names in all. The
+       nearby search gives up after Constants.NEARBY_SEARCH_BUDGET_MILLIS. */
+    private List<String> nearbyFirst(String prefix, int k, double lon, double lat,
+                                     double radius, Supplier<List<String>> more) {
+        Deadline deadline = Deadline.afterNanos(
+                TimeUnit.MILLISECONDS.toNanos(NEARBY_SEARCH_BUDGET_MILLIS));
+        LinkedHashSet<String> result = new LinkedHashSet<>(
+                names.getNearbyLocationsByPrefix(prefix, lon, lat, radius, k, deadline));
+        if (result.size() < k) {
+            for (String name : more.get()) {
+                if (result.size() == k) {
+                    break;
+                }
+                result.add(name);
+            }
         }
-        return finalList;
+        return new LinkedList<>(result);
     }
 
     /**
      * For Project Part III (extra credit)
      * Collect all locations that match a cleaned <code>locationName</code>, and return
      * information about each node that matches.
-     * @param locationName A full name of a location searched for.
+     * @param locationName A full name of a location searched for, in any case and with or
+     *                     without punctuation; it is cleaned before it is looked up.
      * @return A list of locations whose cleaned name matches the
      * cleaned <code>locationName</code>, and each location is a map of parameters for the Json
      * response as specified: <br>
@@ -112,31 +231,28 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
      * "id" -> Number, The id of the node. <br>
      */
     public List<Map<String, Object>> getLocations(String locationName) {
-        LinkedList<Map<String, Object>> temp = new LinkedList<>();
-        if (!nodeTrieHash.containsKey(locationName)) {
-            return temp;
-        }
-        LinkedList<Node> nodeLL = nodeTrieHash.get(locationName);
-        for (Node n : nodeLL) {
-            HashMap<String, Object> nodeMap = new HashMap<>();
-            nodeMap.put("lat", n.lat());
-            nodeMap.put("lon", n.lon());
-            nodeMap.put("name", n.name());
-            nodeMap.put("id", n.id());
-            temp.add(nodeMap);
-        }
-        return temp;
+        return names.getLocations(locationName);
+    }
+
+    /**
+     * Returns the K locations nearest to (LON, LAT) of those getLocations(LOCATIONNAME)
+     * returns, nearest first.
+     */
+    public List<Map<String, Object>> getLocations(String locationName, double lon, double lat,
+                                                  int k) {
+        return names.getLocations(locationName, lon, lat, k);
     }
 
 
     /**
-     * Useful for Part III. Do not modify.
      * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
+     * Delegates to NameIndex.clean, which gives the same result as the regular expression this
+     * used to apply, so that queries are cleaned exactly as the indexed names were.
      * @param s Input string.
      * @return Cleaned string.
      */
     private static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+        return NameIndex.clean(s);
     }
 
 }
@@ -0,0 +1,168 @@
+package bearmaps;
+
+import bearmaps.utils.BinaryIO;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.ContractionHierarchy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Versioned binary snapshot of an AugmentedStreetMapGraph, so that the server can skip
+ * parsing the OSM XML and rebuilding its indexes on every start.
+ *
+ * A snapshot is a fixed-size header followed by a payload. The header holds a magic
+ * number, the format version, the length and modification time of the XML file the graph
+ * was read from, the payload length and a CRC32 of the payload. The payload holds the
+ * compact graph (vertices, edges and way names), the spatial index as the vertices of the
+ * KD-tree in tree layout, the name index as each cleaned name with the vertices that
+ * carry it, and, if one was built, the graph's contraction hierarchy. Snapshots are read through a memory-mapped FileChannel, and read returns null
+ * rather than failing if the snapshot is missing, from another version, out of date with
+ * respect to its XML file or corrupt.
+ *
+ * @author ________
+ */
+public class GraphSnapshot {
+    /* "BMAP" in ASCII. */
+    private static final int MAGIC = 0x424D4150;
+    /** Bump whenever the payload layout changes, so that old snapshots are rebuilt. */
+    static final int VERSION = 3;
+    /* magic, version, source length, source modification time, payload length, CRC32. */
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+
+    private GraphSnapshot() {
+    }
+
+    /** What a snapshot holds beyond the graph itself. */
+    static class Contents {
+        final CompactGraph graph;
+        /* Vertices of the KD-tree in tree layout. */
+        final int[] spatialOrder;
+        /* Distinct cleaned names, and the vertices carrying each one in vertex order. */
+        final String[] cleanedNames;
+        final int[][] nameVertices;
+        /* The contraction hierarchy of graph, or null if the snapshot has none. */
+        final ContractionHierarchy hierarchy;
+
+        Contents(CompactGraph graph, int[] spatialOrder, String[] cleanedNames,
+                 int[][] nameVertices, ContractionHierarchy hierarchy) {
+            this.graph = graph;
+            this.spatialOrder = spatialOrder;
+            this.cleanedNames = cleanedNames;
+            this.nameVertices = nameVertices;
+            this.hierarchy = hierarchy;
+        }
+    }
+
+    /**
+     * Writes CONTENTS, which were read from the XML file at SOURCEPATH, to a snapshot at
+     * SNAPSHOTPATH. The snapshot is written to a temporary file first and moved into place,
+     * so readers never see a partial snapshot.
+     */
+    static void write(Contents contents, String sourcePath, String snapshotPath)
+            throws IOException {
+        File source = new File(sourcePath);
+        Path target = Paths.get(snapshotPath).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(),
+                ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.position(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+            contents.graph.write(out);
+            BinaryIO.writeInts(out, contents.spatialOrder);
+            BinaryIO.writeStrings(out, contents.cleanedNames);
+            for (int[] vertices : contents.nameVertices) {
+                BinaryIO.writeInts(out, vertices);
+            }
+            out.writeBoolean(contents.hierarchy != null);
+            if (contents.hierarchy != null) {
+                contents.hierarchy.write(out);
+            }
+            out.flush();
+            long payloadBytes = channel.position() - HEADER_BYTES;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(source.length());
+            header.putLong(source.lastModified());
+            header.putLong(payloadBytes);
+            header.putLong(crc.getValue());
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot at SNAPSHOTPATH, or returns null if there is no usable snapshot
+     * of the XML file at SOURCEPATH there.
+     */
+    static Contents read(String sourcePath, String snapshotPath) {
+        File source = new File(sourcePath);
+        Path path = Paths.get(snapshotPath);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != source.length()
+                    || buffer.getLong() != source.lastModified()) {
+                return null;
+            }
+            long payloadBytes = buffer.getLong();
+            long checksum = buffer.getLong();
+            if (payloadBytes != channel.size() - HEADER_BYTES) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+
+            CompactGraph graph = CompactGraph.read(buffer);
+            int[] spatialOrder = BinaryIO.readInts(buffer);
+            String[] cleanedNames = BinaryIO.readStrings(buffer);
+            int[][] nameVertices = new int[cleanedNames.length][];
+            for (int i = 0; i < cleanedNames.length; i++) {
+                nameVertices[i] = BinaryIO.readInts(buffer);
+            }
+            ContractionHierarchy hierarchy = buffer.get() != 0
+                    ? ContractionHierarchy.read(graph, buffer) : null;
+            return new Contents(graph, spatialOrder, cleanedNames, nameVertices, hierarchy);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package bearmaps;
 
 import bearmaps.server.handler.APIRouteHandler;
 import bearmaps.utils.Constants;
+import bearmaps.utils.graph.RouteCache;
+import bearmaps.utils.graph.streetmap.Landmarks;
 
 import java.util.HashSet;
 import java.util.Map;
@@ -21,7 +23,19 @@ public class MapServerInitializer {
      **/
     public static void initializeServer(Map<String, APIRouteHandler> apiHandlers){
 
-        Constants.SEMANTIC_STREET_GRAPH = new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+        /* The contraction hierarchy comes from the snapshot, and is only built when there
+           is no snapshot with one yet. */
+        Constants.SEMANTIC_STREET_GRAPH = AugmentedStreetMapGraph.load(Constants.OSM_DB_PATH,
+                Constants.OSM_SNAPSHOT_PATH, Constants.USE_CONTRACTION_HIERARCHY);
+        /* Served routes only run A*, and so only use landmarks, without a hierarchy. */
+        if (Constants.NUM_LANDMARKS > 0 && !Constants.USE_CONTRACTION_HIERARCHY) {
+            Constants.SEMANTIC_STREET_GRAPH.setLandmarks(Landmarks.build(
+                    Constants.SEMANTIC_STREET_GRAPH.compactGraph(), Constants.NUM_LANDMARKS));
+        }
+        if (Constants.ROUTE_CACHE_BYTES > 0) {
+            Constants.SEMANTIC_STREET_GRAPH.setRouteCache(new RouteCache(
+                    Constants.ROUTE_CACHE_BYTES));
+        }
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
@@ -0,0 +1,404 @@
+package bearmaps;
+
+import bearmaps.utils.RadixTrieSet;
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.ps.Point;
+import bearmaps.utils.ps.StaticKDTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static bearmaps.utils.Constants.SEARCH_DISTANCE_SCALE_MILES;
+
+/**
+ * The names of the places in a street graph, for search.
+ *
+ * Each distinct cleaned name is interned once and numbered with an int id, under which the
+ * index keeps the vertices that carry it in a plain int array. Full names, coordinates and
+ * OSM ids are read from the CompactGraph when a query needs them, rather than copied into
+ * per-name lists of Strings and Nodes. The cleaned names also go in a RadixTrieSet, scored
+ * by how many places share each, for prefix and typo-tolerant search, and every named place
+ * goes in a StaticKDTree, for finding the matches near where the user is looking without
+ * going through the rest.
+ */
+public class NameIndex {
+
+    private final CompactGraph graph;
+    private final RadixTrieSet trie = new RadixTrieSet();
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    /* cleanedNames[id] is the cleaned name with id ID, carried by the first counts[id]
+       vertices of vertices[id], in vertex order. */
+    private String[] cleanedNames = new String[16];
+    private int[][] vertices = new int[16][];
+    private int[] counts = new int[16];
+    private int size = 0;
+    /* The named places, with ids that index placeVertices and placeNames: the vertex of
+       each and the id of its cleaned name. */
+    private StaticKDTree places;
+    private int[] placeVertices;
+    private int[] placeNames;
+
+    /** Indexes the name of every named vertex of GRAPH. */
+    public NameIndex(CompactGraph graph) {
+        this.graph = graph;
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            String name = graph.name(v);
+            if (name != null) {
+                add(clean(name), v);
+            }
+        }
+        trim();
+        indexPlaces();
+    }
+
+    /**
+     * Rebuilds the index of GRAPH from its contents as returned by cleanedNames and
+     * vertices, such as those kept in a snapshot.
+     */
+    public NameIndex(CompactGraph graph, String[] cleanedNames, int[][] nameVertices) {
+        this.graph = graph;
+        for (int i = 0; i < cleanedNames.length; i++) {
+            for (int v : nameVertices[i]) {
+                add(cleanedNames[i], v);
+            }
+        }
+        trim();
+        indexPlaces();
+    }
+
+    /**
+     * Returns S without the characters that are not ASCII letters or spaces, in lower case:
+     * what s.replaceAll("[^a-zA-Z ]", "").toLowerCase() returns, in one pass and without a
+     * regular expression. Returns S itself if it is already clean.
+     */
+    public static String clean(String s) {
+        int n = s.length();
+        int i = 0;
+        while (i < n && isClean(s.charAt(i))) {
+            i++;
+        }
+        if (i == n) {
+            return s;
+        }
+        char[] out = new char[n];
+        s.getChars(0, i, out, 0);
+        int length = i;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                out[length++] = (char) (c + ('a' - 'A'));
+            } else if (isClean(c)) {
+                out[length++] = c;
+            }
+        }
+        return new String(out, 0, length);
+    }
+
+    private static boolean isClean(char c) {
+        return (c >= 'a' && c <= 'z') || c == ' ';
+    }
+
+    private void add(String cleanedName, int v) {
+        Integer id = ids.get(cleanedName);
+        if (id == null) {
+            if (size == cleanedNames.length) {
+                cleanedNames = Arrays.copyOf(cleanedNames, size * 2);
+                vertices = Arrays.copyOf(vertices, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            id = size;
+            cleanedNames[id] = cleanedName;
+            vertices[id] = new int[1];
+            ids.put(cleanedName, id);
+            size++;
+        }
+        if (counts[id] == vertices[id].length) {
+            vertices[id] = Arrays.copyOf(vertices[id], counts[id] * 2);
+        }
+        vertices[id][counts[id]] = v;
+        counts[id]++;
+        trie.add(cleanedName, counts[id]);
+    }
+
+    /* Drops the slack left by growing the arrays. */
+    private void trim() {
+        cleanedNames = Arrays.copyOf(cleanedNames, size);
+        vertices = Arrays.copyOf(vertices, size);
+        for (int id = 0; id < size; id++) {
+            vertices[id] = Arrays.copyOf(vertices[id], counts[id]);
+        }
+        counts = null;
+    }
+
+    private void indexPlaces() {
+        int numPlaces = 0;
+        for (int id = 0; id < size; id++) {
+            numPlaces += vertices[id].length;
+        }
+        placeVertices = new int[numPlaces];
+        placeNames = new int[numPlaces];
+        double[] lons = new double[numPlaces];
+        double[] lats = new double[numPlaces];
+        int p = 0;
+        for (int id = 0; id < size; id++) {
+            for (int v : vertices[id]) {
+                placeVertices[p] = v;
+                placeNames[p] = id;
+                lons[p] = graph.lon(v);
+                lats[p] = graph.lat(v);
+                p++;
+            }
+        }
+        places = new StaticKDTree(lons, lats, null);
+    }
+
+    /** Returns the number of distinct cleaned names. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the id of the cleaned name CLEANEDNAME, or -1 if no place has it. */
+    public int idOf(String cleanedName) {
+        Integer id = ids.get(cleanedName);
+        return id == null ? -1 : id;
+    }
+
+    /** Returns the cleaned name with id ID. */
+    public String cleanedName(int id) {
+        return cleanedNames[id];
+    }
+
+    /** Returns the vertices carrying the cleaned name with id ID, in vertex order. Do not
+     *  modify the array. */
+    public int[] vertices(int id) {
+        return vertices[id];
+    }
+
+    /** Returns every cleaned name, indexed by id. */
+    public String[] cleanedNames() {
+        return cleanedNames.clone();
+    }
+
+    /** Returns the vertices carrying each cleaned name, indexed by id. */
+    public int[][] vertices() {
+        return vertices.clone();
+    }
+
+    /**
+     * Returns the full name of every place whose cleaned name starts with the cleaned
+     * PREFIX, once per place.
+     */
+    public List<String> getLocationsByPrefix(String prefix) {
+        LinkedList<String> names = new LinkedList<>();
+        for (String key : trie.keysWithPrefix(clean(prefix))) {
+            for (int v : vertices[ids.get(key)]) {
+                names.add(graph.name(v));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns up to K distinct full names of places whose cleaned name starts with the
+     * cleaned PREFIX, taking the names shared by the most places first.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int k) {
+        return namesOf(trie.keysWithPrefix(clean(prefix), k), k);
+    }
+
+    /**
+     * Returns up to K distinct full names of places whose cleaned name starts with a string
+     * within MAXEDITS typing errors of the cleaned QUERY, nearest first, then those shared
+     * by the most places. Gives up once DEADLINE passes with what it has found by then.
+     */
+    public List<String> getLocationsNear(String query, int maxEdits, int k, Deadline deadline) {
+        return namesOf(trie.keysNear(clean(query), maxEdits, true, k, deadline), k);
+    }
+
+    /**
+     * Returns up to K distinct full names of places within RADIUS miles of (LON, LAT) whose
+     * cleaned name starts with the cleaned PREFIX, best first. Each name scores by its
+     * nearest such place: the share of the cleaned name the prefix covers, from near 0 up to
+     * 1 for an exact match, less the place's distance in units of
+     * Constants.SEARCH_DISTANCE_SCALE_MILES. Ties go to the name that sorts first.
+     *
+     * The trie first finds the cleaned names under the prefix. When they are carried by few
+     * places, those places are scored directly. Otherwise places are visited nearest first,
+     * skipping those with other names, and the search stops once none further out could
+     * make the top K. Either way it gives up once DEADLINE passes with the names found by
+     * then.
+     */
+    public List<String> getNearbyLocationsByPrefix(String prefix, double lon, double lat,
+                                                   double radius, int k, Deadline deadline) {
+        String cleaned = clean(prefix);
+        List<String> keys = trie.keysWithPrefix(cleaned);
+        NearbyNames nearby = new NearbyNames(k);
+        if (k <= 0 || keys.isEmpty()) {
+            return nearby.best();
+        }
+        int[] matching = new int[keys.size()];
+        long numMatches = 0;
+        for (int i = 0; i < matching.length; i++) {
+            matching[i] = ids.get(keys.get(i));
+            numMatches += vertices[matching[i]].length;
+        }
+        /* A walk through places nearest first passes about placeVertices.length / numMatches
+           places per match, and needs about K matches. */
+        if (numMatches * numMatches <= (long) k * placeVertices.length) {
+            int visited = 0;
+            for (int id : matching) {
+                double score = matchScore(cleaned, cleanedNames[id]);
+                for (int v : vertices[id]) {
+                    if (deadline.shouldStop(visited++)) {
+                        return nearby.best();
+                    }
+                    double distance = Point.distance(lon, graph.lon(v), lat, graph.lat(v));
+                    if (distance <= radius) {
+                        nearby.offer(graph.name(v), score - distance / SEARCH_DISTANCE_SCALE_MILES);
+                    }
+                }
+            }
+            return nearby.best();
+        }
+        boolean[] matches = new boolean[size];
+        for (int id : matching) {
+            matches[id] = true;
+        }
+        int[] visited = {0};
+        places.visitNearest(lon, lat, radius, (p, distance) -> {
+            if (deadline.shouldStop(visited[0]++)
+                    || !nearby.couldTake(1 - distance / SEARCH_DISTANCE_SCALE_MILES)) {
+                return false;
+            }
+            int id = placeNames[p];
+            if (matches[id]) {
+                nearby.offer(graph.name(placeVertices[p]), matchScore(cleaned, cleanedNames[id])
+                        - distance / SEARCH_DISTANCE_SCALE_MILES);
+            }
+            return true;
+        });
+        return nearby.best();
+    }
+
+    /* The best score of each full name offered, and the best K of those. */
+    private static class NearbyNames {
+        private final int k;
+        private final HashMap<String, Double> scores = new HashMap<>();
+        /* The best K scores of distinct names so far, worst first. */
+        private final PriorityQueue<Double> top = new PriorityQueue<>();
+
+        NearbyNames(int k) {
+            this.k = k;
+        }
+
+        /* Returns whether a name scoring SCORE could make the best K. */
+        boolean couldTake(double score) {
+            return top.size() < k || score >= top.peek();
+        }
+
+        void offer(String name, double score) {
+            Double old = scores.get(name);
+            if (old != null && old >= score) {
+                return;
+            }
+            scores.put(name, score);
+            if (old != null) {
+                /* The name's old score may still be among the top K; replace it there. */
+                if (top.remove(old)) {
+                    top.add(score);
+                }
+                return;
+            }
+            top.add(score);
+            if (top.size() > k) {
+                top.poll();
+            }
+        }
+
+        /* Returns the best K names, best first, ties going to the name that sorts first. */
+        List<String> best() {
+            List<String> names = new ArrayList<>(scores.keySet());
+            names.sort(Comparator.comparing((String name) -> -scores.get(name))
+                    .thenComparing(Comparator.naturalOrder()));
+            return new LinkedList<>(names.subList(0, Math.min(k, names.size())));
+        }
+    }
+
+    /** Returns how well the cleaned PREFIX matches the cleaned name CLEANEDNAME it starts:
+     *  the share of the name it covers, counting one more character in each. */
+    public static double matchScore(String prefix, String cleanedName) {
+        return (prefix.length() + 1.0) / (cleanedName.length() + 1.0);
+    }
+
+    /* Returns up to K distinct full names of the places with the cleaned names KEYS. */
+    private List<String> namesOf(List<String> keys, int k) {
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (String key : keys) {
+            for (int v : vertices[ids.get(key)]) {
+                if (names.size() == k) {
+                    return new LinkedList<>(names);
+                }
+                names.add(graph.name(v));
+            }
+        }
+        return new LinkedList<>(names);
+    }
+
+    /**
+     * Returns every place whose cleaned name is the cleaned LOCATIONNAME, each as a map of
+     * "lat", "lon", "name" and "id".
+     */
+    public List<Map<String, Object>> getLocations(String locationName) {
+        LinkedList<Map<String, Object>> locations = new LinkedList<>();
+        Integer id = ids.get(clean(locationName));
+        if (id == null) {
+            return locations;
+        }
+        for (int v : vertices[id]) {
+            locations.add(location(v));
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the K places nearest to (LON, LAT) whose cleaned name is the cleaned
+     * LOCATIONNAME, nearest first, each as a map like those getLocations returns.
+     */
+    public List<Map<String, Object>> getLocations(String locationName, double lon, double lat,
+                                                  int k) {
+        LinkedList<Map<String, Object>> locations = new LinkedList<>();
+        Integer id = ids.get(clean(locationName));
+        if (id == null) {
+            return locations;
+        }
+        int[] named = vertices[id];
+        Integer[] order = new Integer[named.length];
+        double[] distances = new double[named.length];
+        for (int i = 0; i < named.length; i++) {
+            order[i] = i;
+            distances[i] = Point.distance(lon, graph.lon(named[i]), lat, graph.lat(named[i]));
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> distances[i]));
+        for (int i = 0; i < Math.min(k, named.length); i++) {
+            locations.add(location(named[order[i]]));
+        }
+        return locations;
+    }
+
+    private Map<String, Object> location(int v) {
+        HashMap<String, Object> location = new HashMap<>();
+        location.put("lat", graph.lat(v));
+        location.put("lon", graph.lon(v));
+        location.put("name", graph.name(v));
+        location.put("id", graph.id(v));
+        return location;
+    }
+}
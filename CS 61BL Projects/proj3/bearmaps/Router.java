@@ -1,18 +1,84 @@
 package bearmaps;
 
 import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.BidirectionalAStarSolver;
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.RouteCache;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.ContractionHierarchySolver;
+import bearmaps.utils.graph.streetmap.PooledAStarSolver;
 
 import java.util.List;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static bearmaps.utils.Constants.ROUTE_TIMEOUT_SECONDS;
+
 /**
  * This class acts as a helper for the RoutingAPIHandler.
  * @author Josh Hug, ______
  */
 public class Router {
 
+    /** The shortest-path algorithms that shortestPath can run. */
+    public enum Algorithm {
+        /** Plain A* from the start towards the destination. */
+        ASTAR,
+        /** The same A* on the calling thread's reusable SearchWorkspace; allocates far less
+         *  per query. */
+        POOLED_ASTAR,
+        /** A* from both ends at once, meeting in between. */
+        BIDIRECTIONAL_ASTAR,
+        /** Upward searches in the graph's contraction hierarchy, which must be set. */
+        CONTRACTION_HIERARCHY
+    }
+
+    /**
+     * Returns a List of longs representing the shortest path from the node
+     * closest to a start location and the node closest to the destination location,
+     * found using the graph's contraction hierarchy if it has one and pooled A* otherwise.
+     * If the graph has a route cache, a route between two nodes already routed
+     * between is taken from the cache without searching.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat) {
+        return shortestPath(g, stlon, stlat, destlon, destlat,
+                Deadline.after(ROUTE_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Like shortestPath above, but gives up once DEADLINE passes, returning an empty
+     * list. Callers tell that apart from there being no route with deadline.stopped().
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat, Deadline deadline) {
+        long src = g.closest(stlon, stlat);
+        long dest = g.closest(destlon, destlat);
+        RouteCache cache = g.routeCache();
+        if (cache != null) {
+            RouteCache.Route cached = cache.get(src, dest);
+            if (cached != null) {
+                return cached.vertices();
+            }
+        }
+        Algorithm algorithm = g.contractionHierarchy() != null
+                ? Algorithm.CONTRACTION_HIERARCHY : Algorithm.POOLED_ASTAR;
+        ShortestPathsSolver<Long> solver = solve(g, src, dest, algorithm, deadline);
+        /* A search that timed out might find the route given longer, so it is not kept. */
+        if (cache != null && solver.outcome() != SolverOutcome.TIMEOUT) {
+            cache.put(src, dest, solver.solution(), solver.solutionWeight());
+        }
+        return solver.solution();
+    }
+
     /**
      * Overloaded method for shortestPath that has flexibility to specify a solver
      * and returns a List of longs representing the shortest path from the node
@@ -22,13 +88,43 @@ public class Router {
      * @param stlat The latitude of the start location.
      * @param destlon The longitude of the destination location.
      * @param destlat The latitude of the destination location.
+     * @param algorithm The algorithm to find the path with.
      * @return A list of node id's in the order visited on the shortest path.
      */
     public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
-                                          double destlon, double destlat) {
+                                          double destlon, double destlat, Algorithm algorithm) {
         long src = g.closest(stlon, stlat);
         long dest = g.closest(destlon, destlat);
-        return new AStarSolver<Long>(g, src, dest, 20).solution();
+        return solve(g, src, dest, algorithm).solution();
+    }
+
+    /**
+     * Runs ALGORITHM from vertex SRC to vertex DEST of G and returns the solver, so that
+     * callers can inspect the path weight and search statistics as well as the path.
+     */
+    public static ShortestPathsSolver<Long> solve(AugmentedStreetMapGraph g, long src, long dest,
+                                                  Algorithm algorithm) {
+        return solve(g, src, dest, algorithm, Deadline.after(ROUTE_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Like solve above, but the search gives up with a TIMEOUT outcome once DEADLINE passes
+     * or is cancelled.
+     */
+    public static ShortestPathsSolver<Long> solve(AugmentedStreetMapGraph g, long src, long dest,
+                                                  Algorithm algorithm, Deadline deadline) {
+        switch (algorithm) {
+            case BIDIRECTIONAL_ASTAR:
+                return new BidirectionalAStarSolver<>(g, src, dest, deadline);
+            case POOLED_ASTAR:
+                return new PooledAStarSolver(g, src, dest, deadline);
+            case CONTRACTION_HIERARCHY:
+                return new ContractionHierarchySolver(g.contractionHierarchy(), src, dest,
+                        deadline);
+            case ASTAR:
+            default:
+                return new AStarSolver<>(g, src, dest, deadline);
+        }
     }
 
     /**
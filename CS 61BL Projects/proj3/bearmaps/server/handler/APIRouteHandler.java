@@ -6,6 +6,7 @@ import spark.Response;
 import spark.Route;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import static spark.Spark.halt;
@@ -84,4 +85,27 @@ public abstract class APIRouteHandler<Req, Res> implements Route {
         }
         return params;
     }
+
+    /**
+     * Adds to PARAMS the numerical value of each of the optional request parameters that the
+     * request has and that is not blank.
+     * @param req HTTP Request.
+     * @param optionalParams TestParams to look for.
+     * @param params The parameter map to add them to.
+     */
+    protected void addOptionalRequestParams(
+            spark.Request req, String[] optionalParams, Map<String, Double> params) {
+        for (String param : optionalParams) {
+            String value = req.queryParams(param);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            try {
+                params.put(param, Double.parseDouble(value));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+        }
+    }
 }
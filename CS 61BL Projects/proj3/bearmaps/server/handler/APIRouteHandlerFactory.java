@@ -19,9 +19,13 @@ public class APIRouteHandlerFactory {
     static {
         handlerMap = new HashMap<>();
         handlerMap.put("raster", new RasterAPIHandler());
+        handlerMap.put("raster_image", new RasterImageAPIHandler());
         handlerMap.put("route", new RoutingAPIHandler());
         handlerMap.put("clear_route", new ClearRouteAPIHandler());
+        handlerMap.put("route_matrix", new RouteMatrixAPIHandler());
+        handlerMap.put("isochrone", new IsochroneAPIHandler());
         handlerMap.put("search", new SearchAPIHandler());
+        handlerMap.put("cache_stats", new CacheStatsAPIHandler());
         handlerMap.put("", new RedirectAPIHandler());
     }
 
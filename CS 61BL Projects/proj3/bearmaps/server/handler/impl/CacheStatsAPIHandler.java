@@ -0,0 +1,36 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.server.handler.APIRouteHandler;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.RASTER_CACHE;
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static bearmaps.utils.Constants.TILE_CACHE;
+
+/**
+ * Reports the size and hit, miss and eviction counters of the tile cache ("tiles"), the
+ * raster cache ("rasters") and the street graph's route cache ("routes", if it has one), so
+ * their capacities can be tuned against real traffic.
+ */
+public class CacheStatsAPIHandler extends APIRouteHandler<Object, Map<String, Object>> {
+
+    @Override
+    protected Object parseRequestParams(Request request) {
+        return null;
+    }
+
+    @Override
+    protected Map<String, Object> processRequest(Object requestParams, Response response) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("tiles", TILE_CACHE.stats());
+        stats.put("rasters", RASTER_CACHE.stats());
+        if (SEMANTIC_STREET_GRAPH != null && SEMANTIC_STREET_GRAPH.routeCache() != null) {
+            stats.put("routes", SEMANTIC_STREET_GRAPH.routeCache().stats());
+        }
+        return stats;
+    }
+}
@@ -1,27 +1,44 @@
 package bearmaps.server.handler.impl;
 
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.RouteStore;
 import spark.Request;
 import spark.Response;
 
-import static bearmaps.utils.Constants.ROUTE_LIST;
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.ROUTE_STORE;
+import static spark.Spark.halt;
 
 
 /**
- * Handles the "Clear Route" button in Bearmaps.
+ * Handles the "Clear Route" button in Bearmaps. The request names the route to forget
+ * with route_id, as returned by the route request.
  * Created by rahul
  */
-public class ClearRouteAPIHandler extends APIRouteHandler {
+public class ClearRouteAPIHandler extends APIRouteHandler<Map<String, Double>, Boolean> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
 
+    private static final String[] OPTIONAL_CLEAR_ROUTE_REQUEST_PARAMS = {"route_id"};
 
     @Override
-    protected Object parseRequestParams(Request request) {
-        return null;
+    protected Map<String, Double> parseRequestParams(Request request) {
+        Map<String, Double> params = new HashMap<>();
+        addOptionalRequestParams(request, OPTIONAL_CLEAR_ROUTE_REQUEST_PARAMS, params);
+        if (params.containsKey("route_id") && !RouteStore.isRouteId(params.get("route_id"))) {
+            halt(HALT_RESPONSE, "Incorrect route_id - provide an id returned by a route request.");
+        }
+        return params;
     }
 
     @Override
-    protected Object processRequest(Object requestParams, Response response) {
-        ROUTE_LIST.clear();
+    protected Boolean processRequest(Map<String, Double> requestParams, Response response) {
+        if (requestParams.containsKey("route_id")) {
+            ROUTE_STORE.remove(requestParams.get("route_id").longValue());
+        }
         return true;
     }
 }
@@ -0,0 +1,96 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.Isochrone;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.MAX_ISOCHRONE_MILES;
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the area that can be reached from a location within a given
+ * distance along the roads, for service-area planning.
+ */
+public class IsochroneAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /**
+     * Each isochrone request has the following parameters as keys in the params map: <br>
+     * lon : longitude of the starting point, <br> lat : latitude of the starting point, <br>
+     * miles : the distance along the road to reach out to, at most MAX_ISOCHRONE_MILES.
+     */
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat", "miles"};
+
+    /**
+     * An isochrone request may also have nodes : 1 to list the id of every vertex reached,
+     * not just the outline.
+     */
+    private static final String[] OPTIONAL_ISOCHRONE_REQUEST_PARAMS = {"nodes"};
+
+    @Override
+    protected Map<String, Double> parseRequestParams(Request request) {
+        Map<String, Double> params = getRequestParams(request, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+        addOptionalRequestParams(request, OPTIONAL_ISOCHRONE_REQUEST_PARAMS, params);
+        double miles = params.get("miles");
+        if (!(miles >= 0 && miles <= MAX_ISOCHRONE_MILES)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - miles must be from 0 to "
+                    + MAX_ISOCHRONE_MILES + ".");
+        }
+        return params;
+    }
+
+    /**
+     * @param requestParams Map of the HTTP GET request's query parameters.
+     * @param response : Not used by this function.
+     * @return A map of results for the front end, as returned by isochrone.
+     */
+    @Override
+    protected Map<String, Object> processRequest(Map<String, Double> requestParams,
+                                                 Response response) {
+        Double nodes = requestParams.get("nodes");
+        return isochrone(SEMANTIC_STREET_GRAPH, requestParams.get("lon"),
+                requestParams.get("lat"), requestParams.get("miles"),
+                nodes != null && nodes != 0);
+    }
+
+    /**
+     * Snaps (LON, LAT) to the closest vertex of G and returns what can be reached from it
+     * within MILES as a map for the front end: <br>
+     * "source_id" : Number, the vertex the location snapped to. <br>
+     * "hull" : Number[][], the convex hull of the vertices reached, as [lon, lat] pairs in
+     *          counterclockwise order. <br>
+     * "reached" : Number, how many vertices were reached. <br>
+     * "nodes" : Number[], the ids of the vertices reached, nearest first, if WITHNODES. <br>
+     * "isochrone_success" : Boolean, whether the hull encloses an area.
+     */
+    public static Map<String, Object> isochrone(AugmentedStreetMapGraph g, double lon,
+                                                double lat, double miles, boolean withNodes) {
+        CompactGraph graph = g.compactGraph();
+        long sourceId = g.closest(lon, lat);
+        Isochrone reached = Isochrone.reach(graph, graph.indexOf(sourceId), miles);
+        double[][] hull = reached.hull(graph);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("source_id", sourceId);
+        result.put("hull", hull);
+        result.put("reached", reached.size());
+        if (withNodes) {
+            long[] ids = new long[reached.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = graph.id(reached.vertex(i));
+            }
+            result.put("nodes", ids);
+        }
+        result.put("isochrone_success", hull.length >= 3);
+        return result;
+    }
+}
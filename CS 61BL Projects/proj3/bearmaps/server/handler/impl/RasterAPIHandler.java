@@ -5,20 +5,25 @@ import bearmaps.server.handler.APIRouteHandler;
 import spark.Request;
 import spark.Response;
 import bearmaps.utils.Constants;
+import bearmaps.utils.RasterCache;
+import bearmaps.utils.RasterEncoder;
+import bearmaps.utils.RouteStore;
+import bearmaps.utils.TileCache;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
-import static bearmaps.utils.Constants.ROUTE_LIST;
+import static bearmaps.utils.Constants.ROUTE_STORE;
 
 /**
  * Handles requests from the web browser for map images. These images
@@ -38,6 +43,12 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     private static final String[] REQUIRED_RASTER_REQUEST_PARAMS = {"ullat", "ullon", "lrlat",
             "lrlon", "w", "h"};
 
+    /**
+     * A raster request may also have route_id : the id of the client's route, as returned by
+     * the route request, to draw that route on the image.
+     */
+    private static final String[] OPTIONAL_RASTER_REQUEST_PARAMS = {"route_id"};
+
     /**
      * The result of rastering must be a map containing all of the
      * fields listed in the comments for RasterAPIHandler.processRequest.
@@ -45,10 +56,37 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
             "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
+    static {
+        /* Encode straight into memory or the response rather than through a temporary file. */
+        ImageIO.setUseCache(false);
+    }
+
+    private final TileCache tiles;
+    private final RasterCache rasters;
+    private final RasterEncoder encoder;
+
+    public RasterAPIHandler() {
+        this(Constants.TILE_CACHE, Constants.RASTER_CACHE);
+    }
+
+    /** Creates a handler that draws its rasters from the tiles in TILES and keeps the
+     *  encoded rasters in RASTERS. */
+    public RasterAPIHandler(TileCache tiles, RasterCache rasters) {
+        this(tiles, rasters, Constants.RASTER_ENCODER);
+    }
+
+    /** Creates a handler like the one above that encodes its rasters with ENCODER. */
+    public RasterAPIHandler(TileCache tiles, RasterCache rasters, RasterEncoder encoder) {
+        this.tiles = tiles;
+        this.rasters = rasters;
+        this.encoder = encoder;
+    }
 
     @Override
     protected Map<String, Double> parseRequestParams(Request request) {
-        return getRequestParams(request, REQUIRED_RASTER_REQUEST_PARAMS);
+        Map<String, Double> params = getRequestParams(request, REQUIRED_RASTER_REQUEST_PARAMS);
+        addOptionalRequestParams(request, OPTIONAL_RASTER_REQUEST_PARAMS, params);
+        return params;
     }
 
     /**
@@ -81,6 +119,7 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      *                    string. <br>
      * "query_success" : Boolean, whether the query was able to successfully complete; don't
      *                    forget to set this to true on success! <br>
+     * "route_id"      : Number, the route to draw, if the request named one. <br>
      */
     @Override
     public Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
@@ -92,6 +131,9 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         results.put("raster_lr_lat", 0);
         results.put("depth", 0);
         results.put("query_success", false);
+        if (requestParams.containsKey("route_id")) {
+            results.put("route_id", requestParams.get("route_id").longValue());
+        }
 
         double minX = Constants.ROOT_ULLON, maxX = Constants.ROOT_LRLON, diffX = maxX - minX;
         double minY = Constants.ROOT_LRLAT, maxY = Constants.ROOT_ULLAT, diffY = maxY - minY;
@@ -168,14 +210,14 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     }
 
     @Override
-    protected Object buildJsonResponse(Map<String, Object> result) {
+    public Object buildJsonResponse(Map<String, Object> result) {
         boolean rasterSuccess = validateRasteredImgParams(result);
 
         if (rasterSuccess) {
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            writeImagesToOutputStream(result, os);
-            String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+            RasterCache.Raster raster = getRaster(result);
+            String encodedImage = Base64.getEncoder().encodeToString(raster.bytes());
             result.put("b64_encoded_image_data", encodedImage);
+            result.put("image_content_type", raster.contentType());
         }
         return super.buildJsonResponse(result);
     }
@@ -196,7 +238,7 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      * Validates that Rasterer has returned a result that can be rendered.
      * @param rip : Parameters provided by the rasterer
      */
-    private boolean validateRasteredImgParams(Map<String, Object> rip) {
+    protected boolean validateRasteredImgParams(Map<String, Object> rip) {
         for (String p : REQUIRED_RASTER_RESULT_PARAMS) {
             if (!rip.containsKey(p)) {
                 System.out.println("Your rastering result is missing the " + p + " field.");
@@ -218,12 +260,54 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we made this into provided code since it was just a bit too low level.
      */
-    private  void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+    public void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+                                          OutputStream os) {
+        try {
+            os.write(getRaster(rasteredImageParams).bytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the encoded raster for rasteredImageParams, drawing it only if it is not in
+     * the raster cache with the same route, and adds its "raster_width" and "raster_height"
+     * to rasteredImageParams.
+     */
+    protected RasterCache.Raster getRaster(Map<String, Object> rasteredImageParams) {
+        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        RouteStore.Route route = null;
+        if (rasteredImageParams.containsKey("route_id")) {
+            route = ROUTE_STORE.get((long) rasteredImageParams.get("route_id"));
+        }
+        String key = RasterCache.key(renderGrid,
+                route == null ? RouteStore.NO_ROUTE : route.stamp());
+        RasterCache.Raster raster = rasters.get(key);
+        if (raster == null) {
+            BufferedImage img = renderImages(rasteredImageParams,
+                    route == null ? Collections.emptyList() : route.vertices());
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            encode(img, os);
+            raster = new RasterCache.Raster(os.toByteArray(), contentType(), img.getWidth(),
+                    img.getHeight());
+            rasters.put(key, raster);
+        }
+        rasteredImageParams.put("raster_width", raster.width());
+        rasteredImageParams.put("raster_height", raster.height());
+        return raster;
+    }
+
+    /**
+     * Draws the tiles for rasteredImageParams into one image with ROUTE over them, and adds
+     * its "raster_width" and "raster_height" to rasteredImageParams.
+     */
+    protected BufferedImage renderImages(Map<String, Object> rasteredImageParams,
+                                         List<Long> route) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
 
+        BufferedImage[][] tileImages = tiles.getAll(renderGrid);
         BufferedImage img = new BufferedImage(numHorizTiles * Constants.TILE_SIZE,
                 numVertTiles * Constants.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
         Graphics graphic = img.getGraphics();
@@ -231,7 +315,7 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
 
         for (int r = 0; r < numVertTiles; r += 1) {
             for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(Constants.IMG_ROOT + renderGrid[r][c]), x, y, null);
+                graphic.drawImage(tileImages[r][c], x, y, null);
                 x += Constants.TILE_SIZE;
                 if (x >= img.getWidth()) {
                     x = 0;
@@ -249,9 +333,8 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
         AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
-        List<Long> route = ROUTE_LIST;
 
-        if (route != null && !route.isEmpty()) {
+        if (!route.isEmpty()) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(Constants.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(Constants.ROUTE_STROKE_WIDTH_PX,
@@ -267,25 +350,20 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
 
         rasteredImageParams.put("raster_width", img.getWidth());
         rasteredImageParams.put("raster_height", img.getHeight());
+        return img;
+    }
 
+    /** Encodes IMG to OS with this handler's encoder. */
+    protected void encode(BufferedImage img, OutputStream os) {
         try {
-            ImageIO.write(img, "png", os);
+            encoder.encode(img, os);
         } catch (IOException e) {
             e.printStackTrace();
         }
-
     }
 
-    private BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
-        }
-        return tileImg;
+    /** Returns the MIME type of the rasters this handler encodes. */
+    protected String contentType() {
+        return encoder.contentType();
     }
 }
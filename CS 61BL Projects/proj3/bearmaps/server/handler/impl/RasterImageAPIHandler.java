@@ -0,0 +1,66 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.utils.RasterCache;
+import bearmaps.utils.TileCache;
+import spark.Request;
+import spark.Response;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Handles the same requests as RasterAPIHandler, but answers with the rastered image itself
+ * (a PNG, unless the raster encoder says otherwise), written straight to the response
+ * instead of Base64-encoded into JSON. The rest of the raster result travels in response
+ * headers: <br>
+ * X-Raster-UL-Lon, X-Raster-UL-Lat, X-Raster-LR-Lon, X-Raster-LR-Lat : the bounds of the
+ * image. <br>
+ * X-Raster-Depth : the depth of its tiles. <br>
+ * X-Raster-Width, X-Raster-Height : its size in pixels. <br>
+ * A query that does not succeed is answered with 204 No Content.
+ */
+public class RasterImageAPIHandler extends RasterAPIHandler {
+
+    /** HTTP response for a query that covers no tiles. */
+    private static final int NO_CONTENT_RESPONSE = 204;
+
+    private static final String[][] RESULT_HEADERS = {
+            {"X-Raster-UL-Lon", "raster_ul_lon"}, {"X-Raster-UL-Lat", "raster_ul_lat"},
+            {"X-Raster-LR-Lon", "raster_lr_lon"}, {"X-Raster-LR-Lat", "raster_lr_lat"},
+            {"X-Raster-Depth", "depth"}, {"X-Raster-Width", "raster_width"},
+            {"X-Raster-Height", "raster_height"}};
+
+    public RasterImageAPIHandler() {
+        super();
+    }
+
+    public RasterImageAPIHandler(TileCache tiles, RasterCache rasters) {
+        super(tiles, rasters);
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        Map<String, Object> result = processRequest(parseRequestParams(request), response);
+        if (!validateRasteredImgParams(result)) {
+            response.status(NO_CONTENT_RESPONSE);
+            return "";
+        }
+        RasterCache.Raster raster = getRaster(result);
+
+        StringBuilder exposed = new StringBuilder();
+        for (String[] header : RESULT_HEADERS) {
+            response.header(header[0], String.valueOf(result.get(header[1])));
+            exposed.append(exposed.length() == 0 ? "" : ", ").append(header[0]);
+        }
+        response.header("Access-Control-Expose-Headers", exposed.toString());
+        response.header("Cache-Control", "no-store");
+        response.type(raster.contentType());
+        response.raw().setContentLength(raster.bytes().length);
+
+        OutputStream os = response.raw().getOutputStream();
+        os.write(raster.bytes());
+        os.flush();
+        /* The body has already been written, so there is nothing left for Spark to send. */
+        return "";
+    }
+}
@@ -0,0 +1,135 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.Tuple;
+import bearmaps.utils.graph.streetmap.DistanceMatrix;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static bearmaps.utils.Constants.MAX_ROUTE_MATRIX_POINTS;
+import static bearmaps.utils.Constants.ROUTE_MATRIX_THREADS;
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the road distance from each of a list of locations to each of
+ * another, for clients that would otherwise ask for every pairing one route at a time.
+ * Locations are snapped to the street graph as routes are, and the matrix is computed in
+ * one batch, its rows in parallel.
+ */
+public class RouteMatrixAPIHandler extends APIRouteHandler<Tuple<double[][], double[][]>,
+        Map<String, Object>> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** Computes the rows of every matrix; shared so concurrent requests queue for it. */
+    private static final ExecutorService ROWS = Executors.newFixedThreadPool(
+            ROUTE_MATRIX_THREADS, r -> {
+                Thread t = new Thread(r, "route-matrix");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * Each route matrix request has the following parameters: <br>
+     * sources : the locations to route from, as "lon,lat;lon,lat;...", <br>
+     * targets : the locations to route to, in the same form.
+     */
+    @Override
+    protected Tuple<double[][], double[][]> parseRequestParams(Request request) {
+        return new Tuple<>(parseLocations(request.queryParams("sources")),
+                parseLocations(request.queryParams("targets")));
+    }
+
+    /* Parses "lon,lat;lon,lat;..." into {lon, lat} pairs, halting the request if it is
+       missing, malformed or longer than MAX_ROUTE_MATRIX_POINTS. */
+    private static double[][] parseLocations(String param) {
+        if (param == null || param.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] locations = param.split(";");
+        if (locations.length > MAX_ROUTE_MATRIX_POINTS) {
+            halt(HALT_RESPONSE, "Request failed - at most " + MAX_ROUTE_MATRIX_POINTS
+                    + " sources and " + MAX_ROUTE_MATRIX_POINTS + " targets.");
+        }
+        double[][] result = new double[locations.length][];
+        for (int i = 0; i < locations.length; i++) {
+            String[] lonLat = locations[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(locations[i]);
+                }
+                result[i] = new double[]{Double.parseDouble(lonLat[0].trim()),
+                        Double.parseDouble(lonLat[1].trim())};
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param requestParams The sources and the targets, each a list of {lon, lat} pairs.
+     * @param response : Not used by this function.
+     * @return A map of results for the front end, as returned by routeMatrix.
+     */
+    @Override
+    protected Map<String, Object> processRequest(Tuple<double[][], double[][]> requestParams,
+                                                 Response response) {
+        return routeMatrix(SEMANTIC_STREET_GRAPH, requestParams.getFirst(),
+                requestParams.getSecond(), ROWS);
+    }
+
+    /**
+     * Snaps each of the {lon, lat} pairs SOURCES and TARGETS to its closest vertex of G, and
+     * returns the distances between them as a map for the front end: <br>
+     * "distances" : Number[][], the distance in miles along the road from the i-th source to
+     *               the j-th target at [i][j], or null if there is no route between them. <br>
+     * "source_ids", "target_ids" : Number[], the vertices the locations snapped to. <br>
+     * "matrix_success" : Boolean, whether every pair has a route.
+     * Rows are computed on POOL, or on the calling thread if it is null.
+     */
+    public static Map<String, Object> routeMatrix(AugmentedStreetMapGraph g, double[][] sources,
+                                                  double[][] targets, ExecutorService pool) {
+        long[] sourceIds = snap(g, sources);
+        long[] targetIds = snap(g, targets);
+        double[][] weights = DistanceMatrix.compute(g, sourceIds, targetIds, pool);
+
+        /* Gson cannot write infinities, so unreachable pairs go out as nulls. */
+        Double[][] distances = new Double[weights.length][];
+        boolean complete = true;
+        for (int i = 0; i < weights.length; i++) {
+            distances[i] = new Double[weights[i].length];
+            for (int j = 0; j < weights[i].length; j++) {
+                if (weights[i][j] == Double.POSITIVE_INFINITY) {
+                    complete = false;
+                } else {
+                    distances[i][j] = weights[i][j];
+                }
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("distances", distances);
+        result.put("source_ids", sourceIds);
+        result.put("target_ids", targetIds);
+        result.put("matrix_success", complete);
+        return result;
+    }
+
+    private static long[] snap(AugmentedStreetMapGraph g, double[][] locations) {
+        long[] ids = new long[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            ids[i] = g.closest(locations[i][0], locations[i][1]);
+        }
+        return ids;
+    }
+}
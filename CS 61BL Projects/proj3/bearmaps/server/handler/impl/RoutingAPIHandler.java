@@ -2,15 +2,20 @@ package bearmaps.server.handler.impl;
 
 import bearmaps.Router;
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.RouteStore;
+import bearmaps.utils.graph.Deadline;
 import spark.Request;
 import spark.Response;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import static bearmaps.utils.Constants.ROUTE_REQUEST_DEADLINE_MILLIS;
 import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
-import static bearmaps.utils.Constants.ROUTE_LIST;
+import static bearmaps.utils.Constants.ROUTE_STORE;
+import static spark.Spark.halt;
 
 /**
  * Handles requests from the web browser for routes between locations. The
@@ -19,6 +24,9 @@ import static bearmaps.utils.Constants.ROUTE_LIST;
  */
 public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
 
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
     /**
      * Each route request to the server will have the following parameters
      * as keys in the params map.<br>
@@ -28,9 +36,21 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
             "end_lat", "end_lon"};
 
+    /**
+     * A route request may also have route_id : the id the client's previous route was
+     * stored under, to store this one in its place. It must be a whole number from 1 to
+     * 2^53 - 1.
+     */
+    private static final String[] OPTIONAL_ROUTE_REQUEST_PARAMS = {"route_id"};
+
     @Override
     protected Map<String, Double> parseRequestParams(Request request) {
-        return getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+        Map<String, Double> params = getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+        addOptionalRequestParams(request, OPTIONAL_ROUTE_REQUEST_PARAMS, params);
+        if (params.containsKey("route_id") && !RouteStore.isRouteId(params.get("route_id"))) {
+            halt(HALT_RESPONSE, "Incorrect route_id - provide an id returned by a route request.");
+        }
+        return params;
     }
 
     /**
@@ -38,9 +58,13 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * street directions between the given points. THis method has been
      * completed for you.
      *
-     * The route to draw on the map should be added to the end of
-     * Constants.ROUTE_LIST. This is a LinkedList of longs,
-     * where each long corresponds to one point on the map.
+     * The route to draw on the map is stored in Constants.ROUTE_STORE, under the
+     * request's route_id if the store still holds a route there, and under a new
+     * route id otherwise, so a client can never write under an id it made up. The
+     * client passes that id with its raster requests to have the route drawn.
+     *
+     * The search gives up after Constants.ROUTE_REQUEST_DEADLINE_MILLIS, and the
+     * request is answered without a route rather than kept waiting.
      *
      * Street directions can also be provided in the form of text as a return
      * value to this function.
@@ -55,30 +79,40 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * "directions_success" : Boolean, whether the query generated text directions (i.e. if
      *                        length of directions is > 0).
      * "directions"      : String. The text directions you want to display, in HTML format.
+     * "route_id"        : Number, the id the route is stored under.
+     * "timed_out"       : Boolean, whether the search gave up before finding a route.
      */
     @Override
     protected Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
+        Deadline deadline = Deadline.afterNanos(
+                TimeUnit.MILLISECONDS.toNanos(ROUTE_REQUEST_DEADLINE_MILLIS));
         List<Long> route = Router.shortestPath(
                 SEMANTIC_STREET_GRAPH,
                 requestParams.get("start_lon"), requestParams.get("start_lat"),
-                requestParams.get("end_lon"), requestParams.get("end_lat"));
-        ROUTE_LIST.addAll(route);
-        String directions = getDirectionsText();
+                requestParams.get("end_lon"), requestParams.get("end_lat"), deadline);
+        long routeId = requestParams.containsKey("route_id")
+                ? requestParams.get("route_id").longValue() : RouteStore.NO_ROUTE;
+        if (routeId == RouteStore.NO_ROUTE || !ROUTE_STORE.replace(routeId, route)) {
+            routeId = ROUTE_STORE.add(route);
+        }
+        String directions = getDirectionsText(route);
 
         Map<String, Object> routeParams = new HashMap<>();
         routeParams.put("routing_success", !route.isEmpty());
         routeParams.put("directions_success", directions.length() > 0);
         routeParams.put("directions", directions);
+        routeParams.put("route_id", routeId);
+        routeParams.put("timed_out", deadline.stopped());
         return routeParams;
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes ROUTE and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private String getDirectionsText() {
+    private String getDirectionsText(List<Long> route) {
 
-        List<Router.NavigationDirection> directions = Router.routeDirections(SEMANTIC_STREET_GRAPH, ROUTE_LIST);
+        List<Router.NavigationDirection> directions = Router.routeDirections(SEMANTIC_STREET_GRAPH, route);
         if (directions == null || directions.isEmpty()) {
             return "";
         }
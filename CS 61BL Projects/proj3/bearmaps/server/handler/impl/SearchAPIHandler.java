@@ -1,42 +1,142 @@
 package bearmaps.server.handler.impl;
 
+import bearmaps.NameIndex;
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.ps.Point;
 import spark.Request;
 import spark.Response;
-import bearmaps.utils.Tuple;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+import static bearmaps.utils.Constants.SEARCH_NEARBY_MILES;
+import static bearmaps.utils.Constants.SEARCH_RESULT_LIMIT;
 import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
 
 /**
  * Created by rahul
  */
-public class SearchAPIHandler extends APIRouteHandler<Tuple<Set<String>, String>, Object> {
+public class SearchAPIHandler extends APIRouteHandler<Map<String, String>, Object> {
 
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
 
+    /** Optional parameters that say where the user is looking. */
+    private static final String[] AREA_PARAMS = new String[]{"lon", "lat", "ullon", "ullat",
+        "lrlon", "lrlat"};
+
+    /**
+     * A search request has term : the text searched for, and may also have <br>
+     * full : present to look up the locations with exactly that name, <br>
+     * fuzzy : present to also match names a few typing errors away from the term, <br>
+     * limit : the most names a prefix search returns, Constants.SEARCH_RESULT_LIMIT if
+     *         absent; 0 or less returns every name that matches, <br>
+     * ullon, ullat, lrlon, lrlat : the corners of the part of the map the user is looking
+     *         at, or lon, lat : its centre. Either ranks places there first, and limits a
+     *         full search to the limit locations nearest the centre.
+     */
     @Override
-    protected Tuple<Set<String>, String> parseRequestParams(Request request) {
-        return new Tuple<>(request.queryParams(), request.queryParams("term"));
+    protected Map<String, String> parseRequestParams(Request request) {
+        Map<String, String> params = new HashMap<>();
+        for (String param : request.queryParams()) {
+            params.put(param, request.queryParams(param));
+        }
+        try {
+            if (params.containsKey("limit")) {
+                Integer.parseInt(params.get("limit"));
+            }
+            for (String param : AREA_PARAMS) {
+                if (params.containsKey(param)) {
+                    Double.parseDouble(params.get(param));
+                }
+            }
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        return params;
     }
 
     @Override
-    protected Object processRequest(Tuple<Set<String>, String> requestParams, Response response) {
-        Set<String> reqParams = requestParams.getFirst();
-        String term = requestParams.getSecond();
+    protected Object processRequest(Map<String, String> requestParams, Response response) {
+        String term = NameIndex.clean(requestParams.getOrDefault("term", ""));
+        int limit = requestParams.containsKey("limit")
+                ? Integer.parseInt(requestParams.get("limit")) : SEARCH_RESULT_LIMIT;
+        double[] area = searchArea(requestParams);
         Object result;
         /* Search for actual location data. */
-        if (reqParams.contains("full")) {
-            result = getLocations(term);
+        if (requestParams.containsKey("full")) {
+            if (area != null && limit > 0) {
+                result = SEMANTIC_STREET_GRAPH.getLocations(term, area[0], area[1], limit);
+            } else {
+                result = getLocations(term);
+            }
+        } else if (area != null && limit > 0) {
+            /* Search for prefix matching strings, nearby ones first. */
+            if (requestParams.containsKey("fuzzy")) {
+                result = SEMANTIC_STREET_GRAPH.getLocationsNear(term, limit, area[0], area[1],
+                        area[2]);
+            } else {
+                result = SEMANTIC_STREET_GRAPH.getLocationsByPrefix(term, limit, area[0],
+                        area[1], area[2]);
+            }
         } else {
             /* Search for prefix matching strings. */
-            result = getLocationsByPrefix(term);
+            if (requestParams.containsKey("fuzzy")) {
+                result = getLocationsNear(term, limit > 0 ? limit : Integer.MAX_VALUE);
+            } else if (limit > 0) {
+                result = getLocationsByPrefix(term, limit);
+            } else {
+                result = getLocationsByPrefix(term);
+            }
         }
         return result;
     }
 
+    /* Returns where the user is looking as {lon, lat, radius}: the centre of the viewport
+       and the distance in miles from it to the corners, or the centre alone with a radius
+       of Constants.SEARCH_NEARBY_MILES. Returns null if the request says neither. */
+    private static double[] searchArea(Map<String, String> params) {
+        if (params.containsKey("ullon") && params.containsKey("ullat")
+                && params.containsKey("lrlon") && params.containsKey("lrlat")) {
+            double ullon = Double.parseDouble(params.get("ullon"));
+            double ullat = Double.parseDouble(params.get("ullat"));
+            double lrlon = Double.parseDouble(params.get("lrlon"));
+            double lrlat = Double.parseDouble(params.get("lrlat"));
+            return new double[]{(ullon + lrlon) / 2, (ullat + lrlat) / 2,
+                Point.distance(ullon, lrlon, ullat, lrlat) / 2};
+        }
+        if (params.containsKey("lon") && params.containsKey("lat")) {
+            return new double[]{Double.parseDouble(params.get("lon")),
+                Double.parseDouble(params.get("lat")), SEARCH_NEARBY_MILES};
+        }
+        return null;
+    }
+
+    /**
+     * Collects the K names of OSM locations that prefix-match the query string and are
+     * shared by the most locations, without looking at the rest.
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param k The most names to return.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int k) {
+        return SEMANTIC_STREET_GRAPH.getLocationsByPrefix(prefix, k);
+    }
+
+    /**
+     * Collects the K names of OSM locations nearest to prefix-matching the query string,
+     * forgiving a few typing errors, best first.
+     * @param prefix What has been typed so far. Could be any case, with our without
+     *               punctuation.
+     * @param k The most names to return.
+     */
+    public List<String> getLocationsNear(String prefix, int k) {
+        return SEMANTIC_STREET_GRAPH.getLocationsNear(prefix, k);
+    }
+
     /**
      * In linear time, collect all the names of OSM locations that prefix-match the query string.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
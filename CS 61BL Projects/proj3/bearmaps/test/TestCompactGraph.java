@@ -0,0 +1,121 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.WeightedEdge;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compact (CSR) adjacency store against the HashMap layout it replaced, and
+ * reports how the two compare in memory use and neighbour-scan throughput.
+ */
+public class TestCompactGraph {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_SCANS = 20;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testEdgesAreSymmetric() {
+        CompactGraph cg = graph.compactGraph();
+        for (int v = 0; v < cg.vertexCount(); v++) {
+            for (int e = cg.firstEdge(v); e < cg.endEdge(v); e++) {
+                int w = cg.target(e);
+                boolean found = false;
+                for (int f = cg.firstEdge(w); f < cg.endEdge(w); f++) {
+                    found |= cg.target(f) == v && cg.weight(f) == cg.weight(e);
+                }
+                assertTrue("Missing reverse edge for " + cg.id(v) + " -> " + cg.id(w), found);
+            }
+        }
+    }
+
+    @Test
+    public void testIndexedNeighborsMatchNeighbors() {
+        CompactGraph cg = graph.compactGraph();
+        for (int v = 0; v < cg.vertexCount(); v++) {
+            List<WeightedEdge<Long>> edges = graph.neighbors(cg.id(v));
+            int[] seen = {0};
+            graph.forEachNeighbor(v, (w, weight) -> {
+                WeightedEdge<Long> e = edges.get(seen[0]++);
+                assertEquals((long) e.to(), cg.id(w));
+                assertEquals(e.weight(), weight, 0);
+            });
+            assertEquals(edges.size(), seen[0]);
+        }
+    }
+
+    @Test
+    public void testMemoryAndScanThroughput() {
+        CompactGraph cg = graph.compactGraph();
+
+        long before = usedMemory();
+        Map<Long, Set<WeightedEdge<Long>>> hashLayout = new HashMap<>();
+        for (int v = 0; v < cg.vertexCount(); v++) {
+            hashLayout.put(cg.id(v), new HashSet<>(graph.neighbors(cg.id(v))));
+        }
+        long hashBytes = usedMemory() - before;
+
+        for (int v = 0; v < cg.vertexCount(); v++) {
+            List<WeightedEdge<Long>> edges = graph.neighbors(cg.id(v));
+            assertEquals(hashLayout.get(cg.id(v)).size(), edges.size());
+            assertEquals(cg.degree(v), edges.size());
+        }
+
+        Stopwatch sw = new Stopwatch();
+        double hashSum = 0;
+        for (int i = 0; i < NUM_SCANS; i++) {
+            for (Set<WeightedEdge<Long>> edges : hashLayout.values()) {
+                for (WeightedEdge<Long> e : edges) {
+                    hashSum += e.weight();
+                }
+            }
+        }
+        double hashTime = sw.elapsedTime();
+
+        sw = new Stopwatch();
+        double compactSum = 0;
+        for (int i = 0; i < NUM_SCANS; i++) {
+            for (int v = 0; v < cg.vertexCount(); v++) {
+                for (int e = cg.firstEdge(v); e < cg.endEdge(v); e++) {
+                    compactSum += cg.weight(e);
+                }
+            }
+        }
+        double compactTime = sw.elapsedTime();
+        assertEquals(hashSum, compactSum, 1e-6 * hashSum);
+
+        System.out.println(String.format("%d vertices, %d edges.", cg.vertexCount(),
+                cg.edgeCount()));
+        System.out.println(String.format("HashMap layout: ~%d KB, %d scans in %.3f seconds.",
+                hashBytes / 1024, NUM_SCANS, hashTime));
+        System.out.println(String.format("Compact layout: ~%d KB, %d scans in %.3f seconds.",
+                cg.estimatedBytes() / 1024, NUM_SCANS, compactTime));
+    }
+
+    private static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
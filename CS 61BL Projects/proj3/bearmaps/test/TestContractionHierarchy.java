@@ -0,0 +1,97 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.ContractionHierarchy;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks routes answered by the contraction hierarchy against A* on random vertex pairs,
+ * and reports what preprocessing costs and how much each query saves.
+ */
+public class TestContractionHierarchy {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 100;
+    private static AugmentedStreetMapGraph graph;
+    private static double buildTime;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        Stopwatch sw = new Stopwatch();
+        graph.setContractionHierarchy(ContractionHierarchy.build(graph.compactGraph()));
+        buildTime = sw.elapsedTime();
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        CompactGraph cg = graph.compactGraph();
+        Random random = new Random(61);
+        int aStarStates = 0, chStates = 0;
+        double aStarTime = 0, chTime = 0;
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            long src = cg.id(random.nextInt(cg.vertexCount()));
+            long dest = cg.id(random.nextInt(cg.vertexCount()));
+            ShortestPathsSolver<Long> expected = Router.solve(graph, src, dest,
+                    Router.Algorithm.ASTAR);
+            ShortestPathsSolver<Long> actual = Router.solve(graph, src, dest,
+                    Router.Algorithm.CONTRACTION_HIERARCHY);
+            assertEquals(expected.outcome(), actual.outcome());
+            if (expected.outcome() != SolverOutcome.SOLVED) {
+                continue;
+            }
+            assertEquals("Contraction hierarchy found a path of a different weight",
+                    expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+            assertIsPath(cg, actual.solution(), actual.solutionWeight());
+            assertEquals(src, (long) actual.solution().get(0));
+            assertEquals(dest, (long) actual.solution().get(actual.solution().size() - 1));
+            aStarStates += expected.numStatesExplored();
+            chStates += actual.numStatesExplored();
+            aStarTime += expected.explorationTime();
+            chTime += actual.explorationTime();
+        }
+
+        ContractionHierarchy ch = graph.contractionHierarchy();
+        System.out.println(String.format("Contracted %d vertices in %.3f seconds, adding %d "
+                + "shortcuts.", cg.vertexCount(), buildTime, ch.shortcutCount()));
+        System.out.println(String.format("A* settled %d states in %.3f seconds, the "
+                + "contraction hierarchy settled %d in %.3f.", aStarStates, aStarTime,
+                chStates, chTime));
+        assertTrue(chStates < aStarStates);
+    }
+
+    /* Checks that consecutive vertices of PATH are joined by edges adding up to WEIGHT. */
+    private static void assertIsPath(CompactGraph cg, List<Long> path, double weight) {
+        double total = 0;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            int v = cg.indexOf(path.get(i));
+            int w = cg.indexOf(path.get(i + 1));
+            double best = Double.POSITIVE_INFINITY;
+            for (int e = cg.firstEdge(v); e < cg.endEdge(v); e++) {
+                if (cg.target(e) == w) {
+                    best = Math.min(best, cg.weight(e));
+                }
+            }
+            assertTrue("No edge between " + path.get(i) + " and " + path.get(i + 1),
+                    best < Double.POSITIVE_INFINITY);
+            total += best;
+        }
+        assertEquals(weight, total, 1e-9);
+    }
+}
@@ -0,0 +1,120 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every solver gives up with a TIMEOUT outcome soon after its deadline passes
+ * or is cancelled, and that a deadline that never passes changes no route.
+ */
+public class TestDeadline {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final Router.Algorithm[] SEARCHES = {Router.Algorithm.ASTAR,
+        Router.Algorithm.POOLED_ASTAR, Router.Algorithm.BIDIRECTIONAL_ASTAR};
+    private static AugmentedStreetMapGraph graph;
+    private static long src;
+    private static long dest;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        /* Opposite corners of the map, so every search expands thousands of vertices. */
+        src = graph.closest(-122.30, 37.82);
+        dest = graph.closest(-122.21, 37.89);
+        initialized = true;
+    }
+
+    @Test
+    public void testChecksEveryInterval() {
+        Deadline deadline = Deadline.afterNanos(0);
+        assertTrue(deadline.passed());
+        assertFalse(deadline.shouldStop(1));
+        assertFalse(deadline.stopped());
+        assertTrue(deadline.shouldStop(Deadline.CHECK_INTERVAL));
+        assertTrue(deadline.stopped());
+
+        Deadline none = Deadline.none();
+        assertFalse(none.shouldStop(0));
+        none.cancel();
+        assertTrue(none.isCancelled());
+        assertTrue(none.shouldStop(0));
+    }
+
+    @Test
+    public void testCancelledSearchesTimeOut() {
+        for (Router.Algorithm algorithm : SEARCHES) {
+            Deadline deadline = Deadline.none();
+            deadline.cancel();
+            ShortestPathsSolver<Long> solver = Router.solve(graph, src, dest, algorithm,
+                    deadline);
+            assertEquals(algorithm.toString(), SolverOutcome.TIMEOUT, solver.outcome());
+            assertTrue(solver.solution().isEmpty());
+            assertTrue(solver.numStatesExplored() <= Deadline.CHECK_INTERVAL);
+            assertTrue(deadline.stopped());
+        }
+    }
+
+    @Test
+    public void testUnboundedDeadlineChangesNothing() {
+        CompactGraph cg = graph.compactGraph();
+        Random random = new Random(20);
+        for (int i = 0; i < 50; i++) {
+            long s = cg.id(random.nextInt(cg.vertexCount()));
+            long t = cg.id(random.nextInt(cg.vertexCount()));
+            for (Router.Algorithm algorithm : SEARCHES) {
+                ShortestPathsSolver<Long> expected = Router.solve(graph, s, t, algorithm);
+                Deadline deadline = Deadline.none();
+                ShortestPathsSolver<Long> actual = Router.solve(graph, s, t, algorithm,
+                        deadline);
+                assertEquals(expected.outcome(), actual.outcome());
+                assertEquals(expected.solution(), actual.solution());
+                assertFalse(deadline.stopped());
+            }
+        }
+    }
+
+    @Test
+    public void testGivesUpSoonAfterDeadline() {
+        for (Router.Algorithm algorithm : SEARCHES) {
+            /* Warm up, so the timing below does not include compiling the search. */
+            for (int k = 0; k < 3; k++) {
+                Router.solve(graph, src, dest, algorithm, Deadline.none());
+            }
+            long start = System.nanoTime();
+            ShortestPathsSolver<Long> full = Router.solve(graph, src, dest, algorithm,
+                    Deadline.none());
+            long fullNanos = System.nanoTime() - start;
+
+            long budget = fullNanos / 10;
+            start = System.nanoTime();
+            Deadline deadline = Deadline.afterNanos(budget);
+            ShortestPathsSolver<Long> cut = Router.solve(graph, src, dest, algorithm, deadline);
+            long cutNanos = System.nanoTime() - start;
+            double intervalNanos = (double) fullNanos / full.numStatesExplored()
+                    * Deadline.CHECK_INTERVAL;
+            System.out.println(String.format("%s: %.2f ms to solve, gave up %.2f ms into a "
+                    + "%.2f ms deadline after %d of %d expansions; %.2f ms between checks.",
+                    algorithm, fullNanos / 1e6, cutNanos / 1e6, budget / 1e6,
+                    cut.numStatesExplored(), full.numStatesExplored(), intervalNanos / 1e6));
+            assertEquals(SolverOutcome.TIMEOUT, cut.outcome());
+            assertTrue(cutNanos < fullNanos);
+            assertTrue(intervalNanos < 1e6);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.RadixTrieSet;
+import bearmaps.utils.graph.Deadline;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks typo-tolerant search against edit distances worked out key by key, and measures
+ * how often and how fast it recovers what was meant from a corpus of mistyped street and
+ * place names.
+ */
+public class TestFuzzySearch {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final String[] WORDS = {"telegraph", "shattuck", "university", "college",
+        "ashby", "dwight", "bancroft", "durant", "channing", "haste", "piedmont", "euclid",
+        "hearst", "oxford", "milvia", "sacramento", "san pablo", "adeline", "alcatraz",
+        "cedar", "rose", "vine", "virginia", "hopkins", "solano", "gilman", "cragmont",
+        "marin", "spruce", "grizzly peak", "claremont", "derby", "parker", "blake", "ward",
+        "russell", "stuart", "prince", "woolsey", "fulton", "ellsworth", "dana", "bowditch"};
+    private static final String[] KINDS = {"avenue", "street", "way", "road", "cafe",
+        "coffee", "pizza", "market", "park", "library", "school", "books", "bakery",
+        "station", "garden", "court", "place", "path", "laundromat", "pharmacy"};
+
+    @Test
+    public void testMatchesEditDistances() {
+        Random random = new Random(23);
+        RadixTrieSet trie = new RadixTrieSet();
+        Map<String, Double> scores = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String key = randomString(random, 1 + random.nextInt(8));
+            double score = random.nextInt(5);
+            trie.add(key, score);
+            scores.merge(key, score, Math::max);
+        }
+        for (int i = 0; i < 300; i++) {
+            String query = randomString(random, random.nextInt(6));
+            int maxEdits = random.nextInt(3);
+            int k = 1 + random.nextInt(20);
+            for (boolean prefix : new boolean[]{false, true}) {
+                List<String> expected = new ArrayList<>();
+                Map<String, Integer> distances = new HashMap<>();
+                for (String key : scores.keySet()) {
+                    int d = distance(query, key, prefix);
+                    if (d <= maxEdits) {
+                        expected.add(key);
+                        distances.put(key, d);
+                    }
+                }
+                expected.sort(Comparator.comparing((String key) -> distances.get(key))
+                        .thenComparing(key -> -scores.get(key))
+                        .thenComparing(Comparator.naturalOrder()));
+                assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                        trie.keysNear(query, maxEdits, prefix, k, Deadline.none()));
+            }
+        }
+    }
+
+    @Test
+    public void testGivesUpAtDeadline() {
+        RadixTrieSet trie = new RadixTrieSet();
+        trie.add("telegraph avenue");
+        Deadline deadline = Deadline.none();
+        deadline.cancel();
+        assertTrue(trie.keysNear("telegraf", 2, true, 10, deadline).isEmpty());
+        assertEquals(Arrays.asList("telegraph avenue"),
+                trie.keysNear("telegraf", 2, true, 10, Deadline.none()));
+    }
+
+    @Test
+    public void testForgivesTyposInBerkeleyNames() {
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        List<String> names = graph.getLocationsByPrefix("", Integer.MAX_VALUE);
+        assertFalse(names.isEmpty());
+        for (String name : names.subList(0, Math.min(20, names.size()))) {
+            String cleaned = name.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+            if (cleaned.length() < 6) {
+                continue;
+            }
+            /* Swap a letter in the middle for one that is not there. */
+            int i = cleaned.length() / 2;
+            char typo = cleaned.charAt(i) == 'q' ? 'x' : 'q';
+            String query = cleaned.substring(0, i) + typo + cleaned.substring(i + 1);
+            assertTrue(query + " should find " + name,
+                    graph.getLocationsNear(query, 50).contains(name));
+        }
+    }
+
+    @Test
+    public void testTypoCorpus() {
+        Random random = new Random(61);
+        RadixTrieSet trie = new RadixTrieSet();
+        List<String> keys = new ArrayList<>();
+        for (String word : WORDS) {
+            for (String kind : KINDS) {
+                String key = word + " " + kind;
+                keys.add(key);
+                trie.add(key, Math.floor(1 / (0.02 + random.nextDouble())));
+            }
+        }
+        int numQueries = 2000, recovered = 0;
+        long[] nanos = new long[numQueries];
+        for (int q = -200; q < numQueries; q++) {
+            String meant = keys.get(random.nextInt(keys.size()));
+            meant = meant.substring(0, Math.min(meant.length(), 6 + random.nextInt(10)));
+            String typed = typo(random, meant);
+            int maxEdits = typed.length() <= 2 ? 0 : typed.length() <= 5 ? 1 : 2;
+            long start = System.nanoTime();
+            List<String> found = trie.keysNear(typed, maxEdits, true, 10,
+                    Deadline.afterNanos(5_000_000));
+            if (q < 0) {
+                continue;
+            }
+            nanos[q] = System.nanoTime() - start;
+            for (String key : found) {
+                if (key.startsWith(meant)) {
+                    recovered++;
+                    break;
+                }
+            }
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format("%d names, %d mistyped prefixes: %.1f%% recovered "
+                + "in the top 10, median %.3f ms, 99th percentile %.3f ms.", keys.size(),
+                numQueries, 100.0 * recovered / numQueries, nanos[numQueries / 2] / 1e6,
+                nanos[numQueries * 99 / 100] / 1e6));
+        assertTrue(recovered > numQueries * 0.9);
+    }
+
+    /* Returns S with one random typing error: a letter replaced, dropped, doubled or
+       swapped with the next. */
+    private static String typo(Random random, String s) {
+        int i = random.nextInt(s.length() - 1);
+        char c = (char) ('a' + random.nextInt(26));
+        switch (random.nextInt(4)) {
+            case 0:
+                return s.substring(0, i) + c + s.substring(i + 1);
+            case 1:
+                return s.substring(0, i) + s.substring(i + 1);
+            case 2:
+                return s.substring(0, i) + s.charAt(i) + s.substring(i);
+            default:
+                return s.substring(0, i) + s.charAt(i + 1) + s.charAt(i) + s.substring(i + 2);
+        }
+    }
+
+    /* Returns the edit distance between QUERY and KEY, or if PREFIX between QUERY and the
+       nearest prefix of KEY. */
+    private static int distance(String query, String key, boolean prefix) {
+        int[] prev = new int[query.length() + 1];
+        for (int j = 0; j < prev.length; j++) {
+            prev[j] = j;
+        }
+        int best = prev[query.length()];
+        for (int i = 1; i <= key.length(); i++) {
+            int[] next = new int[prev.length];
+            next[0] = i;
+            for (int j = 1; j < next.length; j++) {
+                int cost = query.charAt(j - 1) == key.charAt(i - 1) ? 0 : 1;
+                next[j] = Math.min(Math.min(next[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+            }
+            prev = next;
+            best = Math.min(best, prev[query.length()]);
+        }
+        return prefix ? best : prev[query.length()];
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append("abc de".charAt(random.nextInt(6)));
+        }
+        return sb.toString();
+    }
+}
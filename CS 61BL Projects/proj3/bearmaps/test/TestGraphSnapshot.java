@@ -0,0 +1,143 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.ContractionHierarchy;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that a graph read back from a binary snapshot matches the graph parsed from XML,
+ * that damaged snapshots are rebuilt rather than trusted, and compares the two load times.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 1000;
+    private static final String[] PREFIXES = {"t", "to", "top", "s", "peet", "berkeley", "x"};
+    private File snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshot = File.createTempFile("bearmaps", ".snapshot");
+        snapshot.delete();
+        snapshot.deleteOnExit();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Stopwatch sw = new Stopwatch();
+        AugmentedStreetMapGraph parsed = AugmentedStreetMapGraph.load(OSM_DB_PATH,
+                snapshot.getPath());
+        double parseTime = sw.elapsedTime();
+        sw = new Stopwatch();
+        AugmentedStreetMapGraph loaded = AugmentedStreetMapGraph.load(OSM_DB_PATH,
+                snapshot.getPath());
+        double loadTime = sw.elapsedTime();
+
+        CompactGraph expected = parsed.compactGraph();
+        CompactGraph actual = loaded.compactGraph();
+        assertEquals(expected.vertexCount(), actual.vertexCount());
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        for (int v = 0; v < expected.vertexCount(); v++) {
+            assertEquals(expected.id(v), actual.id(v));
+            assertEquals(expected.lat(v), actual.lat(v), 0);
+            assertEquals(expected.lon(v), actual.lon(v), 0);
+            assertEquals(expected.name(v), actual.name(v));
+            assertEquals(expected.firstEdge(v), actual.firstEdge(v));
+        }
+        for (int e = 0; e < expected.edgeCount(); e++) {
+            assertEquals(expected.target(e), actual.target(e));
+            assertEquals(expected.weight(e), actual.weight(e), 0);
+            assertEquals(expected.wayName(e), actual.wayName(e));
+        }
+
+        Random random = new Random(61);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            double lon = -122.30 + 0.09 * random.nextDouble();
+            double lat = 37.82 + 0.07 * random.nextDouble();
+            assertEquals(parsed.closest(lon, lat), loaded.closest(lon, lat));
+        }
+        for (String prefix : PREFIXES) {
+            assertEquals(parsed.getLocationsByPrefix(prefix),
+                    loaded.getLocationsByPrefix(prefix));
+            for (String name : parsed.getLocationsByPrefix(prefix)) {
+                String cleaned = name.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+                assertEquals(parsed.getLocations(cleaned), loaded.getLocations(cleaned));
+            }
+        }
+
+        System.out.println(String.format("Parsing XML took %.3f seconds, loading the %d KB "
+                + "snapshot took %.3f.", parseTime, snapshot.length() / 1024, loadTime));
+    }
+
+    @Test
+    public void testContractionHierarchyIsKept() {
+        AugmentedStreetMapGraph plain = AugmentedStreetMapGraph.load(OSM_DB_PATH,
+                snapshot.getPath());
+        assertNull(plain.contractionHierarchy());
+
+        /* The first load asking for a hierarchy builds it and adds it to the snapshot; the
+           next one reads it back. */
+        Stopwatch sw = new Stopwatch();
+        AugmentedStreetMapGraph built = AugmentedStreetMapGraph.load(OSM_DB_PATH,
+                snapshot.getPath(), true);
+        double buildTime = sw.elapsedTime();
+        sw = new Stopwatch();
+        AugmentedStreetMapGraph loaded = AugmentedStreetMapGraph.load(OSM_DB_PATH,
+                snapshot.getPath(), true);
+        double loadTime = sw.elapsedTime();
+
+        ContractionHierarchy expected = built.contractionHierarchy();
+        ContractionHierarchy actual = loaded.contractionHierarchy();
+        assertSame(loaded.compactGraph(), actual.graph());
+        assertEquals(expected.upwardEdgeCount(), actual.upwardEdgeCount());
+        Random random = new Random(62);
+        int n = loaded.compactGraph().vertexCount();
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            assertArrayEquals(expected.shortestPath(s, t, null, null),
+                    actual.shortestPath(s, t, null, null));
+        }
+        System.out.println(String.format("Loading and contracting took %.3f seconds, loading "
+                + "the snapshot with the hierarchy took %.3f.", buildTime, loadTime));
+    }
+
+    @Test
+    public void testDamagedSnapshotIsRebuilt() throws Exception {
+        AugmentedStreetMapGraph parsed = AugmentedStreetMapGraph.load(OSM_DB_PATH,
+                snapshot.getPath());
+
+        /* Flip a byte in the middle of the payload, then one in the version field. A
+           snapshot that is not trusted gets written out again. */
+        int length = (int) snapshot.length();
+        for (int offset : new int[]{length / 2, 4}) {
+            try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+                file.seek(offset);
+                int b = file.read();
+                file.seek(offset);
+                file.write(b ^ 0xFF);
+            }
+            byte[] damaged = Files.readAllBytes(snapshot.toPath());
+            AugmentedStreetMapGraph.load(OSM_DB_PATH, snapshot.getPath());
+            assertFalse("Damaged snapshot was not rebuilt",
+                    Arrays.equals(damaged, Files.readAllBytes(snapshot.toPath())));
+        }
+        AugmentedStreetMapGraph loaded = AugmentedStreetMapGraph.load(OSM_DB_PATH,
+                snapshot.getPath());
+        assertEquals(parsed.compactGraph().edgeCount(), loaded.compactGraph().edgeCount());
+    }
+}
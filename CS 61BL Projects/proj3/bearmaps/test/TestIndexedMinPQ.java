@@ -0,0 +1,123 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.pq.DoubleMapPQ;
+import bearmaps.utils.pq.IndexedMinPQ;
+import bearmaps.utils.pq.MinHeapPQ;
+import bearmaps.utils.pq.PriorityQueue;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the indexed d-ary heap against DoubleMapPQ, and times A* on the Berkeley route
+ * test set with each of the priority queues as its fringe.
+ */
+public class TestIndexedMinPQ {
+    private static final String PARAMS_FILE = "../library-su19/data/proj3_test_inputs/path_params.txt";
+    private static final int NUM_TESTS = 8;
+    private static final int NUM_ROUNDS = 5;
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesDoubleMapPQ() {
+        for (int arity : new int[]{2, 4, 8}) {
+            Random random = new Random(arity);
+            int capacity = 500;
+            PriorityQueue<Integer> expected = new DoubleMapPQ<>();
+            PriorityQueue<Integer> actual = new IndexedMinPQ<>(capacity, arity, i -> i, i -> i);
+            for (int i = 0; i < 20000; i++) {
+                int item = random.nextInt(capacity);
+                double priority = random.nextDouble();
+                int op = random.nextInt(3);
+                if (op == 0 && !expected.contains(item)) {
+                    expected.insert(item, priority);
+                    actual.insert(item, priority);
+                } else if (op == 1 && expected.contains(item)) {
+                    expected.changePriority(item, priority);
+                    actual.changePriority(item, priority);
+                } else if (expected.size() > 0) {
+                    assertEquals(expected.poll(), actual.poll());
+                }
+                assertEquals(expected.size(), actual.size());
+                assertEquals(expected.contains(item), actual.contains(item));
+            }
+        }
+    }
+
+    @Test
+    public void testRouteBenchmark() throws Exception {
+        List<double[]> queries = paramsFromFile();
+        List<Long> endpoints = new ArrayList<>();
+        for (double[] q : queries) {
+            endpoints.add(graph.closest(q[0], q[1]));
+            endpoints.add(graph.closest(q[2], q[3]));
+        }
+
+        double[] weights = time("IndexedMinPQ (4-ary)", endpoints,
+                () -> new IndexedMinPQ<>(graph.vertexCount(), 4, graph::indexOf, graph::vertexAt));
+        assertWeights(weights, time("IndexedMinPQ (2-ary)", endpoints,
+                () -> new IndexedMinPQ<>(graph.vertexCount(), 2, graph::indexOf, graph::vertexAt)));
+        assertWeights(weights, time("IndexedMinPQ (8-ary)", endpoints,
+                () -> new IndexedMinPQ<>(graph.vertexCount(), 8, graph::indexOf, graph::vertexAt)));
+        assertWeights(weights, time("MinHeapPQ", endpoints, MinHeapPQ::new));
+        assertWeights(weights, time("DoubleMapPQ", endpoints, DoubleMapPQ::new));
+    }
+
+    private double[] time(String name, List<Long> endpoints,
+                          Supplier<PriorityQueue<Long>> fringes) {
+        double[] weights = new double[endpoints.size() / 2];
+        Stopwatch sw = new Stopwatch();
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = new AStarSolver<>(graph, endpoints.get(2 * i),
+                        endpoints.get(2 * i + 1), 20, fringes.get()).solutionWeight();
+            }
+        }
+        System.out.println(String.format("%s: %d routes in %.3f seconds.", name,
+                NUM_ROUNDS * weights.length, sw.elapsedTime()));
+        return weights;
+    }
+
+    private static void assertWeights(double[] expected, double[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 1e-9);
+        }
+    }
+
+    private List<double[]> paramsFromFile() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
+        List<double[]> testParams = new ArrayList<>();
+        int lineIdx = 2; // ignore comment lines
+        for (int i = 0; i < NUM_TESTS; i++) {
+            testParams.add(new double[]{Double.parseDouble(lines.get(lineIdx)),
+                Double.parseDouble(lines.get(lineIdx + 1)),
+                Double.parseDouble(lines.get(lineIdx + 2)),
+                Double.parseDouble(lines.get(lineIdx + 3))});
+            lineIdx += 4;
+        }
+        return testParams;
+    }
+}
@@ -0,0 +1,120 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.server.handler.impl.IsochroneAPIHandler;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.DistanceMatrix;
+import bearmaps.utils.graph.streetmap.Isochrone;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks isochrones against full single-source distances, and that their hulls enclose
+ * every vertex reached.
+ */
+public class TestIsochrone {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 20;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testReachesExactlyTheVerticesWithinBudget() {
+        CompactGraph cg = graph.compactGraph();
+        int[] all = new int[cg.vertexCount()];
+        for (int v = 0; v < all.length; v++) {
+            all[v] = v;
+        }
+        Random random = new Random(18);
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            int source = random.nextInt(cg.vertexCount());
+            double budget = 2 * random.nextDouble();
+            double[] expected = DistanceMatrix.dijkstra(cg, new int[]{source}, all, null)[0];
+            Isochrone reached = Isochrone.reach(cg, source, budget);
+
+            int numWithin = 0;
+            for (double d : expected) {
+                if (d <= budget) {
+                    numWithin++;
+                }
+            }
+            assertEquals(numWithin, reached.size());
+            assertEquals(source, reached.vertex(0));
+            for (int i = 0; i < reached.size(); i++) {
+                assertEquals(expected[reached.vertex(i)], reached.distance(i), 1e-9);
+                if (i > 0) {
+                    assertTrue(reached.distance(i - 1) <= reached.distance(i));
+                }
+            }
+            assertEnclosed(reached.hull(cg), cg, reached);
+        }
+    }
+
+    @Test
+    public void testHandlerResponse() {
+        Map<String, Object> result = IsochroneAPIHandler.isochrone(graph, -122.2588, 37.8716,
+                0.5, true);
+        long[] nodes = (long[]) result.get("nodes");
+        assertEquals(nodes.length, result.get("reached"));
+        assertEquals(result.get("source_id"), nodes[0]);
+        assertTrue(((double[][]) result.get("hull")).length >= 3);
+        assertEquals(true, result.get("isochrone_success"));
+
+        Map<String, Object> empty = IsochroneAPIHandler.isochrone(graph, -122.2588, 37.8716,
+                0, false);
+        assertEquals(1, empty.get("reached"));
+        assertEquals(false, empty.get("isochrone_success"));
+    }
+
+    @Test
+    public void testTiming() {
+        CompactGraph cg = graph.compactGraph();
+        Random random = new Random(61);
+        int[] sources = new int[200];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = random.nextInt(cg.vertexCount());
+        }
+        for (int source : sources) {
+            Isochrone.reach(cg, source, 1);
+        }
+        Stopwatch sw = new Stopwatch();
+        long reached = 0;
+        for (int source : sources) {
+            reached += Isochrone.reach(cg, source, 1).size();
+        }
+        System.out.println(String.format("%d one-mile isochrones reached %d vertices on "
+                + "average in %.3f ms each.", sources.length, reached / sources.length,
+                sw.elapsedTime() * 1000 / sources.length));
+    }
+
+    /* Checks that every vertex in REACHED is inside or on the counterclockwise HULL. */
+    private static void assertEnclosed(double[][] hull, CompactGraph cg, Isochrone reached) {
+        if (hull.length < 3) {
+            return;
+        }
+        for (int i = 0; i < reached.size(); i++) {
+            double lon = cg.lon(reached.vertex(i)), lat = cg.lat(reached.vertex(i));
+            for (int j = 0; j < hull.length; j++) {
+                double[] a = hull[j], b = hull[(j + 1) % hull.length];
+                double cross = (b[0] - a[0]) * (lat - a[1]) - (b[1] - a[1]) * (lon - a[0]);
+                assertTrue("Vertex outside the hull", cross >= -1e-12);
+            }
+        }
+    }
+}
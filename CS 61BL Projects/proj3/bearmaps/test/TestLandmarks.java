@@ -0,0 +1,116 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.Landmarks;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares A* with the plain great-circle heuristic against A* with landmark (ALT) lower
+ * bounds on the path_params queries, and reports what the landmarks cost to build and hold.
+ */
+public class TestLandmarks {
+    private static final String PARAMS_FILE = "../library-su19/data/proj3_test_inputs/path_params.txt";
+    private static final int NUM_TESTS = 8;
+    private static final int NUM_LANDMARKS = 8;
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testLowerBoundIsAdmissible() throws Exception {
+        CompactGraph cg = graph.compactGraph();
+        Landmarks landmarks = Landmarks.build(cg, NUM_LANDMARKS);
+        for (long[] endpoints : endpointsFromFile()) {
+            ShortestPathsSolver<Long> solver = Router.solve(graph, endpoints[0], endpoints[1],
+                    Router.Algorithm.ASTAR);
+            double bound = landmarks.lowerBound(cg.indexOf(endpoints[0]),
+                    cg.indexOf(endpoints[1]));
+            assertTrue("Landmark bound exceeds the true distance",
+                    bound <= solver.solutionWeight() + 1e-9);
+        }
+    }
+
+    @Test
+    public void testEmptyGraph() {
+        CompactGraph empty = CompactGraph.build(new HashMap<>(), new HashMap<>());
+        Landmarks landmarks = Landmarks.build(empty, NUM_LANDMARKS);
+        assertEquals(0, landmarks.size());
+        assertEquals(0, landmarks.estimatedBytes());
+    }
+
+    @Test
+    public void testStatesExplored() throws Exception {
+        List<long[]> queries = endpointsFromFile();
+
+        graph.setLandmarks(null);
+        double[] weights = new double[NUM_TESTS];
+        int plainStates = 0;
+        for (int i = 0; i < NUM_TESTS; i++) {
+            ShortestPathsSolver<Long> solver = Router.solve(graph, queries.get(i)[0],
+                    queries.get(i)[1], Router.Algorithm.ASTAR);
+            weights[i] = solver.solutionWeight();
+            plainStates += solver.numStatesExplored();
+        }
+
+        Stopwatch sw = new Stopwatch();
+        Landmarks landmarks = Landmarks.build(graph.compactGraph(), NUM_LANDMARKS);
+        double buildTime = sw.elapsedTime();
+        graph.setLandmarks(landmarks);
+        int altStates = 0;
+        try {
+            for (int i = 0; i < NUM_TESTS; i++) {
+                ShortestPathsSolver<Long> solver = Router.solve(graph, queries.get(i)[0],
+                        queries.get(i)[1], Router.Algorithm.ASTAR);
+                assertEquals(weights[i], solver.solutionWeight(), 1e-9);
+                altStates += solver.numStatesExplored();
+            }
+        } finally {
+            graph.setLandmarks(null);
+        }
+
+        System.out.println(String.format("Great-circle A* explored %d states, ALT explored %d.",
+                plainStates, altStates));
+        System.out.println(String.format("%d landmarks took %.3f seconds and ~%d KB.",
+                NUM_LANDMARKS, buildTime, landmarks.estimatedBytes() / 1024));
+        assertTrue(altStates <= plainStates);
+    }
+
+    private List<long[]> endpointsFromFile() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
+        List<long[]> endpoints = new ArrayList<>();
+        int lineIdx = 2; // ignore comment lines
+        for (int i = 0; i < NUM_TESTS; i++) {
+            endpoints.add(new long[]{
+                graph.closest(Double.parseDouble(lines.get(lineIdx)),
+                        Double.parseDouble(lines.get(lineIdx + 1))),
+                graph.closest(Double.parseDouble(lines.get(lineIdx + 2)),
+                        Double.parseDouble(lines.get(lineIdx + 3)))});
+            lineIdx += 4;
+        }
+        return endpoints;
+    }
+}
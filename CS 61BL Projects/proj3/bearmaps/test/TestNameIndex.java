@@ -0,0 +1,167 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.NameIndex;
+import bearmaps.utils.RadixTrieSet;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.Node;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks NameIndex.clean against the regular expression it replaces and NameIndex lookups
+ * against per-name lists of Strings and Nodes, and compares the two for build time and heap
+ * footprint on the Berkeley nodes.
+ */
+public class TestNameIndex {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int FOOTPRINT_COPIES = 20;
+
+    @Test
+    public void testCleanMatchesRegex() {
+        Random random = new Random(24);
+        String alphabet = "abcXYZ '-.,&()0129\u00e9\u00dc\u00df\u212a\t";
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String s = sb.toString();
+            assertEquals(regexClean(s), NameIndex.clean(s));
+        }
+        String clean = "telegraph ave";
+        assertSame(clean, NameIndex.clean(clean));
+    }
+
+    @Test
+    public void testLookupsMatchNameLists() {
+        CompactGraph graph = new AugmentedStreetMapGraph(OSM_DB_PATH).compactGraph();
+        NameLists lists = new NameLists(graph);
+        NameIndex index = new NameIndex(graph);
+        assertEquals(lists.names.size(), index.size());
+        for (String cleanedName : lists.names.keySet()) {
+            int id = index.idOf(cleanedName);
+            assertEquals(cleanedName, index.cleanedName(id));
+            List<Map<String, Object>> expected = new ArrayList<>();
+            for (Node n : lists.nodes.get(cleanedName)) {
+                Map<String, Object> location = new HashMap<>();
+                location.put("lat", n.lat());
+                location.put("lon", n.lon());
+                location.put("name", n.name());
+                location.put("id", n.id());
+                expected.add(location);
+            }
+            assertEquals(expected, index.getLocations(cleanedName));
+            assertEquals(expected, index.getLocations(cleanedName.toUpperCase() + "!"));
+        }
+        assertEquals(-1, index.idOf("no such place"));
+        assertTrue(index.getLocations("no such place").isEmpty());
+
+        for (String prefix : new String[]{"", "a", "b", "s", "t", "ca", "un", "ma", "sh"}) {
+            List<String> expected = new ArrayList<>();
+            for (String key : lists.trie.keysWithPrefix(prefix)) {
+                expected.addAll(lists.names.get(key));
+            }
+            assertEquals(expected, index.getLocationsByPrefix(prefix));
+            assertEquals(expected, index.getLocationsByPrefix(prefix.toUpperCase()));
+        }
+
+        NameIndex copy = new NameIndex(graph, index.cleanedNames(), index.vertices());
+        for (int id = 0; id < index.size(); id++) {
+            assertEquals(index.getLocations(index.cleanedName(id)),
+                    copy.getLocations(index.cleanedName(id)));
+        }
+    }
+
+    @Test
+    public void testBerkeleyFootprint() {
+        CompactGraph graph = new AugmentedStreetMapGraph(OSM_DB_PATH).compactGraph();
+        /* Warm up, so neither side pays for compiling its build. */
+        for (int k = 0; k < 5; k++) {
+            new NameLists(graph);
+            new NameIndex(graph);
+        }
+        long start = System.nanoTime();
+        NameLists lists = new NameLists(graph);
+        double listsMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        NameIndex index = new NameIndex(graph);
+        double indexMs = (System.nanoTime() - start) / 1e6;
+
+        long listsBytes = footprint(() -> new NameLists(graph));
+        long indexBytes = footprint(() -> new NameIndex(graph));
+        System.out.println(String.format("%d distinct names. Name lists: %d KB, built in "
+                + "%.3f ms. NameIndex: %d KB, built in %.3f ms.", index.size(),
+                listsBytes / 1024, listsMs, indexBytes / 1024, indexMs));
+        assertEquals(lists.names.size(), index.size());
+        assertTrue(indexBytes < listsBytes);
+    }
+
+    /* The name index AugmentedStreetMapGraph used to keep: a Node per vertex, and each
+       cleaned name's full names and Nodes in LinkedLists, cleaned with a regex. */
+    private static class NameLists {
+        private final List<Node> all = new ArrayList<>();
+        private final RadixTrieSet trie = new RadixTrieSet();
+        private final HashMap<String, LinkedList<String>> names = new HashMap<>();
+        private final HashMap<String, LinkedList<Node>> nodes = new HashMap<>();
+
+        NameLists(CompactGraph graph) {
+            for (int v = 0; v < graph.vertexCount(); v++) {
+                Node n = Node.of(graph.id(v), graph.lat(v), graph.lon(v));
+                if (graph.name(v) != null) {
+                    n.setName(graph.name(v));
+                }
+                all.add(n);
+            }
+            for (Node n : all) {
+                if (n.name() != null) {
+                    String cleaned = regexClean(n.name());
+                    names.computeIfAbsent(cleaned, key -> new LinkedList<>()).add(n.name());
+                    nodes.computeIfAbsent(cleaned, key -> new LinkedList<>()).add(n);
+                    trie.add(cleaned, nodes.get(cleaned).size());
+                }
+            }
+        }
+    }
+
+    private static String regexClean(String s) {
+        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+    }
+
+    /* Returns roughly how many bytes of heap each object made by MAKE keeps alive,
+       averaged over several so that collector noise does not swamp small objects. */
+    private static long footprint(Supplier<Object> make) {
+        Runtime runtime = Runtime.getRuntime();
+        Object[] kept = new Object[FOOTPRINT_COPIES];
+        usedAfterGc(runtime);
+        long before = usedAfterGc(runtime);
+        for (int i = 0; i < kept.length; i++) {
+            kept[i] = make.get();
+        }
+        long after = usedAfterGc(runtime);
+        if (kept[kept.length - 1] == null) {
+            throw new AssertionError();
+        }
+        return (after - before) / kept.length;
+    }
+
+    private static long usedAfterGc(Runtime runtime) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
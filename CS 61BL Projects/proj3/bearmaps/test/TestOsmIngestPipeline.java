@@ -0,0 +1,101 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.graph.streetmap.OsmIngestPipeline;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the staged ingestion pipeline reads the same graph as the single-threaded
+ * GraphBuildingHandler, and reports the throughput and peak heap of each.
+ */
+public class TestOsmIngestPipeline {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+
+    @Test
+    public void testMatchesGraphBuildingHandler() {
+        CompactGraph expected = StreetMapGraph.readFromXML(OSM_DB_PATH);
+        CompactGraph actual = OsmIngestPipeline.read(OSM_DB_PATH);
+        assertEquals(expected.vertexCount(), actual.vertexCount());
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        for (int v = 0; v < expected.vertexCount(); v++) {
+            assertEquals(expected.id(v), actual.id(v));
+            assertEquals(expected.lat(v), actual.lat(v), 0);
+            assertEquals(expected.lon(v), actual.lon(v), 0);
+            assertEquals(expected.name(v), actual.name(v));
+            assertEquals(edgesOf(expected, v), edgesOf(actual, v));
+        }
+    }
+
+    @Test
+    public void testSameEdgeOrderForAnyNumberOfWorkers() {
+        CompactGraph one = OsmIngestPipeline.read(OSM_DB_PATH, 1);
+        for (int workers : new int[]{2, 3, 7}) {
+            CompactGraph many = OsmIngestPipeline.read(OSM_DB_PATH, workers);
+            assertEquals(one.edgeCount(), many.edgeCount());
+            for (int v = 0; v < one.vertexCount(); v++) {
+                assertEquals(one.firstEdge(v), many.firstEdge(v));
+                for (int e = one.firstEdge(v); e < one.endEdge(v); e++) {
+                    assertEquals(one.target(e), many.target(e));
+                    assertEquals(one.weight(e), many.weight(e), 0);
+                    assertEquals(one.wayName(e), many.wayName(e));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testThroughputAndPeakHeap() {
+        double megabytes = new File(OSM_DB_PATH).length() / (1024.0 * 1024.0);
+        report("GraphBuildingHandler", megabytes,
+                () -> StreetMapGraph.readFromXML(OSM_DB_PATH));
+        for (int workers : new int[]{1, Math.max(2, OsmIngestPipeline.DEFAULT_WORKERS)}) {
+            report("Pipeline, " + workers + " worker(s)", megabytes,
+                    () -> OsmIngestPipeline.read(OSM_DB_PATH, workers));
+        }
+    }
+
+    /* Sorted descriptions of the edges out of V, so that edge order does not matter. */
+    private static List<String> edgesOf(CompactGraph g, int v) {
+        List<String> edges = new ArrayList<>();
+        for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+            edges.add(g.id(g.target(e)) + " " + g.weight(e) + " " + g.wayName(e));
+        }
+        Collections.sort(edges);
+        return edges;
+    }
+
+    private static void report(String label, double megabytes, Supplier<CompactGraph> read) {
+        read.get();
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        Stopwatch sw = new Stopwatch();
+        CompactGraph g = read.get();
+        double seconds = sw.elapsedTime();
+        long peakBytes = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakBytes += pool.getPeakUsage().getUsed();
+        }
+        System.out.println(String.format("%s: %d vertices in %.3f seconds, %.1f MB/s, "
+                + "peak heap %d MB.", label, g.vertexCount(), seconds, megabytes / seconds,
+                peakBytes / (1024 * 1024)));
+    }
+}
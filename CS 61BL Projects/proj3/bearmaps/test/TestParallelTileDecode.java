@@ -0,0 +1,160 @@
+package bearmaps.test;
+
+import bearmaps.server.handler.impl.RasterAPIHandler;
+import bearmaps.utils.Constants;
+import bearmaps.utils.RasterCache;
+import bearmaps.utils.TileCache;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that TileCache.getAll loads every tile once and in place, and benchmarks full-screen
+ * depth 7 rasters for 1, 4 and 16 concurrent clients with tiles decoded on the request
+ * thread and on a pool. Tiles are real PNGs decoded from memory after a simulated read
+ * latency, and nothing is cached, so that every request decodes every tile.
+ */
+public class TestParallelTileDecode {
+    private static final int NUM_DISTINCT_TILES = 64;
+    private static final long READ_LATENCY_MILLIS = 2;
+    private static final int NUM_WARMUP = 3;
+    private static final int REQUESTS_PER_CLIENT = 4;
+    private static final int[] CLIENTS = {1, 4, 16};
+
+    private static final byte[][] ENCODED_TILES = new byte[NUM_DISTINCT_TILES][];
+
+    static {
+        for (int i = 0; i < NUM_DISTINCT_TILES; i++) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(TestRasterStreaming.syntheticTile("tile" + i), "png", os);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            ENCODED_TILES[i] = os.toByteArray();
+        }
+    }
+
+    private static BufferedImage readTile(String name) throws IOException {
+        try {
+            Thread.sleep(READ_LATENCY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int i = Math.floorMod(name.hashCode(), NUM_DISTINCT_TILES);
+        return ImageIO.read(new ByteArrayInputStream(ENCODED_TILES[i]));
+    }
+
+    /* An opaque color that identifies the tile NAME. */
+    private static int marker(String name) {
+        return name.hashCode() | 0xFF000000;
+    }
+
+    @Test
+    public void testGetAllLoadsEachTileOnceInPlace() {
+        Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+        TileCache cache = new TileCache(Long.MAX_VALUE, name -> {
+            counts.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+            BufferedImage tile = readTile(name);
+            tile.setRGB(0, 0, marker(name));
+            return tile;
+        }, 4);
+        String[][] names = new String[5][8];
+        for (int r = 0; r < names.length; r++) {
+            for (int c = 0; c < names[r].length; c++) {
+                names[r][c] = "d7_x" + c + "_y" + r + ".png";
+            }
+        }
+        BufferedImage[][] first = cache.getAll(names);
+        BufferedImage[][] second = cache.getAll(names);
+        for (int r = 0; r < names.length; r++) {
+            for (int c = 0; c < names[r].length; c++) {
+                assertNotNull(first[r][c]);
+                assertEquals(marker(names[r][c]), first[r][c].getRGB(0, 0));
+                assertEquals(first[r][c], second[r][c]);
+                assertEquals(1, counts.get(names[r][c]).get());
+            }
+        }
+        assertEquals(40, cache.misses());
+        assertEquals(40, cache.hits());
+    }
+
+    @Test
+    public void testConcurrentClients() throws InterruptedException {
+        int pooled = Math.max(4, Constants.TILE_DECODE_THREADS);
+        for (int parallelism : new int[]{1, pooled}) {
+            for (int clients : CLIENTS) {
+                benchmark(parallelism, clients);
+            }
+        }
+    }
+
+    /* A full-screen viewport at depth 7 somewhere inside the root tile. */
+    private static Map<String, Double> fullScreenQuery(Random random) {
+        double lonWidth = 1920 * (Constants.ROOT_LRLON - Constants.ROOT_ULLON) / 128 / 256;
+        double latHeight = 1080 * (Constants.ROOT_ULLAT - Constants.ROOT_LRLAT) / 128 / 256;
+        double ullon = Constants.ROOT_ULLON + random.nextDouble()
+                * (Constants.ROOT_LRLON - Constants.ROOT_ULLON - lonWidth);
+        double ullat = Constants.ROOT_ULLAT - random.nextDouble()
+                * (Constants.ROOT_ULLAT - Constants.ROOT_LRLAT - latHeight);
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", ullon);
+        params.put("ullat", ullat);
+        params.put("lrlon", ullon + lonWidth);
+        params.put("lrlat", ullat - latHeight);
+        params.put("w", 1920.0);
+        params.put("h", 1080.0);
+        return params;
+    }
+
+    private static void benchmark(int parallelism, int clients) throws InterruptedException {
+        RasterAPIHandler handler = new RasterAPIHandler(new TileCache(0,
+                TestParallelTileDecode::readTile, parallelism), new RasterCache(0));
+        Random warmup = new Random(-1);
+        for (int i = 0; i < NUM_WARMUP; i++) {
+            handler.writeImagesToOutputStream(handler.processRequest(fullScreenQuery(warmup),
+                    null), OutputStream.nullOutputStream());
+        }
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger numTiles = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            Random random = new Random(i);
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < REQUESTS_PER_CLIENT; j++) {
+                    Map<String, Object> result = handler.processRequest(
+                            fullScreenQuery(random), null);
+                    String[][] grid = (String[][]) result.get("render_grid");
+                    numTiles.addAndGet(grid.length * grid[0].length);
+                    handler.writeImagesToOutputStream(result, OutputStream.nullOutputStream());
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int requests = clients * REQUESTS_PER_CLIENT;
+        System.out.println(String.format("Decode parallelism %d, %d client(s): %.1f requests/s, "
+                + "%.0f ms per request, %d tiles per request.", parallelism, clients,
+                requests / seconds, seconds * 1000 * clients / requests,
+                numTiles.get() / requests));
+    }
+}
@@ -0,0 +1,96 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that pooled A* finds the same routes as A* after the same number of expansions,
+ * and compares the two for routes per second and bytes allocated per route.
+ */
+public class TestPooledAStar {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 200;
+    private static AugmentedStreetMapGraph graph;
+    private static long[][] queries;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        CompactGraph cg = graph.compactGraph();
+        Random random = new Random(19);
+        queries = new long[NUM_QUERIES][];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queries[i] = new long[]{cg.id(random.nextInt(cg.vertexCount())),
+                    cg.id(random.nextInt(cg.vertexCount()))};
+        }
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        for (long[] q : queries) {
+            ShortestPathsSolver<Long> expected = Router.solve(graph, q[0], q[1],
+                    Router.Algorithm.ASTAR);
+            ShortestPathsSolver<Long> actual = Router.solve(graph, q[0], q[1],
+                    Router.Algorithm.POOLED_ASTAR);
+            assertEquals(expected.outcome(), actual.outcome());
+            assertEquals(expected.solution(), actual.solution());
+            assertEquals(expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+            assertEquals(expected.numStatesExplored(), actual.numStatesExplored());
+        }
+    }
+
+    @Test
+    public void testAllocatesLess() {
+        /* Warm up, so neither side pays for compiling the searches. */
+        for (int k = 0; k < 2; k++) {
+            run(Router.Algorithm.ASTAR);
+            run(Router.Algorithm.POOLED_ASTAR);
+        }
+        long[] aStar = run(Router.Algorithm.ASTAR);
+        long[] pooled = run(Router.Algorithm.POOLED_ASTAR);
+        System.out.println(String.format("A*: %.0f routes/s, %d KB allocated per route. "
+                + "Pooled A*: %.0f routes/s, %d KB allocated per route.",
+                NUM_QUERIES * 1e9 / aStar[0], aStar[1] / NUM_QUERIES / 1024,
+                NUM_QUERIES * 1e9 / pooled[0], pooled[1] / NUM_QUERIES / 1024));
+        if (aStar[1] >= 0) {
+            assertTrue(pooled[1] < aStar[1] / 4);
+        }
+    }
+
+    /* Runs every query with ALGORITHM and returns the nanoseconds taken and the bytes
+       allocated by this thread meanwhile, or -1 bytes if the JVM cannot tell. */
+    private static long[] run(Router.Algorithm algorithm) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (long[] q : queries) {
+            Router.solve(graph, q[0], q[1], algorithm);
+        }
+        long nanos = System.nanoTime() - start;
+        long after = allocatedBytes();
+        return new long[]{nanos, bytes < 0 ? -1 : after - bytes};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,232 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.MyTrieSet;
+import bearmaps.utils.RadixTrieSet;
+import bearmaps.utils.TrieSet61BL;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks RadixTrieSet against MyTrieSet and its top-K search against sorting every match,
+ * and compares the two tries for heap footprint and keysWithPrefix latency on the names of
+ * the Berkeley nodes.
+ */
+public class TestRadixTrieSet {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int FOOTPRINT_COPIES = 20;
+
+    @Test
+    public void testSplitsEdges() {
+        RadixTrieSet trie = new RadixTrieSet();
+        trie.add("telegraph ave");
+        trie.add("tele");
+        trie.add("telegram");
+        trie.add("tea");
+        trie.add("tele");
+        assertEquals(4, trie.size());
+        assertTrue(trie.contains("tele"));
+        assertFalse(trie.contains("tel"));
+        assertFalse(trie.contains("telegra"));
+        assertFalse(trie.contains("telegraph"));
+        assertEquals(Arrays.asList("tea", "tele", "telegram", "telegraph ave"),
+                trie.keysWithPrefix("t"));
+        assertEquals(Arrays.asList("telegram", "telegraph ave"), trie.keysWithPrefix("telegr"));
+        assertEquals(Arrays.asList("telegraph ave"), trie.keysWithPrefix("telegraph"));
+        assertEquals(Collections.emptyList(), trie.keysWithPrefix("telex"));
+        assertEquals("telegr", trie.longestPrefixOf("telegrxyz"));
+        assertEquals("", trie.longestPrefixOf("xyz"));
+
+        trie.add("");
+        assertTrue(trie.contains(""));
+        assertEquals(5, trie.keysWithPrefix("").size());
+        trie.clear();
+        assertEquals(0, trie.size());
+        assertFalse(trie.contains("tele"));
+    }
+
+    @Test
+    public void testMatchesMyTrieSet() {
+        Random random = new Random(21);
+        MyTrieSet expected = new MyTrieSet();
+        RadixTrieSet actual = new RadixTrieSet();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String key = randomString(random, 1 + random.nextInt(8));
+            keys.add(key);
+            expected.add(key);
+            actual.add(key);
+        }
+        assertEquals(new HashSet<>(keys).size(), actual.size());
+        for (int i = 0; i < 2000; i++) {
+            String query = randomString(random, random.nextInt(4));
+            List<String> sorted = new ArrayList<>(expected.keysWithPrefix(query));
+            Collections.sort(sorted);
+            assertEquals(sorted, actual.keysWithPrefix(query));
+            assertEquals(expected.contains(query), actual.contains(query));
+            assertEquals(expected.longestPrefixOf(query), actual.longestPrefixOf(query));
+        }
+    }
+
+    @Test
+    public void testBerkeleyNames() {
+        List<String> names = cleanedNames();
+        long myBytes = footprint(() -> build(new MyTrieSet(), names));
+        long radixBytes = footprint(() -> build(new RadixTrieSet(), names));
+        TrieSet61BL my = build(new MyTrieSet(), names);
+        RadixTrieSet radix = (RadixTrieSet) build(new RadixTrieSet(), names);
+
+        String[] prefixes = new String[]{"", "a", "b", "s", "t", "ca", "un", "ma", "sh"};
+        for (String prefix : prefixes) {
+            assertEquals(new HashSet<>(my.keysWithPrefix(prefix)),
+                    new HashSet<>(radix.keysWithPrefix(prefix)));
+        }
+        /* Warm up, so neither side pays for compiling its walk. */
+        for (int k = 0; k < 20; k++) {
+            prefixQueries(my, prefixes);
+            prefixQueries(radix, prefixes);
+        }
+        long start = System.nanoTime();
+        prefixQueries(my, prefixes);
+        double myMs = (System.nanoTime() - start) / 1e6 / prefixes.length;
+        start = System.nanoTime();
+        prefixQueries(radix, prefixes);
+        double radixMs = (System.nanoTime() - start) / 1e6 / prefixes.length;
+
+        System.out.println(String.format("%d distinct names. MyTrieSet: %d KB, %.3f ms per "
+                + "keysWithPrefix. RadixTrieSet: %d KB, %.3f ms per keysWithPrefix.",
+                radix.size(), myBytes / 1024, myMs, radixBytes / 1024, radixMs));
+        assertTrue(radixBytes < myBytes);
+    }
+
+    /* Returns the cleaned name of every named Berkeley node, leaving the graph to be
+       collected. */
+    private static List<String> cleanedNames() {
+        CompactGraph cg = new AugmentedStreetMapGraph(OSM_DB_PATH).compactGraph();
+        List<String> names = new ArrayList<>();
+        for (int v = 0; v < cg.vertexCount(); v++) {
+            if (cg.name(v) != null) {
+                names.add(cg.name(v).replaceAll("[^a-zA-Z ]", "").toLowerCase());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testTopKMatchesSortedScores() {
+        Random random = new Random(22);
+        RadixTrieSet trie = new RadixTrieSet();
+        Map<String, Double> scores = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = randomString(random, 1 + random.nextInt(7));
+            double score = random.nextInt(20);
+            trie.add(key, score);
+            scores.merge(key, score, Math::max);
+        }
+        for (String key : scores.keySet()) {
+            assertEquals(scores.get(key), trie.score(key), 0);
+        }
+        for (int i = 0; i < 500; i++) {
+            String prefix = randomString(random, random.nextInt(3));
+            int k = random.nextInt(30);
+            List<String> expected = new ArrayList<>(trie.keysWithPrefix(prefix));
+            expected.sort(Comparator.comparing((String key) -> -scores.get(key))
+                    .thenComparing(Comparator.naturalOrder()));
+            assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                    trie.keysWithPrefix(prefix, k));
+        }
+    }
+
+    @Test
+    public void testTopKStopsEarly() {
+        /* Many names, a few of them shared by many places, as street names are. */
+        Random random = new Random(61);
+        RadixTrieSet trie = new RadixTrieSet();
+        for (int i = 0; i < 100000; i++) {
+            trie.add(randomString(random, 4 + random.nextInt(12)),
+                    Math.floor(1 / (1e-4 + random.nextDouble())));
+        }
+        String[] prefixes = {"a", "b", "c", "d", " ", "ab", "ba"};
+        for (int k = 0; k < 20; k++) {
+            for (String prefix : prefixes) {
+                trie.keysWithPrefix(prefix);
+                trie.keysWithPrefix(prefix, 10);
+            }
+        }
+        long start = System.nanoTime();
+        int matched = 0;
+        for (String prefix : prefixes) {
+            matched += trie.keysWithPrefix(prefix).size();
+        }
+        double allMs = (System.nanoTime() - start) / 1e6 / prefixes.length;
+        start = System.nanoTime();
+        for (String prefix : prefixes) {
+            trie.keysWithPrefix(prefix, 10);
+        }
+        double topMs = (System.nanoTime() - start) / 1e6 / prefixes.length;
+        System.out.println(String.format("%d keys, %d matching each prefix on average: "
+                + "%.3f ms for all of them, %.3f ms for the best 10.", trie.size(),
+                matched / prefixes.length, allMs, topMs));
+        assertTrue(topMs < allMs);
+    }
+
+    private static TrieSet61BL build(TrieSet61BL trie, List<String> keys) {
+        for (String key : keys) {
+            trie.add(key);
+        }
+        return trie;
+    }
+
+    private static void prefixQueries(TrieSet61BL trie, String[] prefixes) {
+        for (String prefix : prefixes) {
+            trie.keysWithPrefix(prefix);
+        }
+    }
+
+    /* Returns roughly how many bytes of heap each object made by MAKE keeps alive,
+       averaged over several so that collector noise does not swamp small objects. */
+    private static long footprint(Supplier<Object> make) {
+        Runtime runtime = Runtime.getRuntime();
+        Object[] kept = new Object[FOOTPRINT_COPIES];
+        usedAfterGc(runtime);
+        long before = usedAfterGc(runtime);
+        for (int i = 0; i < kept.length; i++) {
+            kept[i] = make.get();
+        }
+        long after = usedAfterGc(runtime);
+        if (kept[kept.length - 1] == null) {
+            throw new AssertionError();
+        }
+        return (after - before) / kept.length;
+    }
+
+    private static long usedAfterGc(Runtime runtime) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append("abc de".charAt(random.nextInt(6)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package bearmaps.test;
+
+import bearmaps.server.handler.impl.RasterAPIHandler;
+import bearmaps.utils.RasterCache;
+import bearmaps.utils.RouteStore;
+import bearmaps.utils.TileCache;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.ROUTE_STORE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks RasterCache's keys and eviction, and that RasterAPIHandler serves repeated
+ * viewports from it until the client's route changes.
+ */
+public class TestRasterCache {
+
+    private static RasterCache.Raster raster(int bytes) {
+        return new RasterCache.Raster(new byte[bytes], "image/png", 256, 256);
+    }
+
+    @Test
+    public void testKeyCoversTileRangeAndRouteStamp() {
+        String[][] grid = {{"d2_x0_y1.png", "d2_x1_y1.png"}, {"d2_x0_y2.png", "d2_x1_y2.png"}};
+        String[][] wider = {{"d2_x0_y1.png", "d2_x1_y1.png", "d2_x2_y1.png"},
+                {"d2_x0_y2.png", "d2_x1_y2.png", "d2_x2_y2.png"}};
+        assertEquals(RasterCache.key(grid, 3), RasterCache.key(grid, 3));
+        assertFalse(RasterCache.key(grid, 3).equals(RasterCache.key(grid, 4)));
+        assertFalse(RasterCache.key(grid, 3).equals(RasterCache.key(wider, 3)));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RasterCache cache = new RasterCache(300);
+        cache.put("a", raster(100));
+        cache.put("b", raster(100));
+        cache.put("c", raster(100));
+        cache.get("a");
+        cache.put("d", raster(100));
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.size());
+        assertEquals(300, cache.sizeBytes());
+        assertEquals(1, cache.evictions());
+
+        /* A raster bigger than the whole cache is not kept, and evicts nothing. */
+        cache.put("huge", raster(301));
+        assertNull(cache.get("huge"));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testRepeatedViewportIsNotRedrawn() {
+        TileCache tiles = new TileCache(Long.MAX_VALUE, TestRasterStreaming::syntheticTile);
+        RasterCache rasters = new RasterCache(Long.MAX_VALUE);
+        RasterAPIHandler handler = new RasterAPIHandler(tiles, rasters);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        handler.writeImagesToOutputStream(TestRasterStreaming.query(handler), first);
+        long tileLookups = tiles.hits() + tiles.misses();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        handler.writeImagesToOutputStream(TestRasterStreaming.query(handler), second);
+
+        assertEquals(1, rasters.hits());
+        assertEquals(tileLookups, tiles.hits() + tiles.misses());
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+    }
+
+    @Test
+    public void testRouteChangeInvalidates() {
+        RasterCache rasters = new RasterCache(Long.MAX_VALUE);
+        RasterAPIHandler handler = new RasterAPIHandler(new TileCache(Long.MAX_VALUE,
+                TestRasterStreaming::syntheticTile), rasters);
+        long routeId = ROUTE_STORE.add(Collections.emptyList());
+        Map<String, Double> params = TestRasterStreaming.queryParams();
+        params.put("route_id", (double) routeId);
+        String[][] grid = (String[][]) handler.processRequest(params, null).get("render_grid");
+
+        handler.writeImagesToOutputStream(handler.processRequest(params, null),
+                new ByteArrayOutputStream());
+        long stamp = ROUTE_STORE.get(routeId).stamp();
+        RasterCache.Raster before = rasters.get(RasterCache.key(grid, stamp));
+        assertNotNull(before);
+
+        /* The client routes again: the raster drawn with its old route no longer applies. */
+        assertTrue(ROUTE_STORE.replace(routeId, Collections.emptyList()));
+        long newStamp = ROUTE_STORE.get(routeId).stamp();
+        assertNull(rasters.get(RasterCache.key(grid, newStamp)));
+        handler.writeImagesToOutputStream(handler.processRequest(params, null),
+                new ByteArrayOutputStream());
+        RasterCache.Raster after = rasters.get(RasterCache.key(grid, newStamp));
+        assertNotNull(after);
+        assertNotSame(before, after);
+
+        /* Another client's request, without a route, is cached separately. */
+        handler.writeImagesToOutputStream(TestRasterStreaming.query(handler),
+                new ByteArrayOutputStream());
+        assertNotNull(rasters.get(RasterCache.key(grid, RouteStore.NO_ROUTE)));
+        ROUTE_STORE.remove(routeId);
+    }
+}
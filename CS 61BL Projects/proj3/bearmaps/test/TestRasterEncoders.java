@@ -0,0 +1,131 @@
+package bearmaps.test;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.ImageIORasterEncoder;
+import bearmaps.utils.PngEncoder;
+import bearmaps.utils.RasterEncoder;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that every raster encoder is lossless, by decoding its output with ImageIO, and
+ * compares their encode times and output sizes on a composited raster.
+ */
+public class TestRasterEncoders {
+    private static final int NUM_WARMUP = 3;
+    private static final int NUM_TIMED = 10;
+
+    /* A 7 x 4 tile raster, about what a full-screen request composites. */
+    private static BufferedImage raster() {
+        BufferedImage img = new BufferedImage(7 * Constants.TILE_SIZE, 4 * Constants.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics g = img.getGraphics();
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c < 7; c++) {
+                g.drawImage(TestRasterStreaming.syntheticTile("d5_x" + c + "_y" + r + ".png"),
+                        c * Constants.TILE_SIZE, r * Constants.TILE_SIZE, null);
+            }
+        }
+        g.dispose();
+        return img;
+    }
+
+    private static BufferedImage noise(int width, int height, int type, long seed) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static byte[] encode(RasterEncoder encoder, BufferedImage img) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        encoder.encode(img, os);
+        return os.toByteArray();
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        boolean alpha = expected.getColorModel().hasAlpha();
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y), a = actual.getRGB(x, y);
+                assertEquals(alpha ? e : e & 0xFFFFFF, alpha ? a : a & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testPngEncoderIsLossless() throws IOException {
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_3BYTE_BGR};
+        for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            for (int level : new int[]{0, 1, 6, 9}) {
+                RasterEncoder encoder = new PngEncoder(level, filter);
+                for (int type : types) {
+                    BufferedImage img = noise(37, 23, type, level * 31 + type);
+                    BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(
+                            encode(encoder, img)));
+                    assertSamePixels(img, decoded);
+                }
+            }
+        }
+        /* Large enough to need several IDAT chunks. */
+        BufferedImage big = raster();
+        RasterEncoder encoder = new PngEncoder(0, PngEncoder.Filter.ADAPTIVE);
+        assertSamePixels(big, ImageIO.read(new ByteArrayInputStream(encode(encoder, big))));
+    }
+
+    @Test
+    public void testImageIOEncoderIsLossless() throws IOException {
+        BufferedImage img = raster();
+        for (int level : new int[]{-1, 0, 1, 9}) {
+            assertSamePixels(img, ImageIO.read(new ByteArrayInputStream(
+                    encode(new ImageIORasterEncoder(level), img))));
+        }
+    }
+
+    @Test
+    public void testEncodeTimeAndSize() throws IOException {
+        BufferedImage img = raster();
+        RasterEncoder[] encoders = {
+            new ImageIORasterEncoder(),
+            new ImageIORasterEncoder(1),
+            new ImageIORasterEncoder(9),
+            new PngEncoder(1, PngEncoder.Filter.NONE),
+            new PngEncoder(1, PngEncoder.Filter.SUB),
+            new PngEncoder(1, PngEncoder.Filter.UP),
+            new PngEncoder(1, PngEncoder.Filter.PAETH),
+            new PngEncoder(1, PngEncoder.Filter.ADAPTIVE),
+            new PngEncoder(4, PngEncoder.Filter.UP),
+            new PngEncoder(6, PngEncoder.Filter.ADAPTIVE),
+            new PngEncoder(9, PngEncoder.Filter.ADAPTIVE),
+        };
+        for (RasterEncoder encoder : encoders) {
+            for (int i = 0; i < NUM_WARMUP; i++) {
+                encode(encoder, img);
+            }
+            long start = System.nanoTime();
+            int bytes = 0;
+            for (int i = 0; i < NUM_TIMED; i++) {
+                bytes = encode(encoder, img).length;
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / NUM_TIMED;
+            System.out.println(String.format("%s: %.1f ms, %d bytes per %dx%d raster.",
+                    encoder, millis, bytes, img.getWidth(), img.getHeight()));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package bearmaps.test;
+
+import bearmaps.server.handler.impl.RasterAPIHandler;
+import bearmaps.utils.Constants;
+import bearmaps.utils.RasterCache;
+import bearmaps.utils.TileCache;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares answering a raster request with Base64-encoded JSON against streaming the PNG,
+ * and both against serving it from the raster cache, in latency and bytes allocated per
+ * request. Tiles are drawn rather than read from disk, so that only rendering and encoding
+ * are measured.
+ */
+public class TestRasterStreaming {
+    private static final int NUM_WARMUP = 5;
+    private static final int NUM_TIMED = 20;
+
+    /* Random streets and blocks, so that tiles compress about as well as real ones. */
+    static BufferedImage syntheticTile(String name) {
+        BufferedImage tile = new BufferedImage(Constants.TILE_SIZE, Constants.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = tile.createGraphics();
+        Random random = new Random(name.hashCode());
+        g.setColor(new Color(236, 232, 224));
+        g.fillRect(0, 0, Constants.TILE_SIZE, Constants.TILE_SIZE);
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillRect(random.nextInt(256), random.nextInt(256), random.nextInt(64),
+                    random.nextInt(64));
+            g.setColor(Color.WHITE);
+            g.drawLine(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256));
+        }
+        g.dispose();
+        return tile;
+    }
+
+    /* A handler over synthetic tiles that keeps up to RASTERCACHEBYTES of rasters. */
+    static RasterAPIHandler syntheticHandler(long rasterCacheBytes) {
+        return new RasterAPIHandler(new TileCache(Long.MAX_VALUE,
+                TestRasterStreaming::syntheticTile), new RasterCache(rasterCacheBytes));
+    }
+
+    static Map<String, Object> query(RasterAPIHandler handler) {
+        return handler.processRequest(queryParams(), null);
+    }
+
+    static Map<String, Double> queryParams() {
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", -122.2904);
+        params.put("ullat", 37.8713);
+        params.put("lrlon", -122.2400);
+        params.put("lrlat", 37.8487);
+        params.put("w", 1600.0);
+        params.put("h", 900.0);
+        return params;
+    }
+
+    @Test
+    public void testStreamedImageMatchesJsonImage() {
+        RasterAPIHandler handler = syntheticHandler(0);
+        Map<String, Object> result = query(handler);
+        String json = (String) handler.buildJsonResponse(result);
+        JsonObject parsed = new Gson().fromJson(json, JsonObject.class);
+        String encoded = parsed.get("b64_encoded_image_data").getAsString();
+        assertEquals("image/png", parsed.get("image_content_type").getAsString());
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        handler.writeImagesToOutputStream(query(handler), streamed);
+        assertTrue(streamed.size() > 0);
+        assertArrayEquals(Base64.getDecoder().decode(encoded), streamed.toByteArray());
+    }
+
+    @Test
+    public void testLatencyAndAllocation() {
+        RasterAPIHandler handler = syntheticHandler(0);
+        measure("Base64 in JSON", () -> ((String) handler.buildJsonResponse(query(handler)))
+                .length());
+        measure("Streamed PNG", () -> {
+            CountingOutputStream os = new CountingOutputStream();
+            handler.writeImagesToOutputStream(query(handler), os);
+            return os.count;
+        });
+        RasterAPIHandler caching = syntheticHandler(Constants.RASTER_CACHE_BYTES);
+        measure("Streamed PNG, cached", () -> {
+            CountingOutputStream os = new CountingOutputStream();
+            caching.writeImagesToOutputStream(query(caching), os);
+            return os.count;
+        });
+    }
+
+    /* Stands in for the response stream: counts the bytes and drops them. */
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private interface RasterRequest {
+        long run();
+    }
+
+    private static void measure(String label, RasterRequest request) {
+        for (int i = 0; i < NUM_WARMUP; i++) {
+            request.run();
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long bytesSent = 0;
+        for (int i = 0; i < NUM_TIMED; i++) {
+            bytesSent = request.run();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / NUM_TIMED;
+        long allocated = (threads.getThreadAllocatedBytes(thread) - allocatedBefore) / NUM_TIMED;
+        System.out.println(String.format("%s: %.1f ms, %.1f MB allocated, %d bytes sent "
+                + "per request.", label, millis, allocated / (1024.0 * 1024.0), bytesSent));
+    }
+}
@@ -0,0 +1,108 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.RouteCache;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that Router.shortestPath answers repeated routes from the graph's route cache
+ * with the same paths it searched for, and reports the hit rate and time saved on a
+ * workload of popular places.
+ */
+public class TestRouteCache {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_PLACES = 40;
+    private static final int NUM_REQUESTS = 400;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        /* Each one-vertex route takes 8 bytes of path plus the entry overhead. */
+        RouteCache probe = new RouteCache(Long.MAX_VALUE);
+        probe.put(0, 0, Arrays.asList(1L), 0);
+        long entryBytes = probe.sizeBytes();
+
+        RouteCache cache = new RouteCache(3 * entryBytes);
+        cache.put(1, 2, Arrays.asList(1L), 1);
+        cache.put(2, 3, Arrays.asList(2L), 2);
+        cache.put(3, 4, Arrays.asList(3L), 3);
+        assertNotNull(cache.get(1, 2));
+        cache.put(4, 5, Arrays.asList(4L), 4);
+        assertNull(cache.get(2, 3));
+        assertNull(cache.get(2, 1));
+        assertEquals(1.0, cache.get(1, 2).weight(), 0);
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    public void testRepeatedRoutesSkipTheSolver() {
+        Random random = new Random(16);
+        double[][] places = new double[NUM_PLACES][];
+        for (int i = 0; i < NUM_PLACES; i++) {
+            places[i] = new double[]{-122.30 + 0.09 * random.nextDouble(),
+                    37.82 + 0.07 * random.nextDouble()};
+        }
+        /* Most requests are between a few popular places. */
+        List<int[]> requests = new ArrayList<>();
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            int a = popular(random), b = popular(random);
+            requests.add(new int[]{a, b});
+        }
+
+        graph.setRouteCache(null);
+        List<List<Long>> expected = new ArrayList<>();
+        Stopwatch sw = new Stopwatch();
+        for (int[] r : requests) {
+            expected.add(Router.shortestPath(graph, places[r[0]][0], places[r[0]][1],
+                    places[r[1]][0], places[r[1]][1]));
+        }
+        double uncachedTime = sw.elapsedTime();
+
+        RouteCache cache = new RouteCache(Long.MAX_VALUE);
+        graph.setRouteCache(cache);
+        sw = new Stopwatch();
+        for (int i = 0; i < requests.size(); i++) {
+            int[] r = requests.get(i);
+            assertEquals(expected.get(i), Router.shortestPath(graph, places[r[0]][0],
+                    places[r[0]][1], places[r[1]][0], places[r[1]][1]));
+        }
+        double cachedTime = sw.elapsedTime();
+        graph.setRouteCache(null);
+
+        assertEquals(NUM_REQUESTS, cache.hits() + cache.misses());
+        assertEquals(cache.size(), cache.misses());
+        assertTrue(cache.hits() > 0);
+        System.out.println(String.format("%d requests between %d places: %.3f seconds "
+                + "uncached, %.3f seconds cached, hit rate %.2f.", NUM_REQUESTS, NUM_PLACES,
+                uncachedTime, cachedTime, cache.stats().get("hit_rate")));
+    }
+
+    /* Picks a place, favouring the first few. */
+    private static int popular(Random random) {
+        return (int) (NUM_PLACES * Math.pow(random.nextDouble(), 3));
+    }
+}
@@ -0,0 +1,150 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.server.handler.impl.RouteMatrixAPIHandler;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.ContractionHierarchy;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks route matrices, with and without a contraction hierarchy and with and without a
+ * pool, against A* on every pair, and reports how long a matrix takes next to routing
+ * each pair on its own.
+ */
+public class TestRouteMatrix {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_SOURCES = 12;
+    private static final int NUM_TARGETS = 15;
+    private static AugmentedStreetMapGraph graph;
+    private static ContractionHierarchy ch;
+    private static ExecutorService pool;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        ch = ContractionHierarchy.build(graph.compactGraph());
+        pool = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        Random random = new Random(17);
+        double[][] sources = randomPlaces(random, NUM_SOURCES);
+        double[][] targets = randomPlaces(random, NUM_TARGETS);
+        /* A repeated target must get the same column as its first occurrence. */
+        targets[NUM_TARGETS - 1] = targets[0];
+
+        graph.setContractionHierarchy(null);
+        Map<String, Object> dijkstra = RouteMatrixAPIHandler.routeMatrix(graph, sources,
+                targets, null);
+        Map<String, Object> parallelDijkstra = RouteMatrixAPIHandler.routeMatrix(graph,
+                sources, targets, pool);
+        graph.setContractionHierarchy(ch);
+        Map<String, Object> buckets = RouteMatrixAPIHandler.routeMatrix(graph, sources,
+                targets, null);
+        Map<String, Object> parallelBuckets = RouteMatrixAPIHandler.routeMatrix(graph,
+                sources, targets, pool);
+        graph.setContractionHierarchy(null);
+
+        long[] sourceIds = (long[]) dijkstra.get("source_ids");
+        long[] targetIds = (long[]) dijkstra.get("target_ids");
+        assertEquals(NUM_SOURCES, sourceIds.length);
+        assertEquals(NUM_TARGETS, targetIds.length);
+        assertArrayEquals(sourceIds, (long[]) buckets.get("source_ids"));
+        assertArrayEquals(targetIds, (long[]) buckets.get("target_ids"));
+
+        boolean complete = true;
+        for (int i = 0; i < NUM_SOURCES; i++) {
+            for (int j = 0; j < NUM_TARGETS; j++) {
+                ShortestPathsSolver<Long> expected = Router.solve(graph, sourceIds[i],
+                        targetIds[j], Router.Algorithm.ASTAR);
+                for (Map<String, Object> result : Arrays.asList(dijkstra, parallelDijkstra,
+                        buckets, parallelBuckets)) {
+                    Double[][] distances = (Double[][]) result.get("distances");
+                    Double actual = distances[i][j];
+                    if (expected.outcome() == SolverOutcome.SOLVED) {
+                        assertEquals("Matrix entry differs from A*",
+                                expected.solutionWeight(), actual, 1e-9);
+                    } else {
+                        assertNull(actual);
+                    }
+                }
+                complete &= expected.outcome() == SolverOutcome.SOLVED;
+            }
+        }
+        assertEquals(complete, dijkstra.get("matrix_success"));
+        assertEquals(complete, buckets.get("matrix_success"));
+    }
+
+    @Test
+    public void testFasterThanSingleRoutes() {
+        Random random = new Random(61);
+        double[][] sources = randomPlaces(random, NUM_SOURCES);
+        double[][] targets = randomPlaces(random, NUM_TARGETS);
+        graph.setContractionHierarchy(ch);
+        try {
+            /* Warm up, so the first timing does not pay for compiling the searches. */
+            for (int k = 0; k < 3; k++) {
+                RouteMatrixAPIHandler.routeMatrix(graph, sources, targets, pool);
+                singleRoutes(sources, targets);
+            }
+            Stopwatch sw = new Stopwatch();
+            RouteMatrixAPIHandler.routeMatrix(graph, sources, targets, null);
+            double matrixTime = sw.elapsedTime();
+            sw = new Stopwatch();
+            RouteMatrixAPIHandler.routeMatrix(graph, sources, targets, pool);
+            double parallelTime = sw.elapsedTime();
+            sw = new Stopwatch();
+            singleRoutes(sources, targets);
+            double singleTime = sw.elapsedTime();
+            System.out.println(String.format("%dx%d matrix: %.3f seconds, %.3f on a pool of "
+                    + "4, %.3f routing each pair on its own.", NUM_SOURCES, NUM_TARGETS,
+                    matrixTime, parallelTime, singleTime));
+            assertTrue(matrixTime < singleTime);
+        } finally {
+            graph.setContractionHierarchy(null);
+        }
+    }
+
+    private static void singleRoutes(double[][] sources, double[][] targets) {
+        for (double[] s : sources) {
+            for (double[] t : targets) {
+                Router.solve(graph, graph.closest(s[0], s[1]), graph.closest(t[0], t[1]),
+                        Router.Algorithm.CONTRACTION_HIERARCHY);
+            }
+        }
+    }
+
+    private static double[][] randomPlaces(Random random, int n) {
+        double[][] places = new double[n][];
+        for (int i = 0; i < n; i++) {
+            places[i] = new double[]{-122.30 + 0.09 * random.nextDouble(),
+                    37.82 + 0.07 * random.nextDouble()};
+        }
+        return places;
+    }
+}
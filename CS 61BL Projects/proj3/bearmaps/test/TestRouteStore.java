@@ -0,0 +1,177 @@
+package bearmaps.test;
+
+import bearmaps.utils.RouteStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that RouteStore keeps each client's route apart, and expires and evicts them.
+ */
+public class TestRouteStore {
+
+    @Test
+    public void testRoutesAreKeptApart() {
+        RouteStore store = new RouteStore(100, 60000);
+        long a = store.add(Arrays.asList(1L, 2L, 3L));
+        long b = store.add(Arrays.asList(4L, 5L));
+        assertTrue(a != b);
+        assertTrue(a > 0 && a < (1L << 53) && a == (long) (double) a);
+        assertEquals(Arrays.asList(1L, 2L, 3L), store.get(a).vertices());
+        assertEquals(Arrays.asList(4L, 5L), store.get(b).vertices());
+        assertTrue(store.get(a).stamp() != store.get(b).stamp());
+
+        long oldStamp = store.get(a).stamp();
+        assertTrue(store.replace(a, Arrays.asList(6L)));
+        assertEquals(Arrays.asList(6L), store.get(a).vertices());
+        assertTrue(store.get(a).stamp() != oldStamp);
+        assertEquals(Arrays.asList(4L, 5L), store.get(b).vertices());
+
+        store.remove(a);
+        assertNull(store.get(a));
+        assertNotNull(store.get(b));
+
+        /* Ids the store did not hand out, or no longer holds, are not written to. */
+        assertFalse(store.replace(a, Arrays.asList(7L)));
+        assertNull(store.get(a));
+        long made = a == 12345 ? 54321 : 12345;
+        assertFalse(store.replace(made, Arrays.asList(7L)));
+        assertNull(store.get(made));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testRouteIds() {
+        assertTrue(RouteStore.isRouteId(1));
+        assertTrue(RouteStore.isRouteId((1L << 53) - 1));
+        assertFalse(RouteStore.isRouteId(0));
+        assertFalse(RouteStore.isRouteId(-5));
+        assertFalse(RouteStore.isRouteId(1.5));
+        assertFalse(RouteStore.isRouteId(1L << 53));
+        assertFalse(RouteStore.isRouteId(Double.NaN));
+        assertFalse(RouteStore.isRouteId(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void testStoredRoutesDoNotChange() {
+        RouteStore store = new RouteStore(100, 60000);
+        List<Long> route = new ArrayList<>(Arrays.asList(1L, 2L));
+        long id = store.add(route);
+        route.add(3L);
+        assertEquals(Arrays.asList(1L, 2L), store.get(id).vertices());
+        try {
+            store.get(id).vertices().add(4L);
+            fail("Stored routes should be unmodifiable.");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(2, store.get(id).vertices().size());
+        }
+    }
+
+    @Test
+    public void testUnusedRoutesExpire() {
+        AtomicLong now = new AtomicLong();
+        RouteStore store = new RouteStore(100, 1000, now::get);
+        long a = store.add(Arrays.asList(1L));
+        long b = store.add(Arrays.asList(2L));
+        now.set(800);
+        assertNotNull(store.get(a));
+        now.set(1500);
+        assertNotNull(store.get(a));
+        assertNull(store.get(b));
+        now.set(3000);
+        assertFalse(store.replace(a, Arrays.asList(3L)));
+        assertNull(store.get(a));
+    }
+
+    @Test
+    public void testExpiredRoutesAreSweptByLaterAdds() {
+        AtomicLong now = new AtomicLong();
+        RouteStore store = new RouteStore(100, 1000, now::get);
+        for (int i = 0; i < 50; i++) {
+            store.add(Arrays.asList((long) i));
+        }
+        now.set(2000);
+        for (int i = 0; i < 20; i++) {
+            store.add(Arrays.asList((long) i));
+        }
+        assertTrue(store.size() <= 20);
+    }
+
+    @Test
+    public void testFullStoreEvictsInBatches() {
+        AtomicLong now = new AtomicLong();
+        RouteStore store = new RouteStore(800, 60000, now::get);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            now.incrementAndGet();
+            ids.add(store.add(Arrays.asList((long) i)));
+            assertTrue(store.size() <= 800);
+        }
+        /* The most recently added routes are always kept. */
+        for (long id : ids.subList(ids.size() - 700, ids.size())) {
+            assertNotNull(store.get(id));
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        AtomicLong now = new AtomicLong();
+        RouteStore store = new RouteStore(3, 60000, now::get);
+        long[] ids = new long[3];
+        for (int i = 0; i < 3; i++) {
+            now.incrementAndGet();
+            ids[i] = store.add(Arrays.asList((long) i));
+        }
+        now.incrementAndGet();
+        store.get(ids[0]);
+        now.incrementAndGet();
+        long d = store.add(Arrays.asList(3L));
+        assertEquals(3, store.size());
+        assertNull(store.get(ids[1]));
+        assertNotNull(store.get(ids[0]));
+        assertNotNull(store.get(ids[2]));
+        assertNotNull(store.get(d));
+    }
+
+    @Test
+    public void testConcurrentClients() throws InterruptedException {
+        RouteStore store = new RouteStore(100000, 60000);
+        int numThreads = 8, perThread = 2000;
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            long seed = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        List<Long> route = Arrays.asList(seed, (long) i);
+                        long id = store.add(route);
+                        assertTrue(store.replace(id, route));
+                        assertEquals(route, store.get(id).vertices());
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(numThreads * perThread, store.size());
+    }
+}
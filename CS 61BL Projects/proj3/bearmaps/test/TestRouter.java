@@ -5,6 +5,8 @@ import edu.princeton.cs.algs4.Stopwatch;
 import org.junit.Before;
 import org.junit.Test;
 import bearmaps.Router;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.streetmap.ContractionHierarchy;
 
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -15,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /** Test of the routing part of the assignment. */
 public class TestRouter {
@@ -53,6 +56,54 @@ public class TestRouter {
         System.out.println("Took " + sw.elapsedTime() + " seconds.");
     }
 
+    @Test
+    public void testContractionHierarchyShortestPath() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        graph.setContractionHierarchy(ContractionHierarchy.build(graph.compactGraph()));
+        try {
+            for (int i = 0; i < NUM_TESTS; i++) {
+                Map<String, Double> params = testParams.get(i);
+                List<Long> actual = Router.shortestPath(graph,
+                        params.get("start_lon"), params.get("start_lat"),
+                        params.get("end_lon"), params.get("end_lat"));
+                assertEquals("The contraction hierarchy did not match the expected results",
+                        expectedResults.get(i), actual);
+            }
+        } finally {
+            graph.setContractionHierarchy(null);
+        }
+    }
+
+    @Test
+    public void testBidirectionalShortestPath() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+
+        int forwardStates = 0, bidirectionalStates = 0;
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            long src = graph.closest(params.get("start_lon"), params.get("start_lat"));
+            long dest = graph.closest(params.get("end_lon"), params.get("end_lat"));
+            ShortestPathsSolver<Long> expected = Router.solve(graph, src, dest,
+                    Router.Algorithm.ASTAR);
+            ShortestPathsSolver<Long> actual = Router.solve(graph, src, dest,
+                    Router.Algorithm.BIDIRECTIONAL_ASTAR);
+            assertEquals("Bidirectional A* found a path of a different weight",
+                    expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+            assertEquals(src, (long) actual.solution().get(0));
+            assertEquals(dest, (long) actual.solution().get(actual.solution().size() - 1));
+            forwardStates += expected.numStatesExplored();
+            bidirectionalStates += actual.numStatesExplored();
+        }
+        System.out.println(String.format("A* explored %d states, bidirectional A* %d.",
+                forwardStates, bidirectionalStates));
+        /* Great-circle distance is tight enough on these streets that searching from both
+           ends saves little; it should at least not cost more than a few percent. */
+        assertTrue("Bidirectional A* explored too many states",
+                bidirectionalStates <= 1.05 * forwardStates);
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
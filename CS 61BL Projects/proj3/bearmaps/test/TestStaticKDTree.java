@@ -0,0 +1,175 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.ps.BoundingBox;
+import bearmaps.utils.ps.KDTree;
+import bearmaps.utils.ps.Point;
+import bearmaps.utils.ps.PointSet;
+import bearmaps.utils.ps.StaticKDTree;
+import bearmaps.utils.ps.WeirdPointSet;
+import edu.princeton.cs.algs4.Stopwatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the bulk-loaded StaticKDTree against brute force on the Berkeley node set, and
+ * compares its nearest queries with KDTree and WeirdPointSet.
+ */
+public class TestStaticKDTree {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 1000;
+    private static final int NUM_TIMED_QUERIES = 20000;
+    private static final int K = 10;
+    private static List<Point> points;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        CompactGraph graph = new AugmentedStreetMapGraph(OSM_DB_PATH).compactGraph();
+        points = new ArrayList<>();
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            points.add(new Point(graph.lon(v), graph.lat(v)));
+        }
+        initialized = true;
+    }
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        StaticKDTree tree = new StaticKDTree(points);
+        Random random = new Random(61);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            Point q = randomPoint(random);
+            Point expected = sortedByDistance(q).get(0);
+            assertEquals(Point.distance(q, expected), Point.distance(q,
+                    tree.nearest(q.getX(), q.getY())), 0);
+            Point p = points.get(tree.nearestId(q.getX(), q.getY()));
+            assertEquals(Point.distance(q, expected), Point.distance(q, p), 0);
+        }
+    }
+
+    @Test
+    public void testKNearestMatchesBruteForce() {
+        StaticKDTree tree = new StaticKDTree(points);
+        Random random = new Random(62);
+        for (int i = 0; i < NUM_QUERIES / 10; i++) {
+            Point q = randomPoint(random);
+            List<Point> expected = sortedByDistance(q).subList(0, K);
+            List<Point> actual = tree.kNearest(q.getX(), q.getY(), K);
+            assertEquals(K, actual.size());
+            for (int j = 0; j < K; j++) {
+                assertEquals(Point.distance(q, expected.get(j)), Point.distance(q,
+                        actual.get(j)), 0);
+            }
+        }
+        assertEquals(0, tree.kNearest(0, 0, 0).size());
+        assertEquals(points.size(), tree.kNearest(0, 0, points.size() + 1).size());
+    }
+
+    @Test
+    public void testRangeSearchMatchesBruteForce() {
+        StaticKDTree tree = new StaticKDTree(points);
+        Random random = new Random(63);
+        for (int i = 0; i < NUM_QUERIES / 10; i++) {
+            Point a = randomPoint(random);
+            Point b = randomPoint(random);
+            BoundingBox bbox = new BoundingBox(Math.min(a.getX(), b.getX()),
+                    Math.min(a.getY(), b.getY()), Math.max(a.getX(), b.getX()),
+                    Math.max(a.getY(), b.getY()));
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < points.size(); j++) {
+                if (bbox.contains(points.get(j).getX(), points.get(j).getY())) {
+                    expected.add(j);
+                }
+            }
+            int[] ids = tree.rangeSearchIds(bbox);
+            Set<Integer> actual = new HashSet<>();
+            for (int id : ids) {
+                actual.add(id);
+            }
+            assertEquals(expected.size(), ids.length);
+            assertEquals(expected, actual);
+            assertEquals(expected.size(), tree.rangeSearch(bbox).size());
+        }
+    }
+
+    @Test
+    public void testVisitNearestMatchesBruteForce() {
+        StaticKDTree tree = new StaticKDTree(points);
+        Random random = new Random(65);
+        for (int i = 0; i < NUM_QUERIES / 10; i++) {
+            Point q = randomPoint(random);
+            double maxDistance = random.nextDouble();
+            int stopAfter = 1 + random.nextInt(200);
+            List<Double> expected = new ArrayList<>();
+            for (Point p : sortedByDistance(q)) {
+                if (Point.distance(q, p) > maxDistance || expected.size() == stopAfter) {
+                    break;
+                }
+                expected.add(Point.distance(q, p));
+            }
+            List<Double> actual = new ArrayList<>();
+            tree.visitNearest(q.getX(), q.getY(), maxDistance, (id, distance) -> {
+                assertEquals(Point.distance(q, points.get(id)), distance, 0);
+                actual.add(distance);
+                return actual.size() < stopAfter;
+            });
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testNearestThroughput() {
+        Random random = new Random(64);
+        double[][] queries = new double[NUM_TIMED_QUERIES][];
+        for (int i = 0; i < queries.length; i++) {
+            Point q = randomPoint(random);
+            queries[i] = new double[]{q.getX(), q.getY()};
+        }
+        time("KDTree", () -> new KDTree(points), queries);
+        time("WeirdPointSet", () -> new WeirdPointSet(points), queries);
+        time("StaticKDTree", () -> new StaticKDTree(points), queries);
+    }
+
+    private interface Builder {
+        PointSet build();
+    }
+
+    private static void time(String label, Builder builder, double[][] queries) {
+        Stopwatch sw = new Stopwatch();
+        PointSet set = builder.build();
+        double buildTime = sw.elapsedTime();
+        sw = new Stopwatch();
+        double checksum = 0;
+        for (double[] q : queries) {
+            checksum += set.nearest(q[0], q[1]).getX();
+        }
+        double queryTime = sw.elapsedTime();
+        System.out.println(String.format("%s: built over %d points in %.3f seconds, %d "
+                + "nearest queries in %.3f seconds (checksum %.3f).", label, points.size(),
+                buildTime, queries.length, queryTime, checksum));
+    }
+
+    private static Point randomPoint(Random random) {
+        return new Point(-122.30 + 0.09 * random.nextDouble(), 37.82 + 0.07 * random.nextDouble());
+    }
+
+    private static List<Point> sortedByDistance(Point q) {
+        Point[] sorted = points.toArray(new Point[0]);
+        Arrays.sort(sorted, Comparator.comparingDouble(p -> Point.distance(q, p)));
+        return Arrays.asList(sorted);
+    }
+}
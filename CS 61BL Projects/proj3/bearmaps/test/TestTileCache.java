@@ -0,0 +1,152 @@
+package bearmaps.test;
+
+import bearmaps.utils.TileCache;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks TileCache's eviction, load sharing and counters against a synthetic loader, so
+ * that no tile images are needed.
+ */
+public class TestTileCache {
+    private static final int TILE_SIZE = 256;
+    private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    /* Hands out blank tiles and counts how many times each was asked for. */
+    private static class CountingLoader implements TileCache.TileLoader {
+        private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+        private final long delayMillis;
+
+        CountingLoader(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public BufferedImage load(String name) throws IOException {
+            counts.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+            if (name.startsWith("missing")) {
+                throw new IOException("no such tile: " + name);
+            }
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        int count(String name) {
+            AtomicInteger count = counts.get(name);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        CountingLoader loader = new CountingLoader(0);
+        TileCache cache = new TileCache(10 * TILE_BYTES, loader);
+        BufferedImage first = cache.get("d1_x0_y0.png");
+        assertSame(first, cache.get("d1_x0_y0.png"));
+        cache.get("d1_x1_y0.png");
+        assertEquals(1, loader.count("d1_x0_y0.png"));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.loads());
+        assertEquals(2, cache.size());
+        assertEquals(2 * TILE_BYTES, cache.sizeBytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        CountingLoader loader = new CountingLoader(0);
+        TileCache cache = new TileCache(3 * TILE_BYTES, loader);
+        cache.get("a");
+        cache.get("b");
+        cache.get("c");
+        cache.get("a");
+        cache.get("d");
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.evictions());
+        assertTrue(cache.sizeBytes() <= cache.capacityBytes());
+
+        /* b was least recently used, so it is the one that has to be loaded again. */
+        cache.get("a");
+        cache.get("c");
+        cache.get("d");
+        assertEquals(1, loader.count("a"));
+        cache.get("b");
+        assertEquals(2, loader.count("b"));
+        assertEquals(2, cache.evictions());
+    }
+
+    @Test
+    public void testOversizedTileIsStillCached() {
+        TileCache cache = new TileCache(TILE_BYTES / 2, new CountingLoader(0));
+        BufferedImage tile = cache.get("big");
+        assertSame(tile, cache.get("big"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testFailedLoadsAreNotCached() {
+        CountingLoader loader = new CountingLoader(0);
+        TileCache cache = new TileCache(10 * TILE_BYTES, loader);
+        assertNull(cache.get("missing.png"));
+        assertNull(cache.get("missing.png"));
+        assertEquals(2, loader.count("missing.png"));
+        assertEquals(0, cache.size());
+        assertEquals(2L, cache.stats().get("load_failures"));
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws InterruptedException {
+        int numThreads = 16;
+        CountingLoader loader = new CountingLoader(200);
+        TileCache cache = new TileCache(10 * TILE_BYTES, loader);
+        CountDownLatch start = new CountDownLatch(1);
+        List<BufferedImage> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                BufferedImage tile = cache.get("d7_x3_y3.png");
+                synchronized (results) {
+                    results.add(tile);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, loader.count("d7_x3_y3.png"));
+        assertEquals(numThreads, results.size());
+        for (BufferedImage tile : results) {
+            assertSame(results.get(0), tile);
+        }
+        Map<String, Object> stats = cache.stats();
+        assertEquals((long) numThreads, (long) stats.get("hits") + (long) stats.get("misses"));
+        assertEquals(1L, stats.get("loads"));
+    }
+}
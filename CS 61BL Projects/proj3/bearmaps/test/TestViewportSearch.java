@@ -0,0 +1,190 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.NameIndex;
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.streetmap.CompactGraph;
+import bearmaps.utils.ps.Point;
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static bearmaps.utils.Constants.SEARCH_DISTANCE_SCALE_MILES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks search ranked by distance from where the user is looking against scoring every
+ * named Berkeley node, and compares the two for time and the size of what is sent back.
+ */
+public class TestViewportSearch {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int NUM_QUERIES = 500;
+    private static AugmentedStreetMapGraph graph;
+    private static CompactGraph cg;
+    private static NameIndex index;
+    private static List<Integer> named;
+
+    @Before
+    public void setUp() {
+        if (graph != null) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        cg = graph.compactGraph();
+        index = new NameIndex(cg);
+        named = new ArrayList<>();
+        for (int v = 0; v < cg.vertexCount(); v++) {
+            if (cg.name(v) != null) {
+                named.add(v);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesScoringEveryPlace() {
+        Random random = new Random(25);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            Point q = randomPoint(random);
+            String prefix = randomPrefix(random);
+            double radius = 3 * random.nextDouble();
+            int k = 1 + random.nextInt(15);
+            assertEquals(scoreEveryPlace(prefix, q, radius, k), index.getNearbyLocationsByPrefix(
+                    prefix, q.getX(), q.getY(), radius, k, Deadline.none()));
+        }
+    }
+
+    @Test
+    public void testNearbyNamesComeFirst() {
+        Random random = new Random(26);
+        for (int i = 0; i < NUM_QUERIES / 5; i++) {
+            Point q = randomPoint(random);
+            String prefix = randomPrefix(random);
+            double radius = random.nextDouble();
+            int k = 1 + random.nextInt(15);
+            List<String> nearby = scoreEveryPlace(prefix, q, radius, k);
+            List<String> all = graph.getLocationsByPrefix(prefix, Integer.MAX_VALUE);
+            List<String> ranked = graph.getLocationsByPrefix(prefix, k, q.getX(), q.getY(),
+                    radius);
+            assertEquals(nearby, ranked.subList(0, nearby.size()));
+            assertEquals(Math.min(k, all.size()), ranked.size());
+            assertEquals(ranked.size(), new HashSet<>(ranked).size());
+            assertTrue(all.containsAll(ranked));
+        }
+    }
+
+    @Test
+    public void testFullSearchNearestFirst() {
+        Random random = new Random(27);
+        List<String> names = graph.getLocationsByPrefix("", Integer.MAX_VALUE);
+        for (int i = 0; i < NUM_QUERIES / 5; i++) {
+            Point q = randomPoint(random);
+            String name = names.get(random.nextInt(names.size()));
+            int k = 1 + random.nextInt(5);
+            List<Double> expected = new ArrayList<>();
+            for (Map<String, Object> location : graph.getLocations(name)) {
+                expected.add(distanceTo(q, location));
+            }
+            expected.sort(Comparator.naturalOrder());
+            List<Double> actual = new ArrayList<>();
+            for (Map<String, Object> location : graph.getLocations(name, q.getX(), q.getY(),
+                    k)) {
+                actual.add(distanceTo(q, location));
+            }
+            assertEquals(expected.subList(0, Math.min(k, expected.size())), actual);
+        }
+    }
+
+    @Test
+    public void testCost() {
+        Random random = new Random(28);
+        Point[] centres = new Point[NUM_QUERIES];
+        String[] prefixes = new String[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            centres[i] = randomPoint(random);
+            prefixes[i] = randomPrefix(random);
+        }
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                scoreEveryPlace(prefixes[i], centres[i], 1, 10);
+                index.getNearbyLocationsByPrefix(prefixes[i], centres[i].getX(),
+                        centres[i].getY(), 1, 10, Deadline.none());
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            scoreEveryPlace(prefixes[i], centres[i], 1, 10);
+        }
+        double scanMs = (System.nanoTime() - start) / 1e6 / NUM_QUERIES;
+        start = System.nanoTime();
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            index.getNearbyLocationsByPrefix(prefixes[i], centres[i].getX(),
+                    centres[i].getY(), 1, 10, Deadline.none());
+        }
+        double nearbyMs = (System.nanoTime() - start) / 1e6 / NUM_QUERIES;
+
+        Gson gson = new Gson();
+        long allBytes = 0, rankedBytes = 0;
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            allBytes += gson.toJson(graph.getLocationsByPrefix(prefixes[i])).length();
+            rankedBytes += gson.toJson(graph.getLocationsByPrefix(prefixes[i], 10,
+                    centres[i].getX(), centres[i].getY(), 1)).length();
+        }
+        System.out.println(String.format("%d named places. Scoring all of them: %.3f ms per "
+                + "search; nearest first: %.3f ms. Every match: %d bytes of JSON per search; "
+                + "the best 10: %d.", named.size(), scanMs, nearbyMs,
+                allBytes / NUM_QUERIES, rankedBytes / NUM_QUERIES));
+        assertTrue(rankedBytes <= allBytes);
+    }
+
+    /* Returns the best K names a search for PREFIX around Q within RADIUS should return,
+       found by scoring every named place. */
+    private static List<String> scoreEveryPlace(String prefix, Point q, double radius, int k) {
+        String cleaned = NameIndex.clean(prefix);
+        Map<String, Double> scores = new HashMap<>();
+        for (int v : named) {
+            String cleanedName = NameIndex.clean(cg.name(v));
+            double distance = Point.distance(q.getX(), cg.lon(v), q.getY(), cg.lat(v));
+            if (distance > radius || !cleanedName.startsWith(cleaned)) {
+                continue;
+            }
+            double score = NameIndex.matchScore(cleaned, cleanedName)
+                    - distance / SEARCH_DISTANCE_SCALE_MILES;
+            scores.merge(cg.name(v), score, Math::max);
+        }
+        List<String> names = new ArrayList<>(scores.keySet());
+        names.sort(Comparator.comparing((String name) -> -scores.get(name))
+                .thenComparing(Comparator.naturalOrder()));
+        return names.subList(0, Math.min(k, names.size()));
+    }
+
+    private static double distanceTo(Point q, Map<String, Object> location) {
+        return Point.distance(q.getX(), (double) location.get("lon"), q.getY(),
+                (double) location.get("lat"));
+    }
+
+    /* Returns nothing, a letter, or the start of the name of a named place. */
+    private static String randomPrefix(Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return "";
+            case 1:
+                return String.valueOf((char) ('a' + random.nextInt(26)));
+            default:
+                String name = cg.name(named.get(random.nextInt(named.size())));
+                return name.substring(0, Math.min(name.length(), 1 + random.nextInt(4)));
+        }
+    }
+
+    private static Point randomPoint(Random random) {
+        return new Point(-122.30 + 0.09 * random.nextDouble(), 37.82 + 0.07 * random.nextDouble());
+    }
+}
@@ -3,8 +3,6 @@ package bearmaps.utils;
 import bearmaps.AugmentedStreetMapGraph;
 
 import java.awt.*;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * A class holding all the constant values used throughout the project
@@ -27,6 +25,9 @@ public class Constants {
      **/
     public static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
 
+    /** Binary snapshot of the graph read from OSM_DB_PATH, rebuilt whenever it goes stale. */
+    public static final String OSM_SNAPSHOT_PATH = "../library-su19/data/proj3_xml/berkeley-2019.snapshot";
+
     /** The tile images are in the IMG_ROOT folder. */
     public static final String IMG_ROOT = "../library-su19/data/proj3_imgs/";
 
@@ -39,11 +40,84 @@ public class Constants {
     /** Each tile is 256x256 pixels. */
     public static final int TILE_SIZE = 256;
 
+    /** Bytes of decoded tile pixels to keep in memory; a 256x256 tile is 256 KB at 4 bytes
+     *  per pixel, so this holds about 1000 tiles. */
+    public static final long TILE_CACHE_BYTES = 256L * 1024 * 1024;
+
+    /** Number of tiles decoded at once for raster requests, shared by all of them. */
+    public static final int TILE_DECODE_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Decoded tiles shared by every raster request. */
+    public static final TileCache TILE_CACHE = new TileCache(IMG_ROOT, TILE_CACHE_BYTES,
+            TILE_DECODE_THREADS);
+
+    /** Bytes of encoded rasters to keep in memory for repeated viewports. */
+    public static final long RASTER_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /** Encoded rasters shared by every raster request. */
+    public static final RasterCache RASTER_CACHE = new RasterCache(RASTER_CACHE_BYTES);
+
+    /** How rasters are encoded. new ImageIORasterEncoder() gives ImageIO's defaults; a lower
+     *  deflate level trades bytes sent for encode time. */
+    public static final RasterEncoder RASTER_ENCODER = new PngEncoder(1, PngEncoder.Filter.UP);
+
+    /** Bytes of paths to keep in the street graph's route cache; 0 disables it. */
+    public static final long ROUTE_CACHE_BYTES = 32L * 1024 * 1024;
+
+    /** Most names a search for a prefix returns, unless the request asks for another
+     *  number. */
+    public static final int SEARCH_RESULT_LIMIT = 10;
+
+    /** Milliseconds a search forgiving typing errors may take before it settles for the
+     *  names found so far. */
+    public static final long FUZZY_SEARCH_BUDGET_MILLIS = 5;
+
+    /** Miles around a centre given without a viewport within which a search looks for
+     *  nearby places first. */
+    public static final double SEARCH_NEARBY_MILES = 2;
+
+    /** Miles further away that cost a place as much as the gap between matching its name
+     *  exactly and barely matching it, when search results are ranked by both. */
+    public static final double SEARCH_DISTANCE_SCALE_MILES = 1;
+
+    /** Milliseconds a search may spend looking for nearby places before it settles for the
+     *  ones found so far. */
+    public static final long NEARBY_SEARCH_BUDGET_MILLIS = 5;
+
+    /** Seconds a route search may run for when the caller gives no deadline. */
+    public static final double ROUTE_TIMEOUT_SECONDS = 20;
+
+    /** Milliseconds a route request may search for before it answers without a route. */
+    public static final long ROUTE_REQUEST_DEADLINE_MILLIS = 500;
+
+    /** Most sources, and most targets, in one route matrix request. */
+    public static final int MAX_ROUTE_MATRIX_POINTS = 100;
+
+    /** Number of route matrix rows computed at once, shared by all requests. */
+    public static final int ROUTE_MATRIX_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Largest distance, in miles, an isochrone request may reach out to. */
+    public static final double MAX_ISOCHRONE_MILES = 10;
+
+    /**
+     * Number of landmarks whose distance tables sharpen the A* heuristic; 0 disables them.
+     * They are only built when USE_CONTRACTION_HIERARCHY is false, since routes are
+     * otherwise answered from the hierarchy and never run A*.
+     */
+    public static final int NUM_LANDMARKS = 8;
+
+    /** Whether to precompute a contraction hierarchy and answer routes from it. */
+    public static final boolean USE_CONTRACTION_HIERARCHY = true;
+
     public static AugmentedStreetMapGraph SEMANTIC_STREET_GRAPH;
 
+    /** Most routes kept at once, and how long an unused route is kept. */
+    public static final int MAX_ROUTES = 10000;
+    public static final long ROUTE_TTL_MILLIS = 30 * 60 * 1000;
+
     /**
-     * This is used to maintain a single List of route so that the same instance(object) is accessed
-     * from everywhere in the code. Enum is a cleaner way to achieve such a singleton pattern.
+     * The route of every client, by route id. Route requests store the route they find here
+     * and answer with its id; raster requests that pass the id back get the route drawn.
      */
-    public static final List<Long> ROUTE_LIST = new LinkedList<>();
+    public static final RouteStore ROUTE_STORE = new RouteStore(MAX_ROUTES, ROUTE_TTL_MILLIS);
 }
@@ -0,0 +1,57 @@
+package bearmaps.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes rasters as PNG with the JDK's ImageIO writer, optionally at an explicit
+ * compression level instead of the writer's default.
+ */
+public class ImageIORasterEncoder implements RasterEncoder {
+
+    /* Deflate level from 0 (store) to 9 (smallest), or -1 for the writer's default. */
+    private final int level;
+
+    /** Creates an encoder that uses ImageIO's default settings. */
+    public ImageIORasterEncoder() {
+        this(-1);
+    }
+
+    /** Creates an encoder that deflates at LEVEL, from 0 (fastest) to 9 (smallest). */
+    public ImageIORasterEncoder(int level) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Deflate level must be -1 or 0 through 9.");
+        }
+        this.level = level;
+    }
+
+    @Override
+    public void encode(BufferedImage img, OutputStream os) throws IOException {
+        if (level < 0) {
+            ImageIO.write(img, "png", os);
+            return;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            /* The writer deflates at level 9 - 9 * quality. */
+            param.setCompressionQuality(1.0f - level / 9.0f);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImageIO PNG, " + (level < 0 ? "default level" : "level " + level);
+    }
+}
@@ -0,0 +1,242 @@
+package bearmaps.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder built on java.util.zip alone, with the deflate level and the PNG row filter
+ * chosen by the caller.
+ *
+ * Images are written as 8-bit truecolor, with an alpha channel only if the image has one.
+ * Rows are filtered and deflated as they are read, and the compressed stream is cut into
+ * IDAT chunks as it fills, so an image is never held in memory a second time. TYPE_INT_RGB
+ * and TYPE_INT_ARGB images, which is what RasterAPIHandler composites into, are read
+ * straight from their pixel data.
+ */
+public class PngEncoder implements RasterEncoder {
+
+    /** The PNG row filter to apply. */
+    public enum Filter {
+        NONE(0), SUB(1), UP(2), AVERAGE(3), PAETH(4),
+        /** Picks, for each row, whichever filter leaves the smallest sum of absolute
+         *  differences: the heuristic the PNG specification recommends. */
+        ADAPTIVE(-1);
+
+        private final int type;
+
+        Filter(int type) {
+            this.type = type;
+        }
+    }
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /** Largest IDAT chunk written. */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final int level;
+    private final Filter filter;
+
+    /** Creates an encoder that deflates at LEVEL, from 0 (fastest) to 9 (smallest), after
+     *  filtering rows with FILTER. */
+    public PngEncoder(int level, Filter filter) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Deflate level must be 0 through 9.");
+        }
+        this.level = level;
+        this.filter = filter;
+    }
+
+    @Override
+    public void encode(BufferedImage img, OutputStream os) throws IOException {
+        int width = img.getWidth(), height = img.getHeight();
+        boolean alpha = img.getColorModel().hasAlpha();
+        int bpp = alpha ? 4 : 3;
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(width);
+        h.writeInt(height);
+        h.writeByte(8);
+        h.writeByte(alpha ? 6 : 2);
+        h.writeByte(0);
+        h.writeByte(0);
+        h.writeByte(0);
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+
+        Deflater deflater = new Deflater(level);
+        try {
+            IdatOutputStream idat = new IdatOutputStream(out);
+            DeflaterOutputStream zip = new DeflaterOutputStream(idat, deflater, CHUNK_SIZE);
+            int rowBytes = width * bpp;
+            byte[] prev = new byte[rowBytes];
+            byte[] cur = new byte[rowBytes];
+            int[] pixels = new int[width];
+            /* One row per filter type, each with its filter type byte in front. */
+            byte[][] filtered = new byte[5][rowBytes + 1];
+            for (int y = 0; y < height; y++) {
+                readRow(img, y, pixels, cur, alpha);
+                byte[] row = filterRow(cur, prev, bpp, filtered);
+                zip.write(row, 0, row.length);
+                byte[] tmp = prev;
+                prev = cur;
+                cur = tmp;
+            }
+            zip.finish();
+            idat.flushChunk();
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    /* Reads row Y of IMG into ROW as RGB or RGBA bytes, using PIXELS as scratch. */
+    private static void readRow(BufferedImage img, int y, int[] pixels, byte[] row,
+                                boolean alpha) {
+        int type = img.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            img.getRaster().getDataElements(0, y, pixels.length, 1, pixels);
+        } else {
+            img.getRGB(0, y, pixels.length, 1, pixels, 0, pixels.length);
+        }
+        int i = 0;
+        for (int argb : pixels) {
+            row[i++] = (byte) (argb >>> 16);
+            row[i++] = (byte) (argb >>> 8);
+            row[i++] = (byte) argb;
+            if (alpha) {
+                row[i++] = (byte) (argb >>> 24);
+            }
+        }
+    }
+
+    /* Returns CUR filtered against PREV, with its filter type byte in front, written into
+       one of the rows of FILTERED. */
+    private byte[] filterRow(byte[] cur, byte[] prev, int bpp, byte[][] filtered) {
+        if (filter != Filter.ADAPTIVE) {
+            applyFilter(filter.type, cur, prev, bpp, filtered[filter.type]);
+            return filtered[filter.type];
+        }
+        int best = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < 5; type++) {
+            long sum = applyFilter(type, cur, prev, bpp, filtered[type]);
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = type;
+            }
+        }
+        return filtered[best];
+    }
+
+    /* Writes CUR filtered with TYPE into OUT, and returns the sum of the absolute values of
+       the filtered bytes read as signed. */
+    private static long applyFilter(int type, byte[] cur, byte[] prev, int bpp, byte[] out) {
+        out[0] = (byte) type;
+        long sum = 0;
+        for (int i = 0; i < cur.length; i++) {
+            int x = cur[i] & 0xFF;
+            int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+            int predicted;
+            switch (type) {
+                case 0:
+                    predicted = 0;
+                    break;
+                case 1:
+                    predicted = a;
+                    break;
+                case 2:
+                    predicted = b;
+                    break;
+                case 3:
+                    predicted = (a + b) >>> 1;
+                    break;
+                default:
+                    predicted = paeth(a, b, c);
+                    break;
+            }
+            byte d = (byte) (x - predicted);
+            out[i + 1] = d;
+            sum += Math.abs(d);
+        }
+        return sum;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /* Collects compressed bytes and writes them out as IDAT chunks of up to CHUNK_SIZE. */
+    private static class IdatOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size = 0;
+
+        IdatOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) {
+                flushChunk();
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (size > 0) {
+                writeChunk(out, "IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PngEncoder, level " + level + ", " + filter + " filter";
+    }
+}
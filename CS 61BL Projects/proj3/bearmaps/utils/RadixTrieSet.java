@@ -0,0 +1,484 @@
+package bearmaps.utils;
+
+import bearmaps.utils.graph.Deadline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A radix (Patricia) trie: a trie in which every chain of nodes with one child each is
+ * merged into a single node, so that each edge carries a whole run of characters.
+ *
+ * Each node keeps its children in two parallel arrays sorted by first character, searched
+ * by binary search, in place of MyTrieSet's HashMap of boxed Characters per character of
+ * every key. The number of nodes is at most twice the number of keys, whatever their
+ * length. keysWithPrefix returns keys in sorted order, built in a single StringBuilder.
+ *
+ * Keys may also carry a score, such as how many places share a name. Every node records
+ * the best score in its subtree, so keysWithPrefix(prefix, k) can search best first for
+ * the K best keys under a prefix and stop as soon as it has them, however many keys the
+ * prefix matches.
+ *
+ * keysNear finds the keys within a few typing errors of a query, for searches that should
+ * forgive misspellings.
+ */
+public class RadixTrieSet implements TrieSet61BL {
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private static class Node {
+        /* The characters on the edge into this node; empty only at the root. */
+        private String label;
+        private boolean isKey;
+        /* The score of this node's key, and the best score of any key in its subtree. */
+        private double score;
+        private double best = Double.NEGATIVE_INFINITY;
+        /* firsts[i] is the first character of children[i].label, in increasing order;
+           only the first size slots are in use. */
+        private char[] firsts = NO_CHARS;
+        private Node[] children = NO_NODES;
+        private int size = 0;
+
+        Node(String label, boolean isKey) {
+            this.label = label;
+            this.isKey = isKey;
+        }
+
+        /* Returns the slot of the child starting with C, or -(insertion slot) - 1. */
+        int find(char c) {
+            int lo = 0, hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (firsts[mid] < c) {
+                    lo = mid + 1;
+                } else if (firsts[mid] > c) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -lo - 1;
+        }
+
+        void insert(int slot, Node child) {
+            if (size == children.length) {
+                int capacity = Math.max(2, size * 2);
+                firsts = Arrays.copyOf(firsts, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(firsts, slot, firsts, slot + 1, size - slot);
+            System.arraycopy(children, slot, children, slot + 1, size - slot);
+            firsts[slot] = child.label.charAt(0);
+            children[slot] = child;
+            size++;
+        }
+    }
+
+    private Node root = new Node("", false);
+    private int numKeys = 0;
+
+    @Override
+    public void clear() {
+        root = new Node("", false);
+        numKeys = 0;
+    }
+
+    /** Returns the number of keys. */
+    public int size() {
+        return numKeys;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Node cur = root;
+        int i = 0;
+        while (i < key.length()) {
+            int slot = cur.find(key.charAt(i));
+            if (slot < 0) {
+                return false;
+            }
+            Node child = cur.children[slot];
+            if (!key.startsWith(child.label, i)) {
+                return false;
+            }
+            i += child.label.length();
+            cur = child;
+        }
+        return cur.isKey;
+    }
+
+    /** Adds KEY with a score of 0, leaving its score alone if it is already here. */
+    @Override
+    public void add(String key) {
+        add(key, 0);
+    }
+
+    /**
+     * Adds KEY with score SCORE, or raises its score to SCORE if it is already here with a
+     * lower one.
+     */
+    public void add(String key, double score) {
+        Node cur = root;
+        raiseBest(cur, score);
+        int i = 0;
+        while (i < key.length()) {
+            int slot = cur.find(key.charAt(i));
+            if (slot < 0) {
+                Node leaf = new Node(key.substring(i), true);
+                leaf.score = score;
+                leaf.best = score;
+                cur.insert(-slot - 1, leaf);
+                numKeys++;
+                return;
+            }
+            Node child = cur.children[slot];
+            int common = commonPrefixLength(child.label, key, i);
+            if (common < child.label.length()) {
+                /* KEY leaves the edge part way along: split it where it does. */
+                Node split = new Node(child.label.substring(0, common), false);
+                child.label = child.label.substring(common);
+                split.best = child.best;
+                split.insert(0, child);
+                cur.children[slot] = split;
+                child = split;
+            }
+            i += common;
+            cur = child;
+            raiseBest(cur, score);
+        }
+        if (!cur.isKey) {
+            cur.isKey = true;
+            cur.score = score;
+            numKeys++;
+        } else {
+            cur.score = Math.max(cur.score, score);
+        }
+    }
+
+    private static void raiseBest(Node node, double score) {
+        node.best = Math.max(node.best, score);
+    }
+
+    /** Returns the score of KEY, or NaN if it is not in the set. */
+    public double score(String key) {
+        Node cur = root;
+        int i = 0;
+        while (i < key.length()) {
+            int slot = cur.find(key.charAt(i));
+            if (slot < 0) {
+                return Double.NaN;
+            }
+            Node child = cur.children[slot];
+            if (!key.startsWith(child.label, i)) {
+                return Double.NaN;
+            }
+            i += child.label.length();
+            cur = child;
+        }
+        return cur.isKey ? cur.score : Double.NaN;
+    }
+
+    /* Returns the length of the longest common prefix of LABEL and KEY from index START. */
+    private static int commonPrefixLength(String label, String key, int start) {
+        int n = Math.min(label.length(), key.length() - start);
+        int i = 0;
+        while (i < n && label.charAt(i) == key.charAt(start + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public List<String> keysWithPrefix(String prefix) {
+        List<String> result = new ArrayList<>();
+        StringBuilder path = new StringBuilder(prefix);
+        Node node = locatePrefix(prefix, path);
+        if (node != null) {
+            collect(node, path, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the K keys that start with PREFIX with the highest scores, best first, with
+     * ties in sorted order. Visits only the subtrees that could hold one of them.
+     */
+    public List<String> keysWithPrefix(String prefix, int k) {
+        List<String> result = new ArrayList<>();
+        StringBuilder path = new StringBuilder(prefix);
+        Node start = locatePrefix(prefix, path);
+        if (start == null || k <= 0) {
+            return result;
+        }
+        /* Subtrees waiting to be opened, ranked by the best score in them, and keys already
+           found, ranked by their own. No entry can outrank the one at the head, so a key
+           that reaches the head is one of the best left. */
+        PriorityQueue<Entry> queue = new PriorityQueue<>();
+        queue.add(new Entry(start, path.toString(), start.best, false));
+        while (!queue.isEmpty() && result.size() < k) {
+            Entry entry = queue.poll();
+            if (entry.isKey) {
+                result.add(entry.path);
+                continue;
+            }
+            Node node = entry.node;
+            if (node.isKey) {
+                queue.add(new Entry(null, entry.path, node.score, true));
+            }
+            for (int i = 0; i < node.size; i++) {
+                Node child = node.children[i];
+                queue.add(new Entry(child, entry.path + child.label, child.best, false));
+            }
+        }
+        return result;
+    }
+
+    /* A subtree or a key waiting in the queue of keysWithPrefix(prefix, k). */
+    private static class Entry implements Comparable<Entry> {
+        private final Node node;
+        private final String path;
+        private final double priority;
+        private final boolean isKey;
+
+        Entry(Node node, String path, double priority, boolean isKey) {
+            this.node = node;
+            this.path = path;
+            this.priority = priority;
+            this.isKey = isKey;
+        }
+
+        /* Higher priorities first, then in sorted order of path. A subtree's keys all sort
+           at or after its path, so a tied subtree that could hold a key sorting before a
+           tied key is opened before that key is returned. */
+        @Override
+        public int compareTo(Entry other) {
+            int c = Double.compare(other.priority, priority);
+            return c != 0 ? c : path.compareTo(other.path);
+        }
+    }
+
+    /**
+     * Returns up to K keys within MAXEDITS edits (insertions, deletions and substitutions
+     * of one character) of QUERY, nearest first, then best scored, then in sorted order.
+     * If PREFIX, a key is as near as the nearest of its prefixes, as suits a query that is
+     * still being typed. Gives up once DEADLINE passes, returning the best keys found so far.
+     *
+     * The search walks the trie keeping one row of the edit distance table per character of
+     * the path, and leaves a subtree as soon as no key in it can be near enough, or once K
+     * keys have been found, good enough to beat what it holds.
+     */
+    public List<String> keysNear(String query, int maxEdits, boolean prefix, int k,
+                                 Deadline deadline) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        FuzzySearch search = new FuzzySearch(query, maxEdits, prefix, k, deadline);
+        for (int j = 0; j <= query.length(); j++) {
+            search.rows[0][j] = j;
+        }
+        search.visit(root, 0, prefix ? query.length() : Integer.MAX_VALUE);
+        return search.results();
+    }
+
+    /* The state of one keysNear query. */
+    private static class FuzzySearch {
+        private final String query;
+        private final int maxEdits;
+        private final boolean prefix;
+        private final int k;
+        private final Deadline deadline;
+        /* rows[d][j] is the edit distance between the first d characters of path and the
+           first j characters of query. */
+        private int[][] rows;
+        private final StringBuilder path = new StringBuilder();
+        /* The K best keys found so far, worst at the head. */
+        private final PriorityQueue<Match> found = new PriorityQueue<>(
+                (a, b) -> b.compareTo(a));
+        private int visited = 0;
+
+        FuzzySearch(String query, int maxEdits, boolean prefix, int k, Deadline deadline) {
+            this.query = query;
+            this.maxEdits = maxEdits;
+            this.prefix = prefix;
+            this.k = k;
+            this.deadline = deadline;
+            rows = new int[16][query.length() + 1];
+        }
+
+        /* Visits NODE, whose path is DEPTH characters long. PREFIXDISTANCE is the least
+           edit distance between QUERY and a prefix of the path, in prefix searches. */
+        void visit(Node node, int depth, int prefixDistance) {
+            if (deadline.shouldStop(visited++)) {
+                return;
+            }
+            if (node.isKey) {
+                int distance = prefix ? prefixDistance : rows[depth][query.length()];
+                if (distance <= maxEdits) {
+                    offer(new Match(path.toString(), distance, node.score));
+                }
+            }
+            int length = path.length();
+            for (int i = 0; i < node.size && !deadline.stopped(); i++) {
+                Node child = node.children[i];
+                int d = depth;
+                int childPrefixDistance = prefixDistance;
+                int bound = 0;
+                for (int c = 0; c < child.label.length(); c++) {
+                    int rowMin = step(d, child.label.charAt(c));
+                    d++;
+                    childPrefixDistance = Math.min(childPrefixDistance, rows[d][query.length()]);
+                    bound = prefix ? Math.min(childPrefixDistance, rowMin) : rowMin;
+                    if (bound > maxEdits) {
+                        break;
+                    }
+                }
+                if (bound > maxEdits || !couldImprove(bound, child.best)) {
+                    continue;
+                }
+                path.append(child.label);
+                visit(child, d, childPrefixDistance);
+                path.setLength(length);
+            }
+        }
+
+        /* Fills row D + 1 for the path extended by C, and returns its least entry. */
+        private int step(int d, char c) {
+            if (d + 1 == rows.length) {
+                rows = Arrays.copyOf(rows, rows.length * 2);
+                for (int i = d + 1; i < rows.length; i++) {
+                    rows[i] = new int[query.length() + 1];
+                }
+            }
+            int[] prev = rows[d];
+            int[] next = rows[d + 1];
+            next[0] = prev[0] + 1;
+            int min = next[0];
+            for (int j = 1; j < next.length; j++) {
+                int cost = query.charAt(j - 1) == c ? 0 : 1;
+                next[j] = Math.min(Math.min(next[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                min = Math.min(min, next[j]);
+            }
+            return min;
+        }
+
+        /* Returns whether a key at DISTANCE with a score up to BEST could displace the worst
+           key kept. */
+        private boolean couldImprove(int distance, double best) {
+            if (found.size() < k) {
+                return true;
+            }
+            Match worst = found.peek();
+            return distance < worst.distance
+                    || (distance == worst.distance && best >= worst.score);
+        }
+
+        private void offer(Match match) {
+            if (found.size() < k) {
+                found.add(match);
+            } else if (match.compareTo(found.peek()) < 0) {
+                found.poll();
+                found.add(match);
+            }
+        }
+
+        List<String> results() {
+            List<Match> sorted = new ArrayList<>(found);
+            sorted.sort(null);
+            List<String> keys = new ArrayList<>(sorted.size());
+            for (Match match : sorted) {
+                keys.add(match.key);
+            }
+            return keys;
+        }
+    }
+
+    /* A key found by keysNear; nearer, then better scored, then sorted first. */
+    private static class Match implements Comparable<Match> {
+        private final String key;
+        private final int distance;
+        private final double score;
+
+        Match(String key, int distance, double score) {
+            this.key = key;
+            this.distance = distance;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            if (distance != other.distance) {
+                return Integer.compare(distance, other.distance);
+            }
+            int c = Double.compare(other.score, score);
+            return c != 0 ? c : key.compareTo(other.key);
+        }
+    }
+
+    /**
+     * Returns the highest node whose keys all start with PREFIX, or null if no key does,
+     * leaving in PATH the string spelled out from the root to that node.
+     */
+    private Node locatePrefix(String prefix, StringBuilder path) {
+        Node cur = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            int slot = cur.find(prefix.charAt(i));
+            if (slot < 0) {
+                return null;
+            }
+            Node child = cur.children[slot];
+            int n = Math.min(child.label.length(), prefix.length() - i);
+            if (!child.label.regionMatches(0, prefix, i, n)) {
+                return null;
+            }
+            if (n < child.label.length()) {
+                /* PREFIX ends part way along the edge into CHILD. */
+                path.append(child.label, n, child.label.length());
+            }
+            i += n;
+            cur = child;
+        }
+        return cur;
+    }
+
+    /* Adds every key at or below NODE to RESULT in sorted order; PATH spells out NODE. */
+    private static void collect(Node node, StringBuilder path, List<String> result) {
+        if (node.isKey) {
+            result.add(path.toString());
+        }
+        int length = path.length();
+        for (int i = 0; i < node.size; i++) {
+            Node child = node.children[i];
+            path.append(child.label);
+            collect(child, path, result);
+            path.setLength(length);
+        }
+    }
+
+    /**
+     * Returns the longest prefix of KEY that is also a prefix of some key in the set, as
+     * MyTrieSet does.
+     */
+    @Override
+    public String longestPrefixOf(String key) {
+        Node cur = root;
+        int i = 0;
+        while (i < key.length()) {
+            int slot = cur.find(key.charAt(i));
+            if (slot < 0) {
+                break;
+            }
+            Node child = cur.children[slot];
+            int common = commonPrefixLength(child.label, key, i);
+            i += common;
+            if (common < child.label.length()) {
+                break;
+            }
+            cur = child;
+        }
+        return key.substring(0, i);
+    }
+}
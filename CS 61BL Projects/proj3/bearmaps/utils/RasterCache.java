@@ -0,0 +1,154 @@
+package bearmaps.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory cache of fully encoded rasters, so that a repeated viewport is
+ * answered without compositing or encoding anything.
+ *
+ * A raster is determined by the tiles it covers and the route drawn over them, so entries
+ * are keyed by the first and last tile of the render grid (which give the depth and the
+ * tile range) and the stamp of the route (see RouteStore.Route.stamp). A stored route never
+ * changes, so once a client replaces or clears its route, rasters drawn with the old one are
+ * unreachable and age out in LRU order. The cache is sized in encoded bytes, and a raster
+ * larger than the whole cache is not kept.
+ */
+public class RasterCache {
+
+    /** An encoded raster, the MIME type of its encoding and its size in pixels. */
+    public static class Raster {
+        private final byte[] bytes;
+        private final String contentType;
+        private final int width;
+        private final int height;
+
+        public Raster(byte[] bytes, String contentType, int width, int height) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+            this.width = width;
+            this.height = height;
+        }
+
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public int width() {
+            return width;
+        }
+
+        public int height() {
+            return height;
+        }
+    }
+
+    private final long capacityBytes;
+
+    /* Rasters in least- to most-recently used order, and the bytes they hold. Guarded by
+       this. */
+    private final LinkedHashMap<String, Raster> rasters = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public RasterCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /** Returns the key of the raster over RENDERGRID with the route stamped ROUTESTAMP drawn
+     *  on it. */
+    public static String key(String[][] renderGrid, long routeStamp) {
+        String[] lastRow = renderGrid[renderGrid.length - 1];
+        return renderGrid[0][0] + ":" + lastRow[lastRow.length - 1] + "@" + routeStamp;
+    }
+
+    /** Returns the raster cached under KEY, or null if there is none. */
+    public Raster get(String key) {
+        Raster raster;
+        synchronized (this) {
+            raster = rasters.get(key);
+        }
+        if (raster == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return raster;
+    }
+
+    /** Caches RASTER under KEY, evicting the least recently used rasters to make room. */
+    public synchronized void put(String key, Raster raster) {
+        if (raster.bytes.length > capacityBytes) {
+            return;
+        }
+        Raster old = rasters.put(key, raster);
+        if (old != null) {
+            sizeBytes -= old.bytes.length;
+        }
+        sizeBytes += raster.bytes.length;
+        Iterator<Raster> eldest = rasters.values().iterator();
+        while (sizeBytes > capacityBytes) {
+            sizeBytes -= eldest.next().bytes.length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** Drops every cached raster. The counters are left alone. */
+    public synchronized void clear() {
+        rasters.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized int size() {
+        return rasters.size();
+    }
+
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the cache's counters as a map for the front end: <br>
+     * "rasters", "size_bytes", "capacity_bytes" : the current contents. <br>
+     * "hits", "misses", "hit_rate" : lookups that did and did not find the raster cached. <br>
+     * "evictions" : rasters dropped to stay under capacity. <br>
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("rasters", rasters.size());
+            stats.put("size_bytes", sizeBytes);
+        }
+        long numHits = hits.get(), numMisses = misses.get();
+        stats.put("capacity_bytes", capacityBytes);
+        stats.put("hits", numHits);
+        stats.put("misses", numMisses);
+        stats.put("hit_rate", numHits + numMisses == 0 ? 0.0
+                : (double) numHits / (numHits + numMisses));
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+}
@@ -0,0 +1,21 @@
+package bearmaps.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a rastered image for the response. Encoding is most of the work of a raster
+ * request, so each deployment chooses the trade-off between encode time and bytes sent
+ * (see Constants.RASTER_ENCODER).
+ */
+public interface RasterEncoder {
+
+    /** Writes IMG to OS in this encoder's format. OS is left open. */
+    void encode(BufferedImage img, OutputStream os) throws IOException;
+
+    /** Returns the MIME type of the encoded images. */
+    default String contentType() {
+        return "image/png";
+    }
+}
@@ -0,0 +1,196 @@
+package bearmaps.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the route each client has asked for, under a route id the client passes back with
+ * its later requests, so that clients never see or disturb each other's routes.
+ *
+ * Stored routes are immutable, so readers share them without locking. Each stored route
+ * also gets a stamp that no other stored route has had, which is what rasters drawn with
+ * it are cached under. Routes expire once unused for the time to live, and when the store
+ * is full the least recently used routes make room for new ones. A client can only
+ * replace a route under an id the store handed out and still holds. Lookups take no lock;
+ * adds sweep out expired routes every so often, and evict in batches once the store is
+ * full, so the cost of a sweep is spread over the adds between sweeps.
+ *
+ * Route ids are random positive longs below 2^53, so they survive being passed around as
+ * request parameters parsed into doubles and as JavaScript numbers.
+ */
+public class RouteStore {
+
+    /** A stored route: its vertices in order, and its stamp. */
+    public static class Route {
+        private final List<Long> vertices;
+        private final long stamp;
+
+        private Route(List<Long> vertices, long stamp) {
+            this.vertices = vertices;
+            this.stamp = stamp;
+        }
+
+        public List<Long> vertices() {
+            return vertices;
+        }
+
+        /** Returns a number that identifies this route among all routes ever stored. */
+        public long stamp() {
+            return stamp;
+        }
+    }
+
+    /** The stamp of no route at all. */
+    public static final long NO_ROUTE = 0;
+
+    private static final long MAX_ID = 1L << 53;
+
+    private static class Entry {
+        private final Route route;
+        private volatile long lastUsed;
+
+        Entry(Route route, long now) {
+            this.route = route;
+            this.lastUsed = now;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Entry> routes = new ConcurrentHashMap<>();
+    private final AtomicLong stamps = new AtomicLong(NO_ROUTE);
+    private final int maxRoutes;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    /* Adds between sweeps for expired routes, and the routes a sweep of a full store
+       leaves room for, so that each sweep's pass over the store is paid for by that many
+       adds. */
+    private final int sweepInterval;
+    private final AtomicLong adds = new AtomicLong();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /** Creates a store of up to MAXROUTES routes that each expire after TTLMILLIS unused. */
+    public RouteStore(int maxRoutes, long ttlMillis) {
+        this(maxRoutes, ttlMillis, System::currentTimeMillis);
+    }
+
+    /** Creates a store like the one above that tells the time in milliseconds with CLOCK. */
+    public RouteStore(int maxRoutes, long ttlMillis, LongSupplier clock) {
+        this.maxRoutes = maxRoutes;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.sweepInterval = Math.max(1, maxRoutes / 8);
+    }
+
+    /** Returns whether ID, as parsed from a request, could be a route id at all. */
+    public static boolean isRouteId(double id) {
+        return id == Math.rint(id) && id >= 1 && id < MAX_ID;
+    }
+
+    /** Stores VERTICES under a new route id, and returns the id. */
+    public long add(List<Long> vertices) {
+        long now = clock.getAsLong();
+        Entry entry = new Entry(newRoute(vertices), now);
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong(1, MAX_ID);
+        } while (routes.putIfAbsent(id, entry) != null);
+        if (adds.incrementAndGet() % sweepInterval == 0 || routes.size() > maxRoutes) {
+            sweep(now);
+        }
+        return id;
+    }
+
+    /**
+     * Stores VERTICES in place of the route under ID, if this store handed ID out and the
+     * route has not expired or been removed since. Returns whether it did.
+     */
+    public boolean replace(long id, List<Long> vertices) {
+        Route route = newRoute(vertices);
+        long now = clock.getAsLong();
+        Entry entry = routes.get(id);
+        while (entry != null) {
+            if (now - entry.lastUsed > ttlMillis) {
+                routes.remove(id, entry);
+                return false;
+            }
+            if (routes.replace(id, entry, new Entry(route, now))) {
+                return true;
+            }
+            entry = routes.get(id);
+        }
+        return false;
+    }
+
+    /** Returns the route stored under ID, or null if there is none or it has expired. */
+    public Route get(long id) {
+        Entry entry = routes.get(id);
+        if (entry == null) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (now - entry.lastUsed > ttlMillis) {
+            routes.remove(id, entry);
+            return null;
+        }
+        entry.lastUsed = now;
+        return entry.route;
+    }
+
+    /** Forgets the route stored under ID, if any. */
+    public void remove(long id) {
+        routes.remove(id);
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    private Route newRoute(List<Long> vertices) {
+        return new Route(Collections.unmodifiableList(new ArrayList<>(vertices)),
+                stamps.incrementAndGet());
+    }
+
+    /* Drops the expired routes and, if the store is over capacity, the least recently used
+       until sweepInterval adds fit again. One thread sweeps at a time; an add that finds a
+       sweep under way leaves it to that one, so the store may briefly overshoot its
+       capacity. Lookups never wait for a sweep. */
+    private void sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            routes.values().removeIf(entry -> now - entry.lastUsed > ttlMillis);
+            if (routes.size() <= maxRoutes) {
+                return;
+            }
+            int excess = routes.size() - (maxRoutes - sweepInterval + 1);
+            long[] lastUsed = new long[routes.size()];
+            int n = 0;
+            for (Entry entry : routes.values()) {
+                if (n == lastUsed.length) {
+                    break;
+                }
+                lastUsed[n] = entry.lastUsed;
+                n++;
+            }
+            Arrays.sort(lastUsed, 0, n);
+            long cutoff = lastUsed[Math.min(excess, n) - 1];
+            Iterator<Entry> entries = routes.values().iterator();
+            while (excess > 0 && entries.hasNext()) {
+                if (entries.next().lastUsed <= cutoff) {
+                    entries.remove();
+                    excess--;
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+}
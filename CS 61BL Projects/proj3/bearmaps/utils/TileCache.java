@@ -0,0 +1,280 @@
+package bearmaps.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory cache of decoded map tiles, keyed by tile file name
+ * (e.g. "d3_x2_y5.png").
+ *
+ * The cache is sized in bytes of decoded pixel data and evicts the least recently used
+ * tiles once it is over capacity. When several requests miss on the same tile at once,
+ * only the first decodes it; the others wait for that load instead of starting their own.
+ * Tiles that fail to load are not cached. Hit, miss, eviction and load counters are kept
+ * for sizing the cache against real traffic.
+ *
+ * getAll fetches a whole grid of tiles at once, decoding the missing ones on a pool of
+ * threads shared by every request, so that the number of decodes running at once stays
+ * bounded however many requests are waiting on them.
+ */
+public class TileCache {
+
+    /** Loads the tile with a given file name. */
+    @FunctionalInterface
+    public interface TileLoader {
+        BufferedImage load(String name) throws IOException;
+    }
+
+    private final long capacityBytes;
+    private final TileLoader loader;
+
+    /* Decodes missing tiles for getAll; null if they are decoded on the calling thread. */
+    private final ExecutorService decoders;
+
+    /* Tiles in least- to most-recently used order, and the bytes they hold. Guarded by
+       this. */
+    private final LinkedHashMap<String, BufferedImage> tiles = new LinkedHashMap<>(16, 0.75f,
+            true);
+    private long sizeBytes = 0;
+
+    /* Loads in progress, so that concurrent misses on one tile share a single load. */
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> loading =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong sharedLoads = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Creates a cache of CAPACITYBYTES that reads tiles from the directory IMGROOT, decoding
+     *  up to PARALLELISM of them at once. */
+    public TileCache(String imgRoot, long capacityBytes, int parallelism) {
+        this(capacityBytes, name -> ImageIO.read(new File(imgRoot + name)), parallelism);
+    }
+
+    /** Creates a cache of CAPACITYBYTES that gets tiles from LOADER on the calling thread. */
+    public TileCache(long capacityBytes, TileLoader loader) {
+        this(capacityBytes, loader, 1);
+    }
+
+    /** Creates a cache of CAPACITYBYTES that gets tiles from LOADER, running up to
+     *  PARALLELISM loads at once for getAll. */
+    public TileCache(long capacityBytes, TileLoader loader, int parallelism) {
+        this.capacityBytes = capacityBytes;
+        this.loader = loader;
+        if (parallelism > 1) {
+            decoders = Executors.newFixedThreadPool(parallelism, r -> {
+                Thread t = new Thread(r, "tile-decoder");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            decoders = null;
+        }
+    }
+
+    /**
+     * Returns the tile NAME, loading it if it is not cached. Returns null if the tile
+     * could not be loaded.
+     */
+    public BufferedImage get(String name) {
+        BufferedImage cachedTile = cached(name);
+        if (cachedTile != null) {
+            return cachedTile;
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<BufferedImage> mine = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> existing = loading.putIfAbsent(name, mine);
+        if (existing != null) {
+            sharedLoads.incrementAndGet();
+            return existing.join();
+        }
+
+        BufferedImage tile = null;
+        try {
+            /* Another load may have published the tile and retired itself between our
+               lookup and our claim on the load. */
+            synchronized (this) {
+                tile = tiles.get(name);
+            }
+            if (tile != null) {
+                sharedLoads.incrementAndGet();
+                return tile;
+            }
+            tile = load(name);
+            if (tile != null) {
+                put(name, tile);
+            }
+        } finally {
+            /* Publish to the cache before retiring the load, so no one loads it twice. */
+            loading.remove(name);
+            mine.complete(tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Returns the tiles named in NAMES, in the same layout, with null for any tile that
+     * could not be loaded. Cached tiles are looked up directly; the rest are loaded in
+     * parallel.
+     */
+    public BufferedImage[][] getAll(String[][] names) {
+        BufferedImage[][] result = new BufferedImage[names.length][];
+        CompletableFuture<?>[][] pending = new CompletableFuture<?>[names.length][];
+        for (int r = 0; r < names.length; r++) {
+            result[r] = new BufferedImage[names[r].length];
+            pending[r] = new CompletableFuture<?>[names[r].length];
+            for (int c = 0; c < names[r].length; c++) {
+                String name = names[r][c];
+                if (decoders == null) {
+                    result[r][c] = get(name);
+                    continue;
+                }
+                result[r][c] = cached(name);
+                if (result[r][c] == null) {
+                    pending[r][c] = CompletableFuture.supplyAsync(() -> get(name), decoders);
+                }
+            }
+        }
+        for (int r = 0; r < names.length; r++) {
+            for (int c = 0; c < names[r].length; c++) {
+                if (pending[r][c] != null) {
+                    result[r][c] = (BufferedImage) pending[r][c].join();
+                }
+            }
+        }
+        return result;
+    }
+
+    /* Returns the tile NAME if it is cached, counting the hit, and null otherwise. */
+    private BufferedImage cached(String name) {
+        BufferedImage tile;
+        synchronized (this) {
+            tile = tiles.get(name);
+        }
+        if (tile != null) {
+            hits.incrementAndGet();
+        }
+        return tile;
+    }
+
+    private BufferedImage load(String name) {
+        long start = System.nanoTime();
+        loads.incrementAndGet();
+        try {
+            BufferedImage tile = loader.load(name);
+            if (tile == null) {
+                loadFailures.incrementAndGet();
+            }
+            return tile;
+        } catch (IOException | RuntimeException e) {
+            loadFailures.incrementAndGet();
+            e.printStackTrace();
+            return null;
+        } finally {
+            loadNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private synchronized void put(String name, BufferedImage tile) {
+        BufferedImage old = tiles.put(name, tile);
+        if (old != null) {
+            sizeBytes -= sizeOf(old);
+        }
+        sizeBytes += sizeOf(tile);
+        Iterator<Map.Entry<String, BufferedImage>> eldest = tiles.entrySet().iterator();
+        while (sizeBytes > capacityBytes && eldest.hasNext()) {
+            Map.Entry<String, BufferedImage> entry = eldest.next();
+            if (entry.getKey().equals(name)) {
+                /* Never evict the tile that was just added, even if it alone is too big. */
+                continue;
+            }
+            sizeBytes -= sizeOf(entry.getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** Returns the approximate number of bytes of pixel data in TILE. */
+    static long sizeOf(BufferedImage tile) {
+        int bitsPerPixel = tile.getColorModel().getPixelSize();
+        return (long) tile.getWidth() * tile.getHeight() * Math.max(1, (bitsPerPixel + 7) / 8);
+    }
+
+    /** Drops every cached tile. The counters are left alone. */
+    public synchronized void clear() {
+        tiles.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public long loads() {
+        return loads.get();
+    }
+
+    /**
+     * Returns the cache's counters as a map for the front end: <br>
+     * "tiles", "size_bytes", "capacity_bytes" : the current contents. <br>
+     * "hits", "misses", "hit_rate" : lookups that did and did not find the tile cached. <br>
+     * "shared_loads" : misses that waited for another request's load of the same tile. <br>
+     * "loads", "load_failures", "avg_load_ms" : tiles actually read and decoded. <br>
+     * "evictions" : tiles dropped to stay under capacity. <br>
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("tiles", tiles.size());
+            stats.put("size_bytes", sizeBytes);
+        }
+        long numHits = hits.get(), numMisses = misses.get(), numLoads = loads.get();
+        stats.put("capacity_bytes", capacityBytes);
+        stats.put("hits", numHits);
+        stats.put("misses", numMisses);
+        stats.put("hit_rate", numHits + numMisses == 0 ? 0.0
+                : (double) numHits / (numHits + numMisses));
+        stats.put("shared_loads", sharedLoads.get());
+        stats.put("loads", numLoads);
+        stats.put("load_failures", loadFailures.get());
+        stats.put("avg_load_ms", numLoads == 0 ? 0.0 : loadNanos.get() / 1e6 / numLoads);
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+}
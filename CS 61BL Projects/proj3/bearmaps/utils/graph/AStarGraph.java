@@ -9,4 +9,15 @@ import java.util.List;
 public interface AStarGraph<Vertex> {
     List<WeightedEdge<Vertex>> neighbors(Vertex v);
     double estimatedDistanceToGoal(Vertex s, Vertex goal);
+
+    /**
+     * Calls VISITOR once for each outgoing edge of V. The default goes through
+     * neighbors(V); graphs that can walk their edges in place should override this
+     * so that the traversal does not build a list of WeightedEdges.
+     */
+    default void forEachNeighbor(Vertex v, EdgeVisitor<Vertex> visitor) {
+        for (WeightedEdge<Vertex> e : neighbors(v)) {
+            visitor.visit(e.to(), e.weight());
+        }
+    }
 }
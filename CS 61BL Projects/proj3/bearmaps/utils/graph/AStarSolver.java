@@ -1,7 +1,10 @@
 package bearmaps.utils.graph;
 
 import bearmaps.utils.pq.DoubleMapPQ;
+import bearmaps.utils.pq.IndexedMinHeap;
+import bearmaps.utils.pq.IndexedMinPQ;
 import bearmaps.utils.pq.MinHeapPQ;
+import bearmaps.utils.pq.PriorityQueue;
 import edu.princeton.cs.algs4.Stopwatch;
 
 import java.util.HashMap;
@@ -16,12 +19,53 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
     private int numStatesExplored = 0;
     private double explorationTime;
 
+    private final AStarGraph<Vertex> G;
+    private final Vertex end;
+    private final PriorityQueue<Vertex> fringe;
+    private final HashMap<Vertex, Double> distanceTo = new HashMap<>();
+    private final HashMap<Vertex, Vertex> parents = new HashMap<>();
+    /* The vertex whose edges are being relaxed, and its distance from the start. */
+    private Vertex cur;
+    private double curDistance;
+
+
+    /** Arity of the indexed heap used as the fringe on IndexedGraphs. */
+    private static final int FRINGE_ARITY = 4;
+
+    /* The heap each thread's fringes on IndexedGraphs share, so that a short search does
+       not pay to allocate and fill arrays as long as the graph. A solver runs to the end
+       in its constructor, so no two on one thread ever use it at once. */
+    private static final ThreadLocal<IndexedMinHeap> FRINGE_HEAPS = new ThreadLocal<>();
+
 
     public AStarSolver(AStarGraph<Vertex> G, Vertex start, Vertex end, double timeout) {
+        this(G, start, end, Deadline.after(timeout));
+    }
 
-        MinHeapPQ<Vertex> fringe = new MinHeapPQ<>();
-        HashMap<Vertex, Double> distanceTo = new HashMap<>();
-        HashMap<Vertex, Vertex> parents = new HashMap<>();
+    /** Solves for the shortest path from START to END, giving up once DEADLINE passes. */
+    public AStarSolver(AStarGraph<Vertex> G, Vertex start, Vertex end, Deadline deadline) {
+        this(G, start, end, deadline, defaultFringe(G));
+    }
+
+    /**
+     * Solves for the shortest path from START to END using FRINGE, which must be
+     * empty, as the priority queue.
+     */
+    public AStarSolver(AStarGraph<Vertex> G, Vertex start, Vertex end, double timeout,
+                       PriorityQueue<Vertex> fringe) {
+        this(G, start, end, Deadline.after(timeout), fringe);
+    }
+
+    /**
+     * Solves for the shortest path from START to END using FRINGE, which must be
+     * empty, as the priority queue, giving up once DEADLINE passes.
+     */
+    public AStarSolver(AStarGraph<Vertex> G, Vertex start, Vertex end, Deadline deadline,
+                       PriorityQueue<Vertex> fringe) {
+        this.G = G;
+        this.end = end;
+        this.fringe = fringe;
+        EdgeVisitor<Vertex> relaxer = this::relax;
 
         // start timing
         Stopwatch sw = new Stopwatch();
@@ -33,7 +77,7 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
         // start the search
         while (fringe.size() > 0) {
             numStatesExplored++;
-            Vertex cur = fringe.peek();
+            cur = fringe.peek();
             if (cur.equals(end)) {
                 // a solution was found
                 // create the solution from parents
@@ -49,7 +93,7 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
                 break;
             } else {
                 cur = fringe.poll();
-                if (sw.elapsedTime() >= timeout) {
+                if (deadline.shouldStop(numStatesExplored)) {
                     // a solution was not found in time
                     solutionWeight = 0;
                     outcome = SolverOutcome.TIMEOUT;
@@ -57,21 +101,8 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
                     break;
                 } else {
                     // pseudo-code found in spec
-                    for (WeightedEdge<Vertex> e : G.neighbors(cur)) {
-                        Vertex q = e.to();
-                        double curDist = distanceTo.get(cur) + e.weight();
-                        if (!distanceTo.containsKey(q) || Double.compare(curDist, distanceTo.get(q)) < 0) {
-
-                            distanceTo.put(q, curDist);
-                            parents.put(q, cur);
-
-                            if (fringe.contains(q)) {
-                                fringe.changePriority(q, curDist + G.estimatedDistanceToGoal(q, end));
-                            } else {
-                                fringe.insert(q, curDist + G.estimatedDistanceToGoal(q, end));
-                            }
-                        }
-                    }
+                    curDistance = distanceTo.get(cur);
+                    G.forEachNeighbor(cur, relaxer);
                 }
             }
         }
@@ -82,6 +113,43 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
         }
     }
 
+    /**
+     * Returns an array-backed fringe over this thread's reused heap if G numbers its
+     * vertices, and a MinHeapPQ otherwise.
+     */
+    private static <Vertex> PriorityQueue<Vertex> defaultFringe(AStarGraph<Vertex> G) {
+        if (G instanceof IndexedGraph) {
+            IndexedGraph<Vertex> ig = (IndexedGraph<Vertex>) G;
+            IndexedMinHeap heap = FRINGE_HEAPS.get();
+            if (heap == null || heap.capacity() < ig.vertexCount()) {
+                heap = new IndexedMinHeap(ig.vertexCount(), FRINGE_ARITY);
+                FRINGE_HEAPS.set(heap);
+            } else {
+                /* Whatever the last search left on the fringe, in time proportional to it. */
+                heap.clear();
+            }
+            return new IndexedMinPQ<>(heap, ig::indexOf, ig::vertexAt);
+        }
+        return new MinHeapPQ<>();
+    }
+
+    /* Relaxes the edge from cur to Q of weight WEIGHT. */
+    private void relax(Vertex q, double weight) {
+        double curDist = curDistance + weight;
+        Double oldDist = distanceTo.get(q);
+        if (oldDist == null || Double.compare(curDist, oldDist) < 0) {
+
+            distanceTo.put(q, curDist);
+            parents.put(q, cur);
+
+            if (fringe.contains(q)) {
+                fringe.changePriority(q, curDist + G.estimatedDistanceToGoal(q, end));
+            } else {
+                fringe.insert(q, curDist + G.estimatedDistanceToGoal(q, end));
+            }
+        }
+    }
+
     @Override
     public SolverOutcome outcome() {
         return outcome;
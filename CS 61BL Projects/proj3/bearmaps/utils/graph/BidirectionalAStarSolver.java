@@ -0,0 +1,228 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IndexedMinPQ;
+import bearmaps.utils.pq.MinHeapPQ;
+import bearmaps.utils.pq.PriorityQueue;
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A* that searches forward from the start and backward from the goal at the same time,
+ * and stops once the two searches have provably found the shortest path between them.
+ *
+ * This is the NBA* scheme of Pijls and Post. Each search is an ordinary A* towards the
+ * other end: the forward search orders its fringe by d(start, v) + h(v, goal) and the
+ * backward search by d(v, goal) + h(v, start). A vertex is only expanded, and only added
+ * to a fringe, if the other search has not settled it and, given the smallest key still
+ * waiting on the other side, it could lie on a path shorter than the best one found so
+ * far. Everything else is discarded without looking at its edges. Once either fringe
+ * holds nothing with a key below the best path's length, everything left on it would be
+ * discarded, so neither search can find a shorter path and the solver stops. Each step
+ * grows the search with the smaller fringe, as Pijls and Post do. numStatesExplored
+ * counts every vertex taken off a fringe, as AStarSolver does.
+ *
+ * With a heuristic as tight as great-circle distance on a street grid, A* towards the
+ * goal already keeps to a narrow band near it, and the two searches here settle about as
+ * many vertices as AStarSolver does on the path_params routes. The search from the goal
+ * pays off when the heuristic is weak.
+ *
+ * The heuristic must be consistent, as great-circle distance is. The backward search walks
+ * the same edges as the forward search, so the graph must also be symmetric (every edge
+ * has a reverse of equal weight), as StreetMapGraph is.
+ */
+public class BidirectionalAStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
+
+    private SolverOutcome outcome = SolverOutcome.UNSOLVABLE;
+    private LinkedList<Vertex> solution = new LinkedList<>();
+    private double solutionWeight;
+    private int numStatesExplored = 0;
+    private double explorationTime;
+
+    private final AStarGraph<Vertex> G;
+    private final Vertex start;
+    private final Vertex end;
+    private final Side forward;
+    private final Side backward;
+
+    /* Length of the best start-to-end path seen so far, and the edge where it crosses
+       from the forward search into the backward search. */
+    private double bestWeight = Double.POSITIVE_INFINITY;
+    private Vertex meetForward;
+    private Vertex meetBackward;
+
+    public BidirectionalAStarSolver(AStarGraph<Vertex> G, Vertex start, Vertex end,
+                                    double timeout) {
+        this(G, start, end, Deadline.after(timeout));
+    }
+
+    /** Solves for the shortest path from START to END, giving up once DEADLINE passes. */
+    public BidirectionalAStarSolver(AStarGraph<Vertex> G, Vertex start, Vertex end,
+                                    Deadline deadline) {
+        this.G = G;
+        this.start = start;
+        this.end = end;
+        this.forward = new Side(true);
+        this.backward = new Side(false);
+
+        Stopwatch sw = new Stopwatch();
+        forward.seed(start);
+        backward.seed(end);
+        if (start.equals(end)) {
+            bestWeight = 0;
+            meetForward = start;
+            meetBackward = end;
+        }
+
+        while (forward.fringe.size() > 0 && backward.fringe.size() > 0
+                && forward.topKey() < bestWeight && backward.topKey() < bestWeight) {
+            if (deadline.shouldStop(numStatesExplored)) {
+                outcome = SolverOutcome.TIMEOUT;
+                explorationTime = sw.elapsedTime();
+                return;
+            }
+            /* Always grow the smaller search. */
+            if (forward.fringe.size() <= backward.fringe.size()) {
+                forward.expand();
+            } else {
+                backward.expand();
+            }
+        }
+
+        if (bestWeight < Double.POSITIVE_INFINITY) {
+            for (Vertex v = meetForward; v != null; v = forward.parents.get(v)) {
+                solution.addFirst(v);
+            }
+            if (!meetBackward.equals(meetForward)) {
+                for (Vertex v = meetBackward; v != null; v = backward.parents.get(v)) {
+                    solution.addLast(v);
+                }
+            }
+            solutionWeight = bestWeight;
+            outcome = SolverOutcome.SOLVED;
+        }
+        explorationTime = sw.elapsedTime();
+    }
+
+    /* The state of one of the two searches. */
+    private class Side implements EdgeVisitor<Vertex> {
+        private final boolean isForward;
+        private final PriorityQueue<Vertex> fringe;
+        private final HashMap<Vertex, Double> distanceTo = new HashMap<>();
+        private final HashMap<Vertex, Vertex> parents = new HashMap<>();
+        private final HashSet<Vertex> settled = new HashSet<>();
+        private Vertex cur;
+        private double curDistance;
+
+        Side(boolean isForward) {
+            this.isForward = isForward;
+            if (G instanceof IndexedGraph) {
+                IndexedGraph<Vertex> ig = (IndexedGraph<Vertex>) G;
+                fringe = new IndexedMinPQ<>(ig.vertexCount(), 4, ig::indexOf, ig::vertexAt);
+            } else {
+                fringe = new MinHeapPQ<>();
+            }
+        }
+
+        private Side other() {
+            return isForward ? backward : forward;
+        }
+
+        /* Returns the heuristic distance from V to the end this search is heading for. */
+        private double toTarget(Vertex v) {
+            return G.estimatedDistanceToGoal(v, isForward ? end : start);
+        }
+
+        private double key(Vertex v, double distance) {
+            return distance + toTarget(v);
+        }
+
+        void seed(Vertex source) {
+            distanceTo.put(source, 0.0);
+            parents.put(source, null);
+            fringe.insert(source, key(source, 0));
+        }
+
+        double topKey() {
+            Vertex top = fringe.peek();
+            return key(top, distanceTo.get(top));
+        }
+
+        /* Settles the vertex at the top of the fringe and relaxes its edges, unless the
+           other search has already settled it or it cannot improve on the best path. */
+        void expand() {
+            numStatesExplored++;
+            cur = fringe.poll();
+            curDistance = distanceTo.get(cur);
+            settled.add(cur);
+            if (!other().settled.contains(cur) && canImprove(cur, curDistance)) {
+                G.forEachNeighbor(cur, this);
+            }
+        }
+
+        /* Returns whether a path through V, at DISTANCE from this search's source, could be
+           shorter than the best path. Such a path costs at least V's key, and at least
+           DISTANCE plus the other side's smallest key less its heuristic at V. */
+        private boolean canImprove(Vertex v, double distance) {
+            if (key(v, distance) >= bestWeight) {
+                return false;
+            }
+            Side other = other();
+            return other.fringe.size() == 0
+                    || distance + other.topKey() - other.toTarget(v) < bestWeight;
+        }
+
+        @Override
+        public void visit(Vertex q, double weight) {
+            double newDist = curDistance + weight;
+            Double otherDist = other().distanceTo.get(q);
+            if (otherDist != null && newDist + otherDist < bestWeight) {
+                bestWeight = newDist + otherDist;
+                meetForward = isForward ? cur : q;
+                meetBackward = isForward ? q : cur;
+            }
+
+            Double oldDist = distanceTo.get(q);
+            if (settled.contains(q) || other().settled.contains(q)
+                    || (oldDist != null && Double.compare(newDist, oldDist) >= 0)) {
+                return;
+            }
+            distanceTo.put(q, newDist);
+            parents.put(q, cur);
+            double key = key(q, newDist);
+            if (fringe.contains(q)) {
+                fringe.changePriority(q, key);
+            } else if (canImprove(q, newDist)) {
+                fringe.insert(q, key);
+            }
+        }
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Vertex> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
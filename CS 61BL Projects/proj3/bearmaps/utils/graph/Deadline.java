@@ -0,0 +1,76 @@
+package bearmaps.utils.graph;
+
+/**
+ * When a search must give up: a point on the System.nanoTime clock, a token that another
+ * thread may cancel at any time, or both.
+ *
+ * Reading the clock takes tens of nanoseconds, which is small next to an expansion but
+ * would still be paid on every one of them. Solvers therefore call shouldStop with their
+ * running count of expansions, and the deadline only looks at the clock and the token on
+ * every CHECK_INTERVAL-th call, spreading that cost over the interval. A search may overrun
+ * its deadline by up to CHECK_INTERVAL expansions. On the Berkeley map an expansion takes
+ * from about 0.4 microseconds (PooledAStarSolver) to about 4 (BidirectionalAStarSolver), so
+ * the overrun stays under a millisecond, not counting pauses such as garbage collection.
+ */
+public class Deadline {
+
+    /** Expansions between two looks at the clock; a power of two. */
+    public static final int CHECK_INTERVAL = 128;
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+    private volatile boolean cancelled = false;
+    private volatile boolean stopped = false;
+
+    private Deadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /** Returns a deadline SECONDS from now. */
+    public static Deadline after(double seconds) {
+        return afterNanos((long) (seconds * 1e9));
+    }
+
+    /** Returns a deadline NANOS nanoseconds from now. */
+    public static Deadline afterNanos(long nanos) {
+        return new Deadline(System.nanoTime() + nanos, true);
+    }
+
+    /** Returns a deadline that only passes if it is cancelled. */
+    public static Deadline none() {
+        return new Deadline(0, false);
+    }
+
+    /** Makes the deadline pass now, for every search using it. Safe from any thread. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Returns whether the deadline has passed or been cancelled. */
+    public boolean passed() {
+        return cancelled || (bounded && System.nanoTime() - deadlineNanos >= 0);
+    }
+
+    /**
+     * Returns whether a search that has made EXPANSIONS expansions should give up, looking
+     * at the deadline only when EXPANSIONS is a multiple of CHECK_INTERVAL. Once this has
+     * returned true, stopped does too.
+     */
+    public boolean shouldStop(int expansions) {
+        if ((expansions & (CHECK_INTERVAL - 1)) != 0 || !passed()) {
+            return false;
+        }
+        stopped = true;
+        return true;
+    }
+
+    /** Returns whether some search gave up because of this deadline. */
+    public boolean stopped() {
+        return stopped;
+    }
+}
@@ -0,0 +1,11 @@
+package bearmaps.utils.graph;
+
+/**
+ * Callback used by AStarGraph.forEachNeighbor to hand out one outgoing edge at a time,
+ * so that walking a vertex's neighbours does not have to build a list of WeightedEdges.
+ */
+@FunctionalInterface
+public interface EdgeVisitor<Vertex> {
+    /** Called once for every edge to vertex TO with the given WEIGHT. */
+    void visit(Vertex to, double weight);
+}
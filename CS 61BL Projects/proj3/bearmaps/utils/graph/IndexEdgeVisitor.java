@@ -0,0 +1,12 @@
+package bearmaps.utils.graph;
+
+/**
+ * Callback used by IndexedGraph.forEachNeighbor to hand out one outgoing edge at a time by
+ * vertex index, so that walking a vertex's neighbours neither builds a list nor boxes the
+ * vertices it reaches.
+ */
+@FunctionalInterface
+public interface IndexEdgeVisitor {
+    /** Called once for every edge to the vertex with index TO with the given WEIGHT. */
+    void visit(int to, double weight);
+}
@@ -0,0 +1,25 @@
+package bearmaps.utils.graph;
+
+/**
+ * A graph whose vertices can also be numbered densely from 0 to vertexCount() - 1.
+ * Solvers use the numbering to keep per-vertex state in arrays instead of hash maps.
+ */
+public interface IndexedGraph<Vertex> extends AStarGraph<Vertex> {
+    /** Returns the number of vertices. */
+    int vertexCount();
+
+    /** Returns the index of V, or -1 if V is not in this graph. */
+    int indexOf(Vertex v);
+
+    /** Returns the vertex with index INDEX. */
+    Vertex vertexAt(int index);
+
+    /**
+     * Calls VISITOR once for each outgoing edge of the vertex with index INDEX. The
+     * default goes through forEachNeighbor on vertexAt(INDEX); graphs that keep their
+     * edges by index should override this so that the traversal does not allocate.
+     */
+    default void forEachNeighbor(int index, IndexEdgeVisitor visitor) {
+        forEachNeighbor(vertexAt(index), (to, weight) -> visitor.visit(indexOf(to), weight));
+    }
+}
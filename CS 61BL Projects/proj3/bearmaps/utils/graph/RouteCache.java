@@ -0,0 +1,184 @@
+package bearmaps.utils.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of shortest paths between vertices, keyed by the (source, destination)
+ * pair that route requests snap their endpoints to, so that a route asked for again is
+ * answered without running a solver.
+ *
+ * Paths are kept as long arrays together with their weight. The cache is sized in bytes of
+ * path and evicts the least recently used routes once it is over capacity.
+ */
+public class RouteCache {
+
+    /* Approximate bytes taken by an entry besides its path. */
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+
+    /** A cached path and its weight. */
+    public static class Route {
+        private final long[] path;
+        private final double weight;
+
+        public Route(long[] path, double weight) {
+            this.path = path;
+            this.weight = weight;
+        }
+
+        public double weight() {
+            return weight;
+        }
+
+        public int length() {
+            return path.length;
+        }
+
+        /** Returns the path's vertices as a new list. */
+        public List<Long> vertices() {
+            List<Long> vertices = new ArrayList<>(path.length);
+            for (long v : path) {
+                vertices.add(v);
+            }
+            return vertices;
+        }
+
+        private long sizeBytes() {
+            return 8L * path.length + ENTRY_OVERHEAD_BYTES;
+        }
+    }
+
+    private static final class Key {
+        private final long src;
+        private final long dest;
+
+        Key(long src, long dest) {
+            this.src = src;
+            this.dest = dest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return src == other.src && dest == other.dest;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(src) * 31 + Long.hashCode(dest);
+        }
+    }
+
+    private final long capacityBytes;
+
+    /* Routes in least- to most-recently used order, and the bytes they hold. Guarded by
+       this. */
+    private final LinkedHashMap<Key, Route> routes = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public RouteCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /** Returns the cached route from SRC to DEST, or null if there is none. */
+    public Route get(long src, long dest) {
+        Route route;
+        synchronized (this) {
+            route = routes.get(new Key(src, dest));
+        }
+        if (route == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return route;
+    }
+
+    /** Caches PATH, of weight WEIGHT, as the route from SRC to DEST, and returns it. */
+    public Route put(long src, long dest, List<Long> path, double weight) {
+        long[] vertices = new long[path.size()];
+        int i = 0;
+        for (long v : path) {
+            vertices[i] = v;
+            i++;
+        }
+        Route route = new Route(vertices, weight);
+        synchronized (this) {
+            if (route.sizeBytes() > capacityBytes) {
+                return route;
+            }
+            Route old = routes.put(new Key(src, dest), route);
+            if (old != null) {
+                sizeBytes -= old.sizeBytes();
+            }
+            sizeBytes += route.sizeBytes();
+            Iterator<Route> eldest = routes.values().iterator();
+            while (sizeBytes > capacityBytes) {
+                sizeBytes -= eldest.next().sizeBytes();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        return route;
+    }
+
+    /** Drops every cached route. The counters are left alone. */
+    public synchronized void clear() {
+        routes.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the cache's counters as a map for the front end: <br>
+     * "routes", "size_bytes", "capacity_bytes" : the current contents. <br>
+     * "hits", "misses", "hit_rate" : lookups that did and did not find the route cached. <br>
+     * "evictions" : routes dropped to stay under capacity. <br>
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("routes", routes.size());
+            stats.put("size_bytes", sizeBytes);
+        }
+        long numHits = hits.get(), numMisses = misses.get();
+        stats.put("capacity_bytes", capacityBytes);
+        stats.put("hits", numHits);
+        stats.put("misses", numMisses);
+        stats.put("hit_rate", numHits + numMisses == 0 ? 0.0
+                : (double) numHits / (numHits + numMisses));
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+}
@@ -0,0 +1,225 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.BinaryIO;
+import bearmaps.utils.graph.WeightedEdge;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compressed-sparse-row (CSR) adjacency store for a street graph.
+ *
+ * Vertices are numbered densely from 0 to V - 1 in increasing order of their OSM id, and the
+ * outgoing edges of vertex i occupy slots offsets[i] through offsets[i + 1] - 1 of the edge
+ * arrays. Everything lives in a handful of primitive arrays, so a neighbour scan walks
+ * contiguous memory instead of chasing boxed Longs through HashSet buckets.
+ *
+ * @author ________
+ */
+public class CompactGraph {
+    /* OSM id of each vertex, sorted ascending so that ids can be binary searched. */
+    private final long[] ids;
+    private final double[] lats;
+    private final double[] lons;
+    /* Name of each vertex, or null if the vertex is unnamed. */
+    private final String[] names;
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final int[] wayNameIds;
+    /* Distinct way names, indexed by the entries of wayNameIds. */
+    private final String[] wayNames;
+
+    CompactGraph(long[] ids, double[] lats, double[] lons, String[] names, int[] offsets,
+                 int[] targets, double[] weights, int[] wayNameIds, String[] wayNames) {
+        this.ids = ids;
+        this.lats = lats;
+        this.lons = lons;
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.wayNameIds = wayNameIds;
+        this.wayNames = wayNames;
+    }
+
+    /**
+     * Builds a compact graph out of NODES and the outgoing edges in ADJACENCY. Edges whose
+     * endpoints are not both in NODES are dropped.
+     */
+    public static CompactGraph build(Map<Long, Node> nodes,
+                                     Map<Long, ? extends Collection<WeightedEdge<Long>>> adjacency) {
+        int n = nodes.size();
+        long[] ids = new long[n];
+        int i = 0;
+        for (long id : nodes.keySet()) {
+            ids[i] = id;
+            i++;
+        }
+        Arrays.sort(ids);
+
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        String[] names = new String[n];
+        int[] offsets = new int[n + 1];
+        for (i = 0; i < n; i++) {
+            Node node = nodes.get(ids[i]);
+            lats[i] = node.lat();
+            lons[i] = node.lon();
+            names[i] = node.name();
+            Collection<WeightedEdge<Long>> edges = adjacency.get(ids[i]);
+            offsets[i + 1] = offsets[i] + (edges == null ? 0 : edges.size());
+        }
+
+        int m = offsets[n];
+        int[] targets = new int[m];
+        double[] weights = new double[m];
+        int[] wayNameIds = new int[m];
+        Map<String, Integer> wayNameIndex = new HashMap<>();
+        int e = 0;
+        for (i = 0; i < n; i++) {
+            Collection<WeightedEdge<Long>> edges = adjacency.get(ids[i]);
+            if (edges == null) {
+                continue;
+            }
+            for (WeightedEdge<Long> edge : edges) {
+                int target = Arrays.binarySearch(ids, edge.to());
+                if (target < 0) {
+                    continue;
+                }
+                targets[e] = target;
+                weights[e] = edge.weight();
+                String wayName = edge.getName();
+                Integer wayNameId = wayNameIndex.get(wayName);
+                if (wayNameId == null) {
+                    wayNameId = wayNameIndex.size();
+                    wayNameIndex.put(wayName, wayNameId);
+                }
+                wayNameIds[e] = wayNameId;
+                e++;
+            }
+            offsets[i + 1] = e;
+        }
+
+        String[] wayNames = new String[wayNameIndex.size()];
+        for (Map.Entry<String, Integer> entry : wayNameIndex.entrySet()) {
+            wayNames[entry.getValue()] = entry.getKey();
+        }
+        return new CompactGraph(ids, lats, lons, names, offsets, Arrays.copyOf(targets, e),
+                Arrays.copyOf(weights, e), Arrays.copyOf(wayNameIds, e), wayNames);
+    }
+
+    /** Writes this graph to OUT in the layout that read expects. */
+    public void write(DataOutputStream out) throws IOException {
+        BinaryIO.writeLongs(out, ids);
+        BinaryIO.writeDoubles(out, lats);
+        BinaryIO.writeDoubles(out, lons);
+        BinaryIO.writeStrings(out, names);
+        BinaryIO.writeInts(out, offsets);
+        BinaryIO.writeInts(out, targets);
+        BinaryIO.writeDoubles(out, weights);
+        BinaryIO.writeInts(out, wayNameIds);
+        BinaryIO.writeStrings(out, wayNames);
+    }
+
+    /** Reads a graph written by write from IN, leaving IN positioned just past it. */
+    public static CompactGraph read(ByteBuffer in) {
+        long[] ids = BinaryIO.readLongs(in);
+        double[] lats = BinaryIO.readDoubles(in);
+        double[] lons = BinaryIO.readDoubles(in);
+        String[] names = BinaryIO.readStrings(in);
+        int[] offsets = BinaryIO.readInts(in);
+        int[] targets = BinaryIO.readInts(in);
+        double[] weights = BinaryIO.readDoubles(in);
+        int[] wayNameIds = BinaryIO.readInts(in);
+        String[] wayNames = BinaryIO.readStrings(in);
+        return new CompactGraph(ids, lats, lons, names, offsets, targets, weights, wayNameIds,
+                wayNames);
+    }
+
+    /** Returns the number of vertices. */
+    public int vertexCount() {
+        return ids.length;
+    }
+
+    /** Returns the number of (directed) edges. */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /** Returns the dense index of the vertex with OSM id ID, or -1 if there is none. */
+    public int indexOf(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index < 0 ? -1 : index;
+    }
+
+    /** Returns the OSM id of vertex V. */
+    public long id(int v) {
+        return ids[v];
+    }
+
+    public double lat(int v) {
+        return lats[v];
+    }
+
+    public double lon(int v) {
+        return lons[v];
+    }
+
+    /** Returns the name of vertex V, or null if it is unnamed. */
+    public String name(int v) {
+        return names[v];
+    }
+
+    public int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /** Returns the slot of the first outgoing edge of V. */
+    public int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    /** Returns one past the slot of the last outgoing edge of V. */
+    public int endEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    /** Returns the vertex that edge slot E points to. */
+    public int target(int e) {
+        return targets[e];
+    }
+
+    public double weight(int e) {
+        return weights[e];
+    }
+
+    /** Returns the name of the way that edge slot E belongs to. */
+    public String wayName(int e) {
+        return wayNames[wayNameIds[e]];
+    }
+
+    /** Returns a rough estimate of the number of bytes held by this graph's arrays. */
+    public long estimatedBytes() {
+        long bytes = 8L * ids.length + 8L * lats.length + 8L * lons.length
+                + 4L * names.length + 4L * offsets.length + 4L * targets.length
+                + 8L * weights.length + 4L * wayNameIds.length + 4L * wayNames.length;
+        for (String name : names) {
+            if (name != null) {
+                bytes += 40 + 2L * name.length();
+            }
+        }
+        for (String wayName : wayNames) {
+            if (wayName != null) {
+                bytes += 40 + 2L * wayName.length();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,661 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.BinaryIO;
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Contraction Hierarchies over a symmetric CompactGraph.
+ *
+ * Preprocessing contracts vertices one at a time, cheapest first. The cost of a vertex
+ * combines its edge difference (shortcuts it would add minus edges it would remove), the
+ * number of its neighbours already contracted, and its depth in the hierarchy.
+ *
+ * Contracting v adds a shortcut u-w of weight w(u, v) + w(v, w) for every pair of
+ * remaining neighbours whose shortest connection runs through v; a bounded Dijkstra
+ * witness search that avoids v decides whether one does. Every vertex keeps the edges it had to higher vertices when it was
+ * contracted, and these upward edges are all a query needs: a bidirectional Dijkstra that
+ * only ever climbs meets at the top of the shortest path. Each shortcut remembers the
+ * vertex it bypasses, so query results can be unpacked into original edges. A built
+ * hierarchy can be written out with write and read back with read, as GraphSnapshot does,
+ * so that the server does not contract the graph on every start.
+ *
+ * @author ________
+ */
+public class ContractionHierarchy {
+    /* A witness search gives up (and a shortcut is added) after settling this many vertices.
+       Searches that only estimate a priority can afford to give up sooner. */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int PRIORITY_SETTLE_LIMIT = 20;
+
+    private final CompactGraph graph;
+    /* rank[v] is the position of v in the contraction order. */
+    private final int[] rank;
+    /* Upward edges in CSR form: the edges of v lead to vertices of higher rank. */
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    /* The vertex a shortcut bypasses, or -1 for an original edge. */
+    private final int[] upMiddles;
+
+    /* Per-thread search state for queries. */
+    private final ThreadLocal<QueryState> queryStates;
+
+    private ContractionHierarchy(CompactGraph graph, int[] rank, int[] upOffsets,
+                                 int[] upTargets, double[] upWeights, int[] upMiddles) {
+        this.graph = graph;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+        this.queryStates = ThreadLocal.withInitial(() -> new QueryState(rank.length));
+    }
+
+    /** Contracts every vertex of G and returns the resulting hierarchy. */
+    public static ContractionHierarchy build(CompactGraph g) {
+        return new Builder(g).build();
+    }
+
+    /** Writes this hierarchy, but not its graph, to OUT in the layout that read expects. */
+    public void write(DataOutputStream out) throws IOException {
+        BinaryIO.writeInts(out, rank);
+        BinaryIO.writeInts(out, upOffsets);
+        BinaryIO.writeInts(out, upTargets);
+        BinaryIO.writeDoubles(out, upWeights);
+        BinaryIO.writeInts(out, upMiddles);
+    }
+
+    /**
+     * Reads a hierarchy of G written by write from IN, leaving IN positioned just past it.
+     * Throws IllegalArgumentException if what is there does not fit G.
+     */
+    public static ContractionHierarchy read(CompactGraph g, ByteBuffer in) {
+        int[] rank = BinaryIO.readInts(in);
+        int[] upOffsets = BinaryIO.readInts(in);
+        int[] upTargets = BinaryIO.readInts(in);
+        double[] upWeights = BinaryIO.readDoubles(in);
+        int[] upMiddles = BinaryIO.readInts(in);
+        int n = g.vertexCount();
+        if (rank.length != n || upOffsets.length != n + 1
+                || upOffsets[n] != upTargets.length || upWeights.length != upTargets.length
+                || upMiddles.length != upTargets.length) {
+            throw new IllegalArgumentException("Contraction hierarchy does not fit the graph.");
+        }
+        return new ContractionHierarchy(g, rank, upOffsets, upTargets, upWeights, upMiddles);
+    }
+
+    /** Returns the graph this hierarchy was built from. */
+    public CompactGraph graph() {
+        return graph;
+    }
+
+    /** Returns the number of upward edges, shortcuts included. */
+    public int upwardEdgeCount() {
+        return upTargets.length;
+    }
+
+    /** Returns the number of shortcuts added during preprocessing. */
+    public int shortcutCount() {
+        int shortcuts = 0;
+        for (int middle : upMiddles) {
+            if (middle >= 0) {
+                shortcuts++;
+            }
+        }
+        return shortcuts;
+    }
+
+    /**
+     * Finds a shortest path from vertex S to vertex T. Returns the vertices of the path in
+     * order, or null if T cannot be reached. SETTLED, if not null, receives the number of
+     * vertices settled by the search in its first slot, and WEIGHT receives the path weight.
+     */
+    public int[] shortestPath(int s, int t, int[] settled, double[] weight) {
+        QueryState q = queryStates.get();
+        q.reset();
+        q.forward.seed(s);
+        q.backward.seed(t);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        int numSettled = 0;
+        while (!q.forward.done(best) || !q.backward.done(best)) {
+            Side side;
+            if (q.forward.done(best)) {
+                side = q.backward;
+            } else if (q.backward.done(best)) {
+                side = q.forward;
+            } else {
+                side = q.forward.heap.peekPriority() <= q.backward.heap.peekPriority()
+                        ? q.forward : q.backward;
+            }
+            Side other = side == q.forward ? q.backward : q.forward;
+            int v = side.heap.poll();
+            numSettled++;
+            double dv = side.dist(v);
+            if (other.dist(v) + dv < best) {
+                best = other.dist(v) + dv;
+                meet = v;
+            }
+            for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+                side.relax(upTargets[e], dv + upWeights[e], v, e);
+            }
+        }
+
+        if (settled != null) {
+            settled[0] = numSettled;
+        }
+        if (meet < 0) {
+            return null;
+        }
+        if (weight != null) {
+            weight[0] = best;
+        }
+        return unpack(q, s, meet, t);
+    }
+
+    /**
+     * Returns the shortest-path weights from each of SOURCES to each of TARGETS: entry [i][j]
+     * is the weight from SOURCES[i] to TARGETS[j], or POSITIVE_INFINITY if there is no path.
+     *
+     * Uses buckets: an exhaustive upward search from each target leaves (target, weight) in
+     * a bucket at every vertex it settles, and an upward search from each source then finds
+     * its whole row by scanning the buckets of the vertices it settles, since every shortest
+     * path climbs from both ends to a common top. That is one search per source and per
+     * target instead of one per pair. Searches run on POOL, or on the calling thread if POOL
+     * is null.
+     */
+    public double[][] distanceMatrix(int[] sources, int[] targets, ExecutorService pool) {
+        /* Upward search spaces of the targets: settled vertices and their weights. */
+        int[][] spaceVertices = new int[targets.length][];
+        double[][] spaceWeights = new double[targets.length][];
+        DistanceMatrix.forEachRow(targets.length, pool, j -> {
+            QueryState q = queryStates.get();
+            IntList settled = upwardSearch(q, targets[j]);
+            spaceVertices[j] = settled.toArray();
+            spaceWeights[j] = new double[settled.size()];
+            for (int i = 0; i < settled.size(); i++) {
+                spaceWeights[j][i] = q.forward.dist(settled.get(i));
+            }
+        });
+
+        /* Buckets in CSR form: the entries for vertex v are [bucketOffsets[v],
+           bucketOffsets[v + 1]). */
+        int n = rank.length;
+        int[] bucketOffsets = new int[n + 1];
+        for (int[] space : spaceVertices) {
+            for (int v : space) {
+                bucketOffsets[v + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            bucketOffsets[v + 1] += bucketOffsets[v];
+        }
+        int[] next = Arrays.copyOf(bucketOffsets, n);
+        int[] bucketTargets = new int[bucketOffsets[n]];
+        double[] bucketWeights = new double[bucketOffsets[n]];
+        for (int j = 0; j < targets.length; j++) {
+            for (int i = 0; i < spaceVertices[j].length; i++) {
+                int slot = next[spaceVertices[j][i]]++;
+                bucketTargets[slot] = j;
+                bucketWeights[slot] = spaceWeights[j][i];
+            }
+        }
+
+        double[][] result = new double[sources.length][];
+        DistanceMatrix.forEachRow(sources.length, pool, i -> {
+            double[] row = new double[targets.length];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            QueryState q = queryStates.get();
+            IntList settled = upwardSearch(q, sources[i]);
+            for (int k = 0; k < settled.size(); k++) {
+                int v = settled.get(k);
+                double dv = q.forward.dist(v);
+                for (int b = bucketOffsets[v]; b < bucketOffsets[v + 1]; b++) {
+                    double d = dv + bucketWeights[b];
+                    if (d < row[bucketTargets[b]]) {
+                        row[bucketTargets[b]] = d;
+                    }
+                }
+            }
+            result[i] = row;
+        });
+        return result;
+    }
+
+    /* Settles every vertex reachable upward from S on Q's forward side, and returns them in
+       the order settled. Their weights stay readable on Q's forward side until its next
+       reset. */
+    private IntList upwardSearch(QueryState q, int s) {
+        q.reset();
+        q.forward.seed(s);
+        IntList settled = new IntList();
+        while (!q.forward.heap.isEmpty()) {
+            int v = q.forward.heap.poll();
+            settled.add(v);
+            double dv = q.forward.dist(v);
+            for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+                q.forward.relax(upTargets[e], dv + upWeights[e], v, e);
+            }
+        }
+        return settled;
+    }
+
+    /* Unpacks the up-down path S -> MEET -> T found by a query into original vertices. */
+    private int[] unpack(QueryState q, int s, int meet, int t) {
+        IntList path = new IntList();
+        IntList stack = new IntList();
+
+        /* Climb from meet down to s, then replay the edges from s upward. */
+        IntList edges = new IntList();
+        for (int v = meet; v != s; v = q.forward.parentVertex[v]) {
+            edges.add(q.forward.parentEdge[v]);
+            edges.add(q.forward.parentVertex[v]);
+            edges.add(v);
+        }
+        path.add(s);
+        for (int i = edges.size() - 3; i >= 0; i -= 3) {
+            unpackEdge(edges.get(i + 1), edges.get(i + 2), edges.get(i), path, stack);
+        }
+        for (int v = meet; v != t; v = q.backward.parentVertex[v]) {
+            unpackEdge(v, q.backward.parentVertex[v], q.backward.parentEdge[v], path, stack);
+        }
+        return path.toArray();
+    }
+
+    /* Appends the original vertices of upward edge slot E, walked from A to B, to PATH,
+       excluding A itself. */
+    private void unpackEdge(int a, int b, int e, IntList path, IntList stack) {
+        stack.clear();
+        stack.add(a);
+        stack.add(b);
+        stack.add(e);
+        while (stack.size() > 0) {
+            int slot = stack.pop();
+            int to = stack.pop();
+            int from = stack.pop();
+            int middle = upMiddles[slot];
+            if (middle < 0) {
+                path.add(to);
+            } else {
+                /* Push the second half first so that the first half is unpacked first. */
+                stack.add(middle);
+                stack.add(to);
+                stack.add(findUpEdge(middle, to));
+                stack.add(from);
+                stack.add(middle);
+                stack.add(findUpEdge(middle, from));
+            }
+        }
+    }
+
+    /* Returns the upward edge slot from LOW to HIGH. */
+    private int findUpEdge(int low, int high) {
+        for (int e = upOffsets[low]; e < upOffsets[low + 1]; e++) {
+            if (upTargets[e] == high) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("No upward edge from " + low + " to " + high);
+    }
+
+    /* One direction of a query. Distances are valid only where stamp equals generation. */
+    private static class Side {
+        private final IndexedMinHeap heap;
+        private final double[] dist;
+        private final int[] stamp;
+        private final int[] parentVertex;
+        private final int[] parentEdge;
+        private int generation = 0;
+
+        Side(int n) {
+            heap = new IndexedMinHeap(n);
+            dist = new double[n];
+            stamp = new int[n];
+            parentVertex = new int[n];
+            parentEdge = new int[n];
+        }
+
+        void reset() {
+            heap.clear();
+            generation++;
+        }
+
+        double dist(int v) {
+            return stamp[v] == generation ? dist[v] : Double.POSITIVE_INFINITY;
+        }
+
+        void seed(int v) {
+            stamp[v] = generation;
+            dist[v] = 0;
+            parentVertex[v] = -1;
+            heap.insert(v, 0);
+        }
+
+        void relax(int w, double d, int from, int edge) {
+            if (d < dist(w)) {
+                stamp[w] = generation;
+                dist[w] = d;
+                parentVertex[w] = from;
+                parentEdge[w] = edge;
+                heap.insertOrDecrease(w, d);
+            }
+        }
+
+        /* Returns true if nothing left on this side can lead to a path shorter than BEST. */
+        boolean done(double best) {
+            return heap.isEmpty() || heap.peekPriority() >= best;
+        }
+    }
+
+    private static class QueryState {
+        private final Side forward;
+        private final Side backward;
+
+        QueryState(int n) {
+            forward = new Side(n);
+            backward = new Side(n);
+        }
+
+        void reset() {
+            forward.reset();
+            backward.reset();
+        }
+    }
+
+    /* A growable list of ints. */
+    private static class IntList {
+        private int[] items = new int[16];
+        private int size = 0;
+
+        void add(int x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = x;
+            size++;
+        }
+
+        int get(int i) {
+            return items[i];
+        }
+
+        int pop() {
+            size--;
+            return items[size];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+
+    /* Runs the contraction. Holds the shrinking undirected graph of uncontracted vertices. */
+    private static class Builder {
+        private final CompactGraph g;
+        private final int n;
+        /* Current undirected edges between uncontracted vertices, at most one per pair. */
+        private final int[][] adjTargets;
+        private final double[][] adjWeights;
+        private final int[][] adjMiddles;
+        private final int[] adjSizes;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+        /* One more than the highest level among contracted neighbours. */
+        private final int[] levels;
+
+        /* Upward edges recorded for each vertex as it is contracted. */
+        private final int[][] upTargets;
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+
+        /* Witness search state, reused between searches. */
+        private final IndexedMinHeap witnessHeap;
+        private final double[] witnessDist;
+        private final int[] witnessStamp;
+        private final int[] witnessTargetStamp;
+        private int witnessGeneration = 0;
+
+        /* Shortcuts found by the last call to findShortcuts, as (u, w, weight) triples. */
+        private int[] shortcutEnds = new int[32];
+        private double[] shortcutWeights = new double[16];
+        private int numShortcuts;
+
+        Builder(CompactGraph g) {
+            this.g = g;
+            this.n = g.vertexCount();
+            adjTargets = new int[n][];
+            adjWeights = new double[n][];
+            adjMiddles = new int[n][];
+            adjSizes = new int[n];
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            levels = new int[n];
+            upTargets = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+            witnessHeap = new IndexedMinHeap(n);
+            witnessDist = new double[n];
+            witnessStamp = new int[n];
+            witnessTargetStamp = new int[n];
+
+            for (int v = 0; v < n; v++) {
+                adjTargets[v] = new int[Math.max(g.degree(v), 2)];
+                adjWeights[v] = new double[adjTargets[v].length];
+                adjMiddles[v] = new int[adjTargets[v].length];
+            }
+            for (int v = 0; v < n; v++) {
+                for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                    int w = g.target(e);
+                    if (w != v) {
+                        addOrImprove(v, w, g.weight(e), -1);
+                        addOrImprove(w, v, g.weight(e), -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            IndexedMinHeap order = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                order.insert(v, priority(v));
+            }
+
+            int[] rank = new int[n];
+            int nextRank = 0;
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                /* Priorities go stale as the graph changes; recheck before contracting. */
+                double p = priority(v);
+                if (!order.isEmpty() && p > order.peekPriority()) {
+                    order.insert(v, p);
+                    continue;
+                }
+                rank[v] = nextRank;
+                nextRank++;
+                contract(v);
+                removeVertex(v);
+                for (int i = 0; i < adjSizes[v]; i++) {
+                    int u = adjTargets[v][i];
+                    contractedNeighbors[u]++;
+                    levels[u] = Math.max(levels[u], levels[v] + 1);
+                    order.changePriority(u, priority(u));
+                }
+            }
+
+            int[] upOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                upOffsets[v + 1] = upOffsets[v] + upTargets[v].length;
+            }
+            int m = upOffsets[n];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] middles = new int[m];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(upTargets[v], 0, targets, upOffsets[v], upTargets[v].length);
+                System.arraycopy(upWeights[v], 0, weights, upOffsets[v], upWeights[v].length);
+                System.arraycopy(upMiddles[v], 0, middles, upOffsets[v], upMiddles[v].length);
+            }
+            return new ContractionHierarchy(g, rank, upOffsets, targets, weights, middles);
+        }
+
+        /* Returns twice the edge difference of V plus its number of contracted neighbours
+           and its level, the last two keeping the contraction spread evenly over the graph. */
+        private double priority(int v) {
+            findShortcuts(v, PRIORITY_SETTLE_LIMIT);
+            return 2 * (numShortcuts - adjSizes[v]) + contractedNeighbors[v] + levels[v];
+        }
+
+        /* Contracts V: adds its shortcuts and records its remaining edges as upward edges. */
+        private void contract(int v) {
+            findShortcuts(v, WITNESS_SETTLE_LIMIT);
+            for (int i = 0; i < numShortcuts; i++) {
+                int u = shortcutEnds[2 * i], w = shortcutEnds[2 * i + 1];
+                addOrImprove(u, w, shortcutWeights[i], v);
+                addOrImprove(w, u, shortcutWeights[i], v);
+            }
+            int size = adjSizes[v];
+            upTargets[v] = Arrays.copyOf(adjTargets[v], size);
+            upWeights[v] = Arrays.copyOf(adjWeights[v], size);
+            upMiddles[v] = Arrays.copyOf(adjMiddles[v], size);
+            contracted[v] = true;
+        }
+
+        /* Removes every edge between V and the rest of the graph. */
+        private void removeVertex(int v) {
+            for (int i = 0; i < adjSizes[v]; i++) {
+                int u = adjTargets[v][i];
+                for (int j = 0; j < adjSizes[u]; j++) {
+                    if (adjTargets[u][j] == v) {
+                        int last = adjSizes[u] - 1;
+                        adjTargets[u][j] = adjTargets[u][last];
+                        adjWeights[u][j] = adjWeights[u][last];
+                        adjMiddles[u][j] = adjMiddles[u][last];
+                        adjSizes[u]--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        /* Adds an edge from U to W, or lowers the weight of the existing one. */
+        private void addOrImprove(int u, int w, double weight, int middle) {
+            for (int j = 0; j < adjSizes[u]; j++) {
+                if (adjTargets[u][j] == w) {
+                    if (weight < adjWeights[u][j]) {
+                        adjWeights[u][j] = weight;
+                        adjMiddles[u][j] = middle;
+                    }
+                    return;
+                }
+            }
+            if (adjSizes[u] == adjTargets[u].length) {
+                int capacity = adjTargets[u].length * 2;
+                adjTargets[u] = Arrays.copyOf(adjTargets[u], capacity);
+                adjWeights[u] = Arrays.copyOf(adjWeights[u], capacity);
+                adjMiddles[u] = Arrays.copyOf(adjMiddles[u], capacity);
+            }
+            adjTargets[u][adjSizes[u]] = w;
+            adjWeights[u][adjSizes[u]] = weight;
+            adjMiddles[u][adjSizes[u]] = middle;
+            adjSizes[u]++;
+        }
+
+        /* Fills the shortcut buffers with the shortcuts that contracting V would need,
+           giving each witness search SETTLELIMIT settled vertices. */
+        private void findShortcuts(int v, int settleLimit) {
+            numShortcuts = 0;
+            int degree = adjSizes[v];
+            for (int i = 0; i < degree; i++) {
+                int u = adjTargets[v][i];
+                double toU = adjWeights[v][i];
+                double maxDist = 0;
+                for (int j = i + 1; j < degree; j++) {
+                    maxDist = Math.max(maxDist, toU + adjWeights[v][j]);
+                }
+                if (maxDist == 0) {
+                    continue;
+                }
+                witnessGeneration++;
+                for (int j = i + 1; j < degree; j++) {
+                    witnessTargetStamp[adjTargets[v][j]] = witnessGeneration;
+                }
+                witnessSearch(u, v, degree - i - 1, maxDist, settleLimit);
+                for (int j = i + 1; j < degree; j++) {
+                    int w = adjTargets[v][j];
+                    double via = toU + adjWeights[v][j];
+                    if (witnessDist(w) > via) {
+                        addShortcut(u, w, via);
+                    }
+                }
+            }
+        }
+
+        private void addShortcut(int u, int w, double weight) {
+            if (numShortcuts == shortcutWeights.length) {
+                shortcutWeights = Arrays.copyOf(shortcutWeights, numShortcuts * 2);
+                shortcutEnds = Arrays.copyOf(shortcutEnds, numShortcuts * 4);
+            }
+            shortcutEnds[2 * numShortcuts] = u;
+            shortcutEnds[2 * numShortcuts + 1] = w;
+            shortcutWeights[numShortcuts] = weight;
+            numShortcuts++;
+        }
+
+        private double witnessDist(int v) {
+            return witnessStamp[v] == witnessGeneration ? witnessDist[v] : Double.POSITIVE_INFINITY;
+        }
+
+        /* Dijkstra from SOURCE that avoids AVOID and stops once it has settled the NUMTARGETS
+           vertices marked in witnessTargetStamp, or passes MAXDIST or SETTLELIMIT. The
+           caller starts a new generation and marks the targets. */
+        private void witnessSearch(int source, int avoid, int numTargets, double maxDist,
+                                   int settleLimit) {
+            witnessHeap.clear();
+            witnessStamp[source] = witnessGeneration;
+            witnessDist[source] = 0;
+            witnessHeap.insert(source, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && settled < settleLimit) {
+                if (witnessHeap.peekPriority() > maxDist) {
+                    break;
+                }
+                int x = witnessHeap.poll();
+                settled++;
+                if (witnessTargetStamp[x] == witnessGeneration) {
+                    numTargets--;
+                    if (numTargets == 0) {
+                        break;
+                    }
+                }
+                double dx = witnessDist[x];
+                for (int i = 0; i < adjSizes[x]; i++) {
+                    int y = adjTargets[x][i];
+                    if (y == avoid) {
+                        continue;
+                    }
+                    double d = dx + adjWeights[x][i];
+                    if (d < witnessDist(y)) {
+                        witnessStamp[y] = witnessGeneration;
+                        witnessDist[y] = d;
+                        witnessHeap.insertOrDecrease(y, d);
+                    }
+                }
+            }
+        }
+    }
+}
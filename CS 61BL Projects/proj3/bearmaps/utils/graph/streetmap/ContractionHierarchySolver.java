@@ -0,0 +1,78 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.ShortestPathsSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answers a single shortest-path query from a ContractionHierarchy and unpacks the result
+ * into the OSM ids of the original street vertices. numStatesExplored counts the vertices
+ * settled by the upward searches.
+ */
+public class ContractionHierarchySolver implements ShortestPathsSolver<Long> {
+    private SolverOutcome outcome = SolverOutcome.UNSOLVABLE;
+    private List<Long> solution = new ArrayList<>();
+    private double solutionWeight;
+    private int numStatesExplored;
+    private double explorationTime;
+
+    /* ignores timeout since queries settle a few hundred vertices at most. */
+    public ContractionHierarchySolver(ContractionHierarchy ch, long start, long end,
+                                      double timeout) {
+        this(ch, start, end, Deadline.none());
+    }
+
+    /* Only looks at DEADLINE before starting, for the same reason. */
+    public ContractionHierarchySolver(ContractionHierarchy ch, long start, long end,
+                                      Deadline deadline) {
+        Stopwatch sw = new Stopwatch();
+        CompactGraph g = ch.graph();
+        int s = g.indexOf(start);
+        int t = g.indexOf(end);
+        if (deadline.shouldStop(0)) {
+            outcome = SolverOutcome.TIMEOUT;
+        } else if (s >= 0 && t >= 0) {
+            int[] settled = new int[1];
+            double[] weight = new double[1];
+            int[] path = ch.shortestPath(s, t, settled, weight);
+            numStatesExplored = settled[0];
+            if (path != null) {
+                for (int v : path) {
+                    solution.add(g.id(v));
+                }
+                solutionWeight = weight[0];
+                outcome = SolverOutcome.SOLVED;
+            }
+        }
+        explorationTime = sw.elapsedTime();
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Long> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    @Override
+    public double explorationTime() {
+        return explorationTime;
+    }
+}
@@ -0,0 +1,120 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Many-to-many shortest-path weights between vertices of a street graph, for callers that
+ * need every pairing of N origins with M destinations rather than one route.
+ *
+ * With a contraction hierarchy attached to the graph the matrix comes from its bucket
+ * queries; otherwise each row is a single Dijkstra search from its source that stops once
+ * every target is settled. Either way rows are independent and are computed in parallel
+ * when a pool is given.
+ */
+public class DistanceMatrix {
+
+    private DistanceMatrix() {
+    }
+
+    /**
+     * Returns the shortest-path weights from each of the vertices SOURCES to each of the
+     * vertices TARGETS of G: entry [i][j] is the weight from SOURCES[i] to TARGETS[j], or
+     * POSITIVE_INFINITY if there is no path. Runs on POOL, or on the calling thread if POOL
+     * is null.
+     */
+    public static double[][] compute(StreetMapGraph g, long[] sources, long[] targets,
+                                     ExecutorService pool) {
+        CompactGraph graph = g.compactGraph();
+        int[] sourceIndices = indicesOf(graph, sources);
+        int[] targetIndices = indicesOf(graph, targets);
+        ContractionHierarchy ch = g.contractionHierarchy();
+        if (ch != null) {
+            return ch.distanceMatrix(sourceIndices, targetIndices, pool);
+        }
+        return dijkstra(graph, sourceIndices, targetIndices, pool);
+    }
+
+    /**
+     * Returns the same matrix as compute, found with one Dijkstra search per source over
+     * GRAPH, whatever is attached to the graph.
+     */
+    public static double[][] dijkstra(CompactGraph graph, int[] sources, int[] targets,
+                                      ExecutorService pool) {
+        /* targetOf[v] is 1 + the index in TARGETS of the first target at v, or 0. */
+        int[] targetOf = new int[graph.vertexCount()];
+        int numDistinct = 0;
+        for (int j = 0; j < targets.length; j++) {
+            if (targetOf[targets[j]] == 0) {
+                targetOf[targets[j]] = j + 1;
+                numDistinct++;
+            }
+        }
+        int distinctTargets = numDistinct;
+
+        double[][] result = new double[sources.length][];
+        forEachRow(sources.length, pool, i -> {
+            SearchWorkspace search = SearchWorkspace.forThread(graph.vertexCount());
+            double[] row = new double[targets.length];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            search.relax(sources[i], 0);
+            int remaining = distinctTargets;
+            while (remaining > 0 && !search.isEmpty()) {
+                int v = search.poll();
+                double dv = search.distance(v);
+                if (targetOf[v] != 0) {
+                    row[targetOf[v] - 1] = dv;
+                    remaining--;
+                }
+                for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                    search.relax(graph.target(e), dv + graph.weight(e));
+                }
+            }
+            /* Repeated targets share the weight found for their first occurrence. */
+            for (int j = 0; j < targets.length; j++) {
+                row[j] = row[targetOf[targets[j]] - 1];
+            }
+            result[i] = row;
+        });
+        return result;
+    }
+
+    /* Calls ROW on 0 through COUNT - 1, spread over POOL if it is not null, and returns once
+       every call has. */
+    static void forEachRow(int count, ExecutorService pool, IntConsumer row) {
+        if (pool == null || count <= 1) {
+            for (int i = 0; i < count; i++) {
+                row.accept(i);
+            }
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            futures.add(pool.submit(() -> row.accept(index)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing a distance matrix", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Distance matrix row failed", e.getCause());
+        }
+    }
+
+    private static int[] indicesOf(CompactGraph graph, long[] ids) {
+        int[] indices = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            indices[i] = graph.indexOf(ids[i]);
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,122 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.Arrays;
+
+/**
+ * The vertices of a street graph that can be reached from one vertex within a distance
+ * budget, with the distance to each, for drawing service areas.
+ *
+ * reach runs Dijkstra from the source on a SearchWorkspace, never queueing a vertex past
+ * the budget, so it touches only the reachable area however large the graph is.
+ */
+public class Isochrone {
+
+    private final int source;
+    private final double budget;
+    /* The reached vertices in the order they were settled, nearest first, and their
+       distances from the source. */
+    private final int[] vertices;
+    private final double[] distances;
+
+    private Isochrone(int source, double budget, int[] vertices, double[] distances) {
+        this.source = source;
+        this.budget = budget;
+        this.vertices = vertices;
+        this.distances = distances;
+    }
+
+    /**
+     * Returns the vertices of G within BUDGET of vertex SOURCE along its edges, SOURCE
+     * included.
+     */
+    public static Isochrone reach(CompactGraph g, int source, double budget) {
+        SearchWorkspace search = SearchWorkspace.forThread(g.vertexCount());
+        int[] vertices = new int[16];
+        double[] distances = new double[16];
+        int size = 0;
+        search.relax(source, 0);
+        while (!search.isEmpty()) {
+            int v = search.poll();
+            double dv = search.distance(v);
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            vertices[size] = v;
+            distances[size] = dv;
+            size++;
+            for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                double d = dv + g.weight(e);
+                if (d <= budget) {
+                    search.relax(g.target(e), d);
+                }
+            }
+        }
+        return new Isochrone(source, budget, Arrays.copyOf(vertices, size),
+                Arrays.copyOf(distances, size));
+    }
+
+    public int source() {
+        return source;
+    }
+
+    public double budget() {
+        return budget;
+    }
+
+    /** Returns the number of vertices reached. */
+    public int size() {
+        return vertices.length;
+    }
+
+    /** Returns the I-th vertex reached; vertices are in order of distance. */
+    public int vertex(int i) {
+        return vertices[i];
+    }
+
+    /** Returns the distance to the I-th vertex reached. */
+    public double distance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * Returns the convex hull of the vertices reached, as {lon, lat} pairs of G in
+     * counterclockwise order without repeating the first. Fewer than three points come
+     * back as they are when every vertex reached is on one line.
+     */
+    public double[][] hull(CompactGraph g) {
+        int n = vertices.length;
+        double[][] points = new double[n][];
+        for (int i = 0; i < n; i++) {
+            points[i] = new double[]{g.lon(vertices[i]), g.lat(vertices[i])};
+        }
+        Arrays.sort(points, (a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0])
+                : Double.compare(a[1], b[1]));
+        if (n < 3) {
+            return points;
+        }
+
+        /* Andrew's monotone chain: the lower hull left to right, then the upper hull
+           right to left. */
+        double[][] hull = new double[2 * n][];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            while (k >= 2 && cross(hull[k - 2], hull[k - 1], points[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = points[i];
+        }
+        for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(hull[k - 2], hull[k - 1], points[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = points[i];
+        }
+        return Arrays.copyOf(hull, Math.max(1, k - 1));
+    }
+
+    /* Returns the cross product of OA and OB, positive if O, A, B turn counterclockwise. */
+    private static double cross(double[] o, double[] a, double[] b) {
+        return (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
+    }
+}
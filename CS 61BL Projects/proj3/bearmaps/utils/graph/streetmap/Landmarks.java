@@ -0,0 +1,130 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.util.Arrays;
+
+/**
+ * Landmark (ALT) lower bounds for a symmetric street graph.
+ *
+ * A handful of landmark vertices are chosen far apart from each other, and the exact
+ * road distance from every landmark to every vertex is stored. For any landmark L the
+ * triangle inequality gives d(v, t) >= |d(L, t) - d(L, v)|, which on a road network with
+ * rivers and hills is usually a much better lower bound than great-circle distance.
+ * Distances are stored vertex-major, so the K distances of one vertex sit next to each other.
+ *
+ * @author ________
+ */
+public class Landmarks {
+    private final int numLandmarks;
+    /* The landmark vertices, as indices into the CompactGraph. */
+    private final int[] landmarks;
+    /* distances[v * numLandmarks + i] is the road distance from landmark i to vertex v. */
+    private final double[] distances;
+
+    private Landmarks(int[] landmarks, double[] distances) {
+        this.numLandmarks = landmarks.length;
+        this.landmarks = landmarks;
+        this.distances = distances;
+    }
+
+    /**
+     * Picks NUMLANDMARKS landmarks of G by farthest-point selection and runs Dijkstra from
+     * each of them. The first landmark is the vertex farthest from an arbitrary start, and
+     * each following one is the vertex farthest from all landmarks chosen so far. A graph
+     * with no vertices gets no landmarks, whose lower bound is always 0.
+     */
+    public static Landmarks build(CompactGraph g, int numLandmarks) {
+        int n = g.vertexCount();
+        if (n == 0) {
+            return new Landmarks(new int[0], new double[0]);
+        }
+        int[] landmarks = new int[numLandmarks];
+        double[] distances = new double[n * numLandmarks];
+        double[] row = new double[n];
+        double[] nearestLandmark = new double[n];
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+
+        /* Start from the vertex with the most edges, which is sure to be on a road. */
+        int seed = 0;
+        for (int v = 1; v < n; v++) {
+            if (g.degree(v) > g.degree(seed)) {
+                seed = v;
+            }
+        }
+        dijkstra(g, seed, row, heap);
+        Arrays.fill(nearestLandmark, Double.POSITIVE_INFINITY);
+        int next = farthest(row, row);
+
+        for (int i = 0; i < numLandmarks; i++) {
+            landmarks[i] = next;
+            dijkstra(g, next, row, heap);
+            for (int v = 0; v < n; v++) {
+                distances[v * numLandmarks + i] = row[v];
+                nearestLandmark[v] = Math.min(nearestLandmark[v], row[v]);
+            }
+            next = farthest(nearestLandmark, row);
+        }
+        return new Landmarks(landmarks, distances);
+    }
+
+    /* Returns the vertex maximising SCORE among those with a finite distance in REACHED. */
+    private static int farthest(double[] score, double[] reached) {
+        int best = 0;
+        for (int v = 0; v < score.length; v++) {
+            if (reached[v] < Double.POSITIVE_INFINITY && score[v] > score[best]) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /* Fills DIST with the road distance from SOURCE to every vertex of G. */
+    private static void dijkstra(CompactGraph g, int source, double[] dist, IndexedMinHeap heap) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[source] = 0;
+        heap.insert(source, 0);
+        while (!heap.isEmpty()) {
+            int v = heap.poll();
+            for (int e = g.firstEdge(v); e < g.endEdge(v); e++) {
+                int w = g.target(e);
+                double d = dist[v] + g.weight(e);
+                if (d < dist[w]) {
+                    dist[w] = d;
+                    heap.insertOrDecrease(w, d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a lower bound on the road distance between vertices V and T. Landmarks that
+     * cannot reach one of the two vertices are ignored.
+     */
+    public double lowerBound(int v, int t) {
+        double best = 0;
+        int vBase = v * numLandmarks, tBase = t * numLandmarks;
+        for (int i = 0; i < numLandmarks; i++) {
+            double bound = Math.abs(distances[tBase + i] - distances[vBase + i]);
+            if (bound > best && bound < Double.POSITIVE_INFINITY) {
+                best = bound;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the number of landmarks. */
+    public int size() {
+        return numLandmarks;
+    }
+
+    /** Returns the vertex index of landmark I. */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /** Returns the number of bytes held by the distance tables. */
+    public long estimatedBytes() {
+        return 8L * distances.length + 4L * landmarks.length;
+    }
+}
@@ -0,0 +1,528 @@
+package bearmaps.utils.graph.streetmap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads an OSM XML file into a CompactGraph in stages, keeping the same nodes and edges
+ * as GraphBuildingHandler followed by StreetMapGraph's cleaning step.
+ *
+ * 1. A SAX pass over the ways records the node references and name of every highway way
+ *    that GraphBuildingHandler would accept. Everything else in the file is skipped.
+ * 2. A SAX pass over the nodes keeps the coordinates of referenced nodes and of named
+ *    nodes only, in primitive arrays, without allocating a Node for each.
+ * 3. Worker threads take batches of ways off a bounded queue, resolve their references
+ *    and compute the weight of every segment.
+ * 4. The surviving vertices are numbered in id order, and the workers count degrees and
+ *    scatter the edges of their share of the ways into compressed-sparse-row arrays.
+ *
+ * OSM files list all nodes before any ways, and all ways before any relations, so each
+ * pass stops as soon as it reaches the part of the file it has no use for.
+ *
+ * @author ________
+ */
+public class OsmIngestPipeline {
+    /** Number of worker threads used by read(String). */
+    public static final int DEFAULT_WORKERS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /* Ways handed to a worker at a time, and batches allowed to wait per worker. */
+    private static final int WAYS_PER_BATCH = 512;
+    private static final int BATCHES_PER_WORKER = 2;
+    /* Tells a worker that no more batches are coming. */
+    private static final int[] NO_MORE_BATCHES = new int[0];
+
+    /* Valid ways: way w owns refs[wayStarts[w]] through refs[wayStarts[w + 1] - 1]. */
+    private final LongList refs = new LongList();
+    private final IntList wayStarts = new IntList();
+    private final IntList wayNameIds = new IntList();
+    private final Map<String, Integer> wayNameIndex = new HashMap<>();
+    private final List<String> wayNames = new ArrayList<>();
+
+    /* Distinct referenced node ids in ascending order, and what pass 2 found for each. */
+    private long[] keptIds;
+    private double[] keptLats;
+    private double[] keptLons;
+    private String[] keptNames;
+    private boolean[] present;
+
+    /* Named nodes that no valid way references. */
+    private final LongList namedIds = new LongList();
+    private final List<double[]> namedCoordinates = new ArrayList<>();
+    private final List<String> namedNames = new ArrayList<>();
+
+    /* Filled in by the workers: the kept index of each reference (-1 if the node is
+       missing), and the weight of the segment from each reference to the next. */
+    private int[] refKept;
+    private double[] segmentWeights;
+
+    private OsmIngestPipeline() {
+    }
+
+    /** Reads the OSM XML file FILENAME using DEFAULT_WORKERS worker threads. */
+    public static CompactGraph read(String filename) {
+        return read(filename, DEFAULT_WORKERS);
+    }
+
+    /**
+     * Reads the OSM XML file FILENAME, computing edges on NUMWORKERS worker threads.
+     * Assumes the file is correctly formatted.
+     */
+    public static CompactGraph read(String filename, int numWorkers) {
+        OsmIngestPipeline pipeline = new OsmIngestPipeline();
+        try {
+            SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+            pipeline.parse(saxParser, filename, pipeline.new WayPass());
+            pipeline.keepReferencedNodes();
+            saxParser.reset();
+            pipeline.parse(saxParser, filename, pipeline.new NodePass());
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            e.printStackTrace();
+        }
+        if (pipeline.keptIds == null) {
+            pipeline.keepReferencedNodes();
+        }
+        try {
+            pipeline.computeSegments(numWorkers);
+            return pipeline.assemble(numWorkers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading " + filename, e);
+        }
+    }
+
+    /* Runs HANDLER over FILENAME, treating an early StopParsing as success. */
+    private void parse(SAXParser saxParser, String filename, DefaultHandler handler)
+            throws SAXException, IOException {
+        try (InputStream inputStream = new FileInputStream(new File(filename))) {
+            saxParser.parse(inputStream, handler);
+        } catch (StopParsing e) {
+            /* The pass has seen everything it needs. */
+        }
+    }
+
+    /* Sorts and deduplicates the references, and sizes the per-node arrays after them. */
+    private void keepReferencedNodes() {
+        wayStarts.add(refs.size());
+        long[] ids = refs.toArray();
+        Arrays.sort(ids);
+        int distinct = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[distinct] = ids[i];
+                distinct++;
+            }
+        }
+        keptIds = Arrays.copyOf(ids, distinct);
+        keptLats = new double[distinct];
+        keptLons = new double[distinct];
+        keptNames = new String[distinct];
+        present = new boolean[distinct];
+    }
+
+    /* Resolves references and computes segment weights on NUMWORKERS threads. */
+    private void computeSegments(int numWorkers) throws InterruptedException {
+        int numWays = wayStarts.size() - 1;
+        refKept = new int[refs.size()];
+        segmentWeights = new double[refs.size()];
+        BlockingQueue<int[]> batches = new ArrayBlockingQueue<>(BATCHES_PER_WORKER * numWorkers);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        Thread[] workers = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int[] batch = batches.take(); batch != NO_MORE_BATCHES;
+                         batch = batches.take()) {
+                        for (int w = batch[0]; w < batch[1]; w++) {
+                            computeWay(w);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    /* Keep draining so that the producer never blocks on a full queue. */
+                    try {
+                        for (int[] batch = batches.take(); batch != NO_MORE_BATCHES;
+                             batch = batches.take()) {
+                            continue;
+                        }
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "osm-ingest-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        for (int first = 0; first < numWays; first += WAYS_PER_BATCH) {
+            batches.put(new int[]{first, Math.min(numWays, first + WAYS_PER_BATCH)});
+        }
+        for (int i = 0; i < numWorkers; i++) {
+            batches.put(NO_MORE_BATCHES);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /* Resolves the references of way W and weighs each of its segments. */
+    private void computeWay(int w) {
+        int start = wayStarts.get(w);
+        int end = wayStarts.get(w + 1);
+        for (int i = start; i < end; i++) {
+            int k = Arrays.binarySearch(keptIds, refs.get(i));
+            refKept[i] = present[k] ? k : -1;
+        }
+        for (int i = start; i + 1 < end; i++) {
+            int a = refKept[i];
+            int b = refKept[i + 1];
+            if (a >= 0 && b >= 0) {
+                segmentWeights[i] = StreetMapGraph.distance(keptLons[a], keptLons[b],
+                        keptLats[a], keptLats[b]);
+            }
+        }
+    }
+
+    /*
+     * Numbers the vertices that have an edge or a name and builds the CSR arrays. The ways
+     * are split into one contiguous run per worker. Each worker counts the degrees its run
+     * adds to every node, and from those counts each worker gets its own slice of every
+     * vertex's edges, so the workers then scatter their edges without sharing a cursor.
+     * Since the runs are in way order, the edges end up in the same order whatever the
+     * number of workers. Numbering the vertices is a single merge on the calling thread.
+     */
+    private CompactGraph assemble(int numWorkers) throws InterruptedException {
+        int numWays = wayStarts.size() - 1;
+        int[] runStarts = new int[numWorkers + 1];
+        for (int t = 0; t <= numWorkers; t++) {
+            runStarts[t] = (int) ((long) numWays * t / numWorkers);
+        }
+        /* counts[t][k] is the number of edges run t gives kept node k; later, the next
+           slot run t writes an edge of that node into. */
+        int[][] counts = new int[numWorkers][];
+        inParallel(numWorkers, t -> {
+            int[] count = new int[keptIds.length];
+            for (int w = runStarts[t]; w < runStarts[t + 1]; w++) {
+                for (int i = wayStarts.get(w); i + 1 < wayStarts.get(w + 1); i++) {
+                    if (refKept[i] >= 0 && refKept[i + 1] >= 0) {
+                        count[refKept[i]]++;
+                        count[refKept[i + 1]]++;
+                    }
+                }
+            }
+            counts[t] = count;
+        });
+        int[] keptDegrees = new int[keptIds.length];
+        for (int[] count : counts) {
+            for (int k = 0; k < keptIds.length; k++) {
+                keptDegrees[k] += count[k];
+            }
+        }
+
+        /* Merge the kept nodes with the unreferenced named nodes, both in id order. */
+        Integer[] namedOrder = new Integer[namedIds.size()];
+        for (int i = 0; i < namedOrder.length; i++) {
+            namedOrder[i] = i;
+        }
+        Arrays.sort(namedOrder, (i, j) -> Long.compare(namedIds.get(i), namedIds.get(j)));
+        int[] keptVertex = new int[keptIds.length];
+        int n = namedOrder.length;
+        for (int k = 0; k < keptIds.length; k++) {
+            if (keptDegrees[k] > 0 || keptNames[k] != null) {
+                n++;
+            } else {
+                keptVertex[k] = -1;
+            }
+        }
+
+        long[] ids = new long[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        String[] names = new String[n];
+        int[] offsets = new int[n + 1];
+        int v = 0, k = 0, j = 0;
+        while (k < keptIds.length || j < namedOrder.length) {
+            if (k < keptIds.length && keptVertex[k] < 0) {
+                k++;
+                continue;
+            }
+            boolean takeKept = j == namedOrder.length
+                    || (k < keptIds.length && keptIds[k] < namedIds.get(namedOrder[j]));
+            if (takeKept) {
+                ids[v] = keptIds[k];
+                lats[v] = keptLats[k];
+                lons[v] = keptLons[k];
+                names[v] = keptNames[k];
+                offsets[v + 1] = keptDegrees[k];
+                keptVertex[k] = v;
+                k++;
+            } else {
+                int named = namedOrder[j];
+                ids[v] = namedIds.get(named);
+                lats[v] = namedCoordinates.get(named)[0];
+                lons[v] = namedCoordinates.get(named)[1];
+                names[v] = namedNames.get(named);
+                j++;
+            }
+            v++;
+        }
+        for (v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        for (k = 0; k < keptIds.length; k++) {
+            if (keptVertex[k] < 0) {
+                continue;
+            }
+            int cursor = offsets[keptVertex[k]];
+            for (int[] count : counts) {
+                int runEdges = count[k];
+                count[k] = cursor;
+                cursor += runEdges;
+            }
+        }
+
+        int m = offsets[n];
+        int[] targets = new int[m];
+        double[] weights = new double[m];
+        int[] edgeWayNameIds = new int[m];
+        inParallel(numWorkers, t -> {
+            int[] cursors = counts[t];
+            for (int w = runStarts[t]; w < runStarts[t + 1]; w++) {
+                int wayNameId = wayNameIds.get(w);
+                for (int i = wayStarts.get(w); i + 1 < wayStarts.get(w + 1); i++) {
+                    int a = refKept[i];
+                    int b = refKept[i + 1];
+                    if (a < 0 || b < 0) {
+                        continue;
+                    }
+                    int from = keptVertex[a];
+                    int to = keptVertex[b];
+                    targets[cursors[a]] = to;
+                    weights[cursors[a]] = segmentWeights[i];
+                    edgeWayNameIds[cursors[a]] = wayNameId;
+                    cursors[a]++;
+                    targets[cursors[b]] = from;
+                    weights[cursors[b]] = segmentWeights[i];
+                    edgeWayNameIds[cursors[b]] = wayNameId;
+                    cursors[b]++;
+                }
+            }
+        });
+        return new CompactGraph(ids, lats, lons, names, offsets, targets, weights,
+                edgeWayNameIds, wayNames.toArray(new String[0]));
+    }
+
+    /* Runs TASK on 0 through NUMWORKERS - 1, each on a thread of its own, and returns once
+       all have, rethrowing the first failure. */
+    private static void inParallel(int numWorkers, IntConsumer task)
+            throws InterruptedException {
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            int t = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    task.accept(t);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "osm-ingest-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /* Pass 1: records the references and names of valid highway ways. */
+    private class WayPass extends DefaultHandler {
+        private boolean inWay = false;
+        private boolean validWay = false;
+        private String wayName = "";
+        private int wayStart;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            if (qName.equals("way")) {
+                inWay = true;
+                validWay = false;
+                wayName = "";
+                wayStart = refs.size();
+            } else if (inWay && qName.equals("nd")) {
+                refs.add(Long.parseLong(attributes.getValue("ref")));
+            } else if (inWay && qName.equals("tag")) {
+                String k = attributes.getValue("k");
+                if (k.equals("highway")) {
+                    validWay = GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES.contains(
+                            attributes.getValue("v"));
+                } else if (k.equals("name")) {
+                    wayName = attributes.getValue("v");
+                }
+            } else if (qName.equals("relation")) {
+                throw new StopParsing();
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (qName.equals("way")) {
+                if (validWay && refs.size() - wayStart >= 2) {
+                    Integer wayNameId = wayNameIndex.get(wayName);
+                    if (wayNameId == null) {
+                        wayNameId = wayNames.size();
+                        wayNameIndex.put(wayName, wayNameId);
+                        wayNames.add(wayName);
+                    }
+                    wayStarts.add(wayStart);
+                    wayNameIds.add(wayNameId);
+                } else {
+                    refs.truncate(wayStart);
+                }
+                inWay = false;
+            }
+        }
+    }
+
+    /* Pass 2: keeps the coordinates and names of referenced or named nodes. */
+    private class NodePass extends DefaultHandler {
+        private boolean inNode = false;
+        /* Kept index of the current node, or -1 if no way references it. */
+        private int kept;
+        private long id;
+        private String lat;
+        private String lon;
+        private String name;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            if (qName.equals("node")) {
+                inNode = true;
+                name = null;
+                id = Long.parseLong(attributes.getValue("id"));
+                lat = attributes.getValue("lat");
+                lon = attributes.getValue("lon");
+                kept = Arrays.binarySearch(keptIds, id);
+                if (kept >= 0 && !present[kept]) {
+                    present[kept] = true;
+                    keptLats[kept] = Double.parseDouble(lat);
+                    keptLons[kept] = Double.parseDouble(lon);
+                } else if (kept >= 0) {
+                    /* A repeated id; the first node with it wins. */
+                    inNode = false;
+                } else {
+                    kept = -1;
+                }
+            } else if (inNode && qName.equals("tag")
+                    && attributes.getValue("k").equals("name")) {
+                name = attributes.getValue("v");
+            } else if (qName.equals("way")) {
+                throw new StopParsing();
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (qName.equals("node") && inNode) {
+                if (kept >= 0) {
+                    keptNames[kept] = name;
+                } else if (name != null) {
+                    namedIds.add(id);
+                    namedCoordinates.add(new double[]{Double.parseDouble(lat),
+                        Double.parseDouble(lon)});
+                    namedNames.add(name);
+                }
+                inNode = false;
+            }
+        }
+    }
+
+    /* Thrown by a pass to end parsing once it has everything it needs. */
+    private static class StopParsing extends SAXException {
+        private static final long serialVersionUID = 1L;
+
+        StopParsing() {
+            super("Stop parsing");
+        }
+    }
+
+    /* A growable list of longs. */
+    private static class LongList {
+        private long[] items = new long[1024];
+        private int size = 0;
+
+        void add(long x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = x;
+            size++;
+        }
+
+        long get(int i) {
+            return items[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void truncate(int newSize) {
+            size = newSize;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+
+    /* A growable list of ints. */
+    private static class IntList {
+        private int[] items = new int[1024];
+        private int size = 0;
+
+        void add(int x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = x;
+            size++;
+        }
+
+        int get(int i) {
+            return items[i];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.pq.IndexedMinHeap;
+
+import java.util.Arrays;
+
+/**
+ * Scratch state for one Dijkstra-style search over the dense vertex indices of a
+ * CompactGraph: a heap of vertices, and their tentative distances and parents.
+ *
+ * A distance counts only if the vertex was stamped with the current generation, so reset
+ * takes time proportional to what the last search put in the heap rather than to the size
+ * of the graph, and one workspace serves any number of searches without allocating.
+ * forThread hands each thread a workspace of its own that it keeps across requests.
+ */
+public class SearchWorkspace {
+
+    private static final ThreadLocal<SearchWorkspace> WORKSPACES = new ThreadLocal<>();
+
+    private final IndexedMinHeap heap;
+    private final double[] dist;
+    private final int[] parent;
+    private final int[] stamp;
+    private int generation = 0;
+
+    /** Creates a workspace for searches over vertices 0 through N - 1. */
+    public SearchWorkspace(int n) {
+        heap = new IndexedMinHeap(n);
+        dist = new double[n];
+        parent = new int[n];
+        stamp = new int[n];
+    }
+
+    /**
+     * Returns this thread's workspace for searches over vertices 0 through N - 1, reset and
+     * ready for a new search. Only one search per thread may use it at a time.
+     */
+    public static SearchWorkspace forThread(int n) {
+        SearchWorkspace workspace = WORKSPACES.get();
+        if (workspace == null || workspace.capacity() != n) {
+            workspace = new SearchWorkspace(n);
+            WORKSPACES.set(workspace);
+        }
+        workspace.reset();
+        return workspace;
+    }
+
+    /** Forgets the last search. */
+    public void reset() {
+        heap.clear();
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    public int capacity() {
+        return dist.length;
+    }
+
+    /** Returns whether V has been given a distance since the last reset. */
+    public boolean reached(int v) {
+        return stamp[v] == generation;
+    }
+
+    /** Returns the distance to V, or POSITIVE_INFINITY if it has not been reached. */
+    public double distance(int v) {
+        return reached(v) ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the vertex V was last relaxed from, or -1 if it has none. Only meaningful if
+     * V has been reached.
+     */
+    public int parent(int v) {
+        return parent[v];
+    }
+
+    /**
+     * Lowers the distance to V to D and queues V with priority D, if D is shorter than the
+     * distance V already has. Returns whether it was.
+     */
+    public boolean relax(int v, double d) {
+        return relax(v, d, d, -1);
+    }
+
+    /**
+     * Like relax(V, D), but queues V with priority PRIORITY instead of D and records FROM
+     * as its parent.
+     */
+    public boolean relax(int v, double d, double priority, int from) {
+        if (stamp[v] == generation && d >= dist[v]) {
+            return false;
+        }
+        stamp[v] = generation;
+        dist[v] = d;
+        parent[v] = from;
+        heap.insertOrDecrease(v, priority);
+        return true;
+    }
+
+    /** Returns the least priority of any queued vertex. */
+    public double peekPriority() {
+        return heap.peekPriority();
+    }
+
+    /** Returns the queued vertex of least priority without removing it. */
+    public int peek() {
+        return heap.peek();
+    }
+
+    public boolean isEmpty() {
+        return heap.isEmpty();
+    }
+
+    /** Removes and returns the queued vertex of least priority. */
+    public int poll() {
+        return heap.poll();
+    }
+}
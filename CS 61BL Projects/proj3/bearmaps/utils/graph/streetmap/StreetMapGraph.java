@@ -1,6 +1,9 @@
 package bearmaps.utils.graph.streetmap;
 
-import bearmaps.utils.graph.AStarGraph;
+import bearmaps.utils.graph.EdgeVisitor;
+import bearmaps.utils.graph.IndexEdgeVisitor;
+import bearmaps.utils.graph.IndexedGraph;
+import bearmaps.utils.graph.RouteCache;
 import bearmaps.utils.graph.WeightedEdge;
 import org.xml.sax.SAXException;
 
@@ -12,17 +15,33 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
 
-public class StreetMapGraph implements AStarGraph<Long> {
+public class StreetMapGraph implements IndexedGraph<Long> {
+    /* Only used while the graph is being read in; dropped once it has been compacted. */
     private Map<Long, Node> nodes = new HashMap<>();
     private Map<Long, Set<WeightedEdge<Long>>> neighbors = new HashMap<>();
 
+    private CompactGraph graph;
+    /* Optional landmark lower bounds that sharpen estimatedDistanceToGoal. */
+    private Landmarks landmarks;
+    /* Optional contraction hierarchy that answers route queries without a search. */
+    private ContractionHierarchy contractionHierarchy;
+    /* Optional cache of routes already found in this graph. */
+    private RouteCache routeCache;
+
     private StreetMapGraph() {
     }
 
     public StreetMapGraph(String filename) {
-        StreetMapGraph smg = StreetMapGraph.readFromXML(filename);
-        this.nodes = smg.nodes;
-        this.neighbors = smg.neighbors;
+        this.graph = OsmIngestPipeline.read(filename);
+        this.nodes = null;
+        this.neighbors = null;
+    }
+
+    /** Wraps an already built GRAPH, such as one read back from a snapshot. */
+    protected StreetMapGraph(CompactGraph graph) {
+        this.graph = graph;
+        this.nodes = null;
+        this.neighbors = null;
     }
 
     /**
@@ -31,24 +50,120 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     @Override
     public List<WeightedEdge<Long>> neighbors(Long v) {
-        Set<WeightedEdge<Long>> incidentSet = neighbors.get(v);
-        List<WeightedEdge<Long>> incidentList = new ArrayList<>();
-        for (WeightedEdge<Long> e : incidentSet) {
-            incidentList.add(e);
+        int index = graph.indexOf(v);
+        List<WeightedEdge<Long>> incidentList = new ArrayList<>(graph.degree(index));
+        for (int e = graph.firstEdge(index); e < graph.endEdge(index); e++) {
+            WeightedEdge<Long> weightedEdge = new WeightedEdge<>(v, graph.id(graph.target(e)),
+                    graph.weight(e));
+            weightedEdge.setName(graph.wayName(e));
+            incidentList.add(weightedEdge);
         }
 
         return incidentList;
     }
 
     /**
-     * Returns the great-circle distance between S and GOAL. Assumes
-     * S and GOAL exist in this graph.
+     * Calls VISITOR once for each outgoing edge of V, straight off the compact
+     * adjacency arrays. Each neighbour's id is boxed to hand it to VISITOR; solvers
+     * that work on indices should use forEachNeighbor(int, IndexEdgeVisitor) instead.
+     * Assumes V exists in this graph.
+     */
+    @Override
+    public void forEachNeighbor(Long v, EdgeVisitor<Long> visitor) {
+        int index = graph.indexOf(v);
+        for (int e = graph.firstEdge(index); e < graph.endEdge(index); e++) {
+            visitor.visit(graph.id(graph.target(e)), graph.weight(e));
+        }
+    }
+
+    /**
+     * Calls VISITOR once for each outgoing edge of the vertex with index INDEX in
+     * compactGraph(), straight off the compact adjacency arrays and without boxing.
+     */
+    @Override
+    public void forEachNeighbor(int index, IndexEdgeVisitor visitor) {
+        for (int e = graph.firstEdge(index); e < graph.endEdge(index); e++) {
+            visitor.visit(graph.target(e), graph.weight(e));
+        }
+    }
+
+    /**
+     * Returns the great-circle distance between S and GOAL, or the landmark
+     * lower bound if landmarks are in use and it is larger. Assumes S and GOAL
+     * exist in this graph.
      */
     @Override
     public double estimatedDistanceToGoal(Long s, Long goal) {
-        Node sNode = nodes.get(s);
-        Node goalNode = nodes.get(goal);
-        return distance(sNode.lon(), goalNode.lon(), sNode.lat(), goalNode.lat());
+        return estimatedDistanceToGoal(graph.indexOf(s), graph.indexOf(goal));
+    }
+
+    /**
+     * Returns estimatedDistanceToGoal for the vertices of compactGraph() with indices
+     * SINDEX and GOALINDEX, for solvers that work on the indices directly.
+     */
+    public double estimatedDistanceToGoal(int sIndex, int goalIndex) {
+        double estimate = distance(graph.lon(sIndex), graph.lon(goalIndex),
+                graph.lat(sIndex), graph.lat(goalIndex));
+        if (landmarks != null) {
+            estimate = Math.max(estimate, landmarks.lowerBound(sIndex, goalIndex));
+        }
+        return estimate;
+    }
+
+    /**
+     * Makes estimatedDistanceToGoal use LANDMARKS, which must have been built
+     * from this graph's compactGraph(). Passing null goes back to plain
+     * great-circle distance.
+     */
+    public void setLandmarks(Landmarks landmarks) {
+        this.landmarks = landmarks;
+    }
+
+    /**
+     * Returns the contraction hierarchy set by setContractionHierarchy, or null
+     * if there is none.
+     */
+    public ContractionHierarchy contractionHierarchy() {
+        return contractionHierarchy;
+    }
+
+    /**
+     * Attaches CH, which must have been built from this graph's compactGraph().
+     * Passing null detaches it.
+     */
+    public void setContractionHierarchy(ContractionHierarchy ch) {
+        this.contractionHierarchy = ch;
+    }
+
+    /**
+     * Returns the route cache set by setRouteCache, or null if there is none.
+     */
+    public RouteCache routeCache() {
+        return routeCache;
+    }
+
+    /**
+     * Makes Router.shortestPath remember the routes it finds in this graph in
+     * CACHE, which must not be shared with another graph. Passing null stops
+     * caching.
+     */
+    public void setRouteCache(RouteCache cache) {
+        this.routeCache = cache;
+    }
+
+    @Override
+    public int vertexCount() {
+        return graph.vertexCount();
+    }
+
+    @Override
+    public int indexOf(Long v) {
+        return graph.indexOf(v);
+    }
+
+    @Override
+    public Long vertexAt(int index) {
+        return graph.id(index);
     }
 
     /**
@@ -57,18 +172,20 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     private Set<Long> vertices() {
         Set<Long> vertices = new HashSet<>();
-        for (long id : nodes.keySet()) {
-            vertices.add(id);
+        for (int i = 0; i < graph.vertexCount(); i++) {
+            vertices.add(graph.id(i));
         }
 
         return vertices;
     }
 
     /**
-     * Factory method. Creates and returns a graph from an OSM XML
-     * file. Assumes file is correctly formatted.
+     * Factory method. Reads an OSM XML file on a single thread with
+     * GraphBuildingHandler and returns the compacted graph. Assumes file is
+     * correctly formatted. The constructor uses OsmIngestPipeline instead,
+     * which produces the same graph; this is kept to compare against.
      */
-    private static StreetMapGraph readFromXML(String filename) {
+    public static CompactGraph readFromXML(String filename) {
         StreetMapGraph smg = new StreetMapGraph();
         try {
             File inputFile = new File(filename);
@@ -82,7 +199,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
         }
 
         smg.clean();
-        return smg;
+        return CompactGraph.build(smg.nodes, smg.neighbors);
     }
 
     /** Adds a node to this graph, if it doesn't yet exist. **/
@@ -116,7 +233,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
     private void clean() {
         List<Long> toRemove = new ArrayList<>();
         for (long id : nodes.keySet()) {
-            if (neighbors(id).size() == 0 && nodes.get(id).name() == null) {
+            if (neighbors.get(id).size() == 0 && nodes.get(id).name() == null) {
                 toRemove.add(id);
             }
         }
@@ -179,7 +296,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
      *
      * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
      **/
-    private double distance(double lonV, double lonW, double latV, double latW) {
+    static double distance(double lonV, double lonW, double latV, double latW) {
         double phi1 = Math.toRadians(latV);
         double phi2 = Math.toRadians(latW);
         double dphi = Math.toRadians(latW - latV);
@@ -197,10 +314,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The longitude of the vertex.
      */
     public double lon(long v) {
-        if (!nodes.containsKey(v)) {
+        int index = graph.indexOf(v);
+        if (index < 0) {
             return 0.0;
         }
-        return nodes.get(v).lon();
+        return graph.lon(index);
     }
 
     /**
@@ -209,10 +327,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The latitude of the vertex.
      */
     public double lat(long v) {
-        if (!nodes.containsKey(v)) {
+        int index = graph.indexOf(v);
+        if (index < 0) {
             return 0.0;
         }
-        return nodes.get(v).lat();
+        return graph.lat(index);
     }
 
     /**
@@ -221,16 +340,26 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The name of the vertex.
      */
     public String name(long v) {
-        if (!nodes.containsKey(v)) {
+        int index = graph.indexOf(v);
+        if (index < 0) {
             return null;
         }
-        return nodes.get(v).name();
+        return graph.name(index);
+    }
+
+    /**
+     * Returns the compact adjacency store backing this graph.
+     */
+    public CompactGraph compactGraph() {
+        return graph;
     }
 
     protected List<Node> getNodes() {
-        List<Node> nodes = new ArrayList<>();
-        for(Map.Entry<Long, Node> nodeEntry: this.nodes.entrySet()){
-            nodes.add(nodeEntry.getValue());
+        List<Node> nodes = new ArrayList<>(graph.vertexCount());
+        for (int i = 0; i < graph.vertexCount(); i++) {
+            Node node = Node.of(graph.id(i), graph.lat(i), graph.lon(i));
+            node.setName(graph.name(i));
+            nodes.add(node);
         }
         return nodes;
     }
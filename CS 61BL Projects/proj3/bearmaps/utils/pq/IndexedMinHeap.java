@@ -0,0 +1,200 @@
+package bearmaps.utils.pq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/* A d-ary min heap of int keys in the range [0, capacity), each with a double
+   priority. Keys, priorities and the position of every key in the heap are all
+   kept in primitive arrays, so no operation allocates once the heap is built.
+   A wider heap (arity 4 or 8) is shallower and touches fewer cache lines per
+   sift, at the cost of more comparisons per level. */
+public class IndexedMinHeap {
+
+    /* Number of children of each slot. */
+    private final int arity;
+    /* keys[i] and priorities[i] hold the key and priority at heap slot i. */
+    private final int[] keys;
+    private final double[] priorities;
+    /* positions[key] is the heap slot of KEY, or -1 if KEY is not in the heap. */
+    private final int[] positions;
+    private int size = 0;
+
+    /* Initializes an empty 4-ary heap for keys in [0, CAPACITY). */
+    public IndexedMinHeap(int capacity) {
+        this(capacity, 4);
+    }
+
+    /* Initializes an empty heap for keys in [0, CAPACITY) in which every slot has
+       ARITY children. */
+    public IndexedMinHeap(int capacity, int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("Arity must be at least 2.");
+        }
+        this.arity = arity;
+        keys = new int[capacity];
+        priorities = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /* Returns the number of keys in the heap. */
+    public int size() {
+        return size;
+    }
+
+    /* Returns true if the heap is empty. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /* Returns the largest key plus one that this heap can hold. */
+    public int capacity() {
+        return positions.length;
+    }
+
+    /* Returns true if KEY is in the heap. */
+    public boolean contains(int key) {
+        return positions[key] >= 0;
+    }
+
+    /* Returns the priority of KEY. KEY must be in the heap. */
+    public double priority(int key) {
+        if (positions[key] < 0) {
+            throw new NoSuchElementException(key + " not in heap.");
+        }
+        return priorities[positions[key]];
+    }
+
+    /* Returns but does not remove the key with the smallest priority. */
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException("Heap is empty.");
+        }
+        return keys[0];
+    }
+
+    /* Returns the smallest priority in the heap. */
+    public double peekPriority() {
+        if (size == 0) {
+            throw new NoSuchElementException("Heap is empty.");
+        }
+        return priorities[0];
+    }
+
+    /* Inserts KEY with priority PRIORITY. If KEY is already in the heap, throw an
+       IllegalArgumentException. */
+    public void insert(int key, double priority) {
+        if (positions[key] >= 0) {
+            throw new IllegalArgumentException("Already contains " + key);
+        }
+        keys[size] = key;
+        priorities[size] = priority;
+        positions[key] = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+    /* Returns and removes the key with the smallest priority. */
+    public int poll() {
+        int min = peek();
+        size--;
+        positions[min] = -1;
+        if (size > 0) {
+            move(size, 0);
+            siftDown(0);
+        }
+        return min;
+    }
+
+    /* Changes the priority of KEY to PRIORITY. If KEY is not in the heap, throw a
+       NoSuchElementException. */
+    public void changePriority(int key, double priority) {
+        int slot = positions[key];
+        if (slot < 0) {
+            throw new NoSuchElementException(key + " not in heap.");
+        }
+        double old = priorities[slot];
+        priorities[slot] = priority;
+        if (priority < old) {
+            siftUp(slot);
+        } else {
+            siftDown(slot);
+        }
+    }
+
+    /* Inserts KEY with PRIORITY, or lowers its priority to PRIORITY if KEY is
+       already in the heap with a larger one. Returns true if the heap changed. */
+    public boolean insertOrDecrease(int key, double priority) {
+        int slot = positions[key];
+        if (slot < 0) {
+            insert(key, priority);
+            return true;
+        }
+        if (priority < priorities[slot]) {
+            priorities[slot] = priority;
+            siftUp(slot);
+            return true;
+        }
+        return false;
+    }
+
+    /* Removes every key from the heap. Takes time proportional to the number of
+       keys in the heap, not to its capacity. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[keys[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /* Moves the entry at slot FROM into slot TO. */
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        priorities[to] = priorities[from];
+        positions[keys[to]] = to;
+    }
+
+    /* Bubbles up the entry currently at slot SLOT. */
+    private void siftUp(int slot) {
+        int key = keys[slot];
+        double priority = priorities[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) / arity;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            move(parent, slot);
+            slot = parent;
+        }
+        keys[slot] = key;
+        priorities[slot] = priority;
+        positions[key] = slot;
+    }
+
+    /* Bubbles down the entry currently at slot SLOT. */
+    private void siftDown(int slot) {
+        int key = keys[slot];
+        double priority = priorities[slot];
+        while (true) {
+            int first = slot * arity + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + arity, size);
+            int best = first;
+            for (int child = first + 1; child < last; child++) {
+                if (priorities[child] < priorities[best]) {
+                    best = child;
+                }
+            }
+            if (priorities[best] >= priority) {
+                break;
+            }
+            move(best, slot);
+            slot = best;
+        }
+        keys[slot] = key;
+        priorities[slot] = priority;
+        positions[key] = slot;
+    }
+}
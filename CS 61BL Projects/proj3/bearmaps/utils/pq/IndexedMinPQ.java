@@ -0,0 +1,86 @@
+package bearmaps.utils.pq;
+
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/* A PriorityQueue adapter over an IndexedMinHeap, for items that can be numbered
+   densely from 0 to capacity - 1 (such as the vertices of a graph). Unlike
+   MinHeapPQ, no operation allocates a wrapper object or touches a HashMap. */
+public class IndexedMinPQ<T> implements PriorityQueue<T> {
+
+    /* The heap backing our IndexedMinPQ. */
+    private final IndexedMinHeap heap;
+    /* Maps items to their dense index, returning -1 for unknown items. */
+    private final ToIntFunction<T> indexOf;
+    /* Maps dense indices back to items. */
+    private final IntFunction<T> itemAt;
+
+    /* Initializes an empty IndexedMinPQ of the given ARITY for CAPACITY items,
+       which are numbered by INDEXOF and recovered by ITEMAT. */
+    public IndexedMinPQ(int capacity, int arity, ToIntFunction<T> indexOf,
+                        IntFunction<T> itemAt) {
+        this(new IndexedMinHeap(capacity, arity), indexOf, itemAt);
+    }
+
+    /* Initializes an IndexedMinPQ over HEAP, which must be empty, for items numbered by
+       INDEXOF and recovered by ITEMAT. Lets callers reuse one heap for many queues. */
+    public IndexedMinPQ(IndexedMinHeap heap, ToIntFunction<T> indexOf,
+                        IntFunction<T> itemAt) {
+        if (!heap.isEmpty()) {
+            throw new IllegalArgumentException("Heap must be empty.");
+        }
+        this.heap = heap;
+        this.indexOf = indexOf;
+        this.itemAt = itemAt;
+    }
+
+    /* Returns the item with the smallest priority value, but does not remove it
+       from the IndexedMinPQ. */
+    @Override
+    public T peek() {
+        return itemAt.apply(heap.peek());
+    }
+
+    /* Inserts ITEM with the priority value PRIORITYVALUE into the IndexedMinPQ. If
+       ITEM is already in the IndexedMinPQ, throw an IllegalArgumentException. */
+    @Override
+    public void insert(T item, double priorityValue) {
+        int index = indexOf.applyAsInt(item);
+        if (index < 0) {
+            throw new IllegalArgumentException(item + " has no index.");
+        }
+        heap.insert(index, priorityValue);
+    }
+
+    /* Returns the item with the smallest priority value, and removes it from the
+       IndexedMinPQ. */
+    @Override
+    public T poll() {
+        return itemAt.apply(heap.poll());
+    }
+
+    /* Changes the priority value of ITEM to PRIORITYVALUE. If ITEM is not in the
+       IndexedMinPQ, throw a NoSuchElementException. */
+    @Override
+    public void changePriority(T item, double priorityValue) {
+        int index = indexOf.applyAsInt(item);
+        if (index < 0) {
+            throw new NoSuchElementException(item + " not in PQ.");
+        }
+        heap.changePriority(index, priorityValue);
+    }
+
+    /* Returns the number of items in the IndexedMinPQ. */
+    @Override
+    public int size() {
+        return heap.size();
+    }
+
+    /* Returns true if ITEM is stored in our IndexedMinPQ. */
+    @Override
+    public boolean contains(T item) {
+        int index = indexOf.applyAsInt(item);
+        return index >= 0 && heap.contains(index);
+    }
+}
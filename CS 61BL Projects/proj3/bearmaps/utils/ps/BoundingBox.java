@@ -0,0 +1,44 @@
+package bearmaps.utils.ps;
+
+/**
+ * An axis-aligned rectangle, closed on all sides. Used by StaticKDTree.rangeSearch.
+ */
+public class BoundingBox {
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    public BoundingBox(double minX, double minY, double maxX, double maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    public boolean contains(double x, double y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BoundingBox x: [%.10f, %.10f], y: [%.10f, %.10f]", minX, maxX,
+                minY, maxY);
+    }
+}
@@ -22,11 +22,12 @@ public class Point {
 
     /**
      * Returns the great-circle (haversine) distance between geographic coordinates
-     * (LATV, LONV) and (LATW, LONW).
+     * (LATV, LONV) and (LATW, LONW). Public so that callers that keep coordinates in
+     * arrays can measure distances without making Points.
      *
      * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
      **/
-    private static double distance(double lonV, double lonW, double latV, double latW) {
+    public static double distance(double lonV, double lonW, double latV, double latW) {
         double phi1 = Math.toRadians(latV);
         double phi2 = Math.toRadians(latW);
         double dphi = Math.toRadians(latW - latV);
@@ -0,0 +1,480 @@
+package bearmaps.utils.ps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A KD-tree that is built once from all of its points and never changes.
+ *
+ * The tree is bulk-loaded by splitting at the median, alternating between x and y, so it is
+ * balanced whatever order the points come in. It lives in three flat arrays in an implicit
+ * layout: the subtree over slots [lo, hi) has its root at slot (lo + hi) / 2, its left
+ * subtree in the slots before the root and its right subtree in the slots after. Every
+ * point carries an int id chosen by the caller (its position in the input by default), so
+ * queries can answer with ids instead of Points. Queries keep their state on the stack, so
+ * any number of threads may query one tree at the same time.
+ *
+ * Distances are great-circle distances as measured by Point.distance, and the pruning rule
+ * is the one KDTree uses, so both trees agree on nearest.
+ */
+public class StaticKDTree implements PointSet {
+
+    /** Receives the points of a visitNearest walk. */
+    @FunctionalInterface
+    public interface NearestVisitor {
+        /** Visits the point with id ID at DISTANCE from the query, and returns whether the
+         *  walk should go on. */
+        boolean visit(int id, double distance);
+    }
+
+    /* Coordinates and ids of the points, in tree layout. */
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] ids;
+
+    /* Constructs a StaticKDTree over POINTS, using each point's index in POINTS as its id. */
+    public StaticKDTree(List<Point> points) {
+        this(xsOf(points), ysOf(points), null);
+    }
+
+    /* Constructs a StaticKDTree over the points (XS[i], YS[i]) with ids IDS[i]. If IDS is
+       null, the ids are 0 through XS.length - 1. The arrays are not modified. */
+    public StaticKDTree(double[] xs, double[] ys, int[] ids) {
+        this(treeOrder(xs, ys), xs, ys, ids);
+    }
+
+    /* Constructs the tree whose slot i holds point ORDER[i] of XS, YS and IDS, where
+       ORDER lists the points in tree layout. */
+    private StaticKDTree(int[] order, double[] xs, double[] ys, int[] ids) {
+        int n = order.length;
+        this.xs = new double[n];
+        this.ys = new double[n];
+        this.ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.xs[i] = xs[order[i]];
+            this.ys[i] = ys[order[i]];
+            this.ids[i] = ids == null ? order[i] : ids[order[i]];
+        }
+    }
+
+    /* Returns a tree over arrays that are already in tree layout, as returned for another
+       tree by treeOrderIds, without rebuilding it. The arrays are not modified. */
+    public static StaticKDTree fromTreeOrder(double[] xs, double[] ys, int[] ids) {
+        return new StaticKDTree(identity(xs.length), xs, ys, ids);
+    }
+
+    /* Returns the indices of the points (XS[i], YS[i]) in tree layout. */
+    private static int[] treeOrder(double[] xs, double[] ys) {
+        int[] order = identity(xs.length);
+        build(order, xs, ys, 0, order.length, true);
+        return order;
+    }
+
+    private static int[] identity(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /* Returns the ids of the points in tree layout. */
+    public int[] treeOrderIds() {
+        return ids.clone();
+    }
+
+    /* Returns the id of the point closest to X and Y, or -1 if the tree is empty. */
+    public int nearestId(double x, double y) {
+        int slot = nearestSlot(x, y);
+        return slot < 0 ? -1 : ids[slot];
+    }
+
+    /* Returns the closest Point to the inputted X and Y coordinates, or null if the tree
+       is empty. */
+    @Override
+    public Point nearest(double x, double y) {
+        int slot = nearestSlot(x, y);
+        return slot < 0 ? null : new Point(xs[slot], ys[slot]);
+    }
+
+    /* Returns the ids of the K points closest to X and Y, nearest first. */
+    public int[] kNearestIds(double x, double y, int k) {
+        int[] slots = kNearestSlots(x, y, k);
+        int[] result = new int[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            result[i] = ids[slots[i]];
+        }
+        return result;
+    }
+
+    /* Returns the K points closest to X and Y, nearest first. */
+    public List<Point> kNearest(double x, double y, int k) {
+        List<Point> result = new ArrayList<>();
+        for (int slot : kNearestSlots(x, y, k)) {
+            result.add(new Point(xs[slot], ys[slot]));
+        }
+        return result;
+    }
+
+    /* Calls VISITOR on each point within MAXDISTANCE of X and Y, nearest first, until it
+       returns false. A subtree is only opened once everything nearer has been visited, so a
+       walk that stops early touches little more of the tree than the points it visited. */
+    public void visitNearest(double x, double y, double maxDistance, NearestVisitor visitor) {
+        PriorityQueue<Pending> pending = new PriorityQueue<>();
+        if (ids.length > 0) {
+            pending.add(new Pending(0, ids.length, true, Double.NEGATIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, 0));
+        }
+        while (!pending.isEmpty()) {
+            Pending p = pending.poll();
+            if (p.distance > maxDistance) {
+                return;
+            }
+            if (p.lo < 0) {
+                if (!visitor.visit(ids[p.hi], p.distance)) {
+                    return;
+                }
+                continue;
+            }
+            int mid = (p.lo + p.hi) >>> 1;
+            pending.add(new Pending(mid, Point.distance(x, xs[mid], y, ys[mid])));
+            if (p.xAxis) {
+                offer(pending, p.lo, mid, false, p.minX, xs[mid], p.minY, p.maxY, x, y);
+                offer(pending, mid + 1, p.hi, false, xs[mid], p.maxX, p.minY, p.maxY, x, y);
+            } else {
+                offer(pending, p.lo, mid, true, p.minX, p.maxX, p.minY, ys[mid], x, y);
+                offer(pending, mid + 1, p.hi, true, p.minX, p.maxX, ys[mid], p.maxY, x, y);
+            }
+        }
+    }
+
+    /* Adds the subtree over slots [LO, HI), whose points lie in the given box, to PENDING if
+       it is not empty, keyed by the distance from (X, Y) to the nearest point of the box. */
+    private static void offer(PriorityQueue<Pending> pending, int lo, int hi, boolean xAxis,
+                              double minX, double maxX, double minY, double maxY,
+                              double x, double y) {
+        if (lo >= hi) {
+            return;
+        }
+        double nearX = Math.max(minX, Math.min(maxX, x));
+        double nearY = Math.max(minY, Math.min(maxY, y));
+        pending.add(new Pending(lo, hi, xAxis, minX, maxX, minY, maxY,
+                Point.distance(x, nearX, y, nearY)));
+    }
+
+    /* A point or a subtree that a visitNearest walk has yet to visit, with how near to the
+       query it is or could be. A point has LO -1 and its slot in HI. */
+    private static class Pending implements Comparable<Pending> {
+        private final int lo;
+        private final int hi;
+        private final boolean xAxis;
+        private final double minX;
+        private final double maxX;
+        private final double minY;
+        private final double maxY;
+        private final double distance;
+
+        Pending(int slot, double distance) {
+            this(-1, slot, true, 0, 0, 0, 0, distance);
+        }
+
+        Pending(int lo, int hi, boolean xAxis, double minX, double maxX, double minY,
+                double maxY, double distance) {
+            this.lo = lo;
+            this.hi = hi;
+            this.xAxis = xAxis;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+
+    /* Returns the ids of every point inside BBOX, in no particular order. */
+    public int[] rangeSearchIds(BoundingBox bbox) {
+        IntBuffer slots = new IntBuffer();
+        range(0, ids.length, true, bbox, slots);
+        int[] result = new int[slots.size];
+        for (int i = 0; i < slots.size; i++) {
+            result[i] = ids[slots.items[i]];
+        }
+        return result;
+    }
+
+    /* Returns every point inside BBOX, in no particular order. */
+    public List<Point> rangeSearch(BoundingBox bbox) {
+        IntBuffer slots = new IntBuffer();
+        range(0, ids.length, true, bbox, slots);
+        List<Point> result = new ArrayList<>(slots.size);
+        for (int i = 0; i < slots.size; i++) {
+            result.add(new Point(xs[slots.items[i]], ys[slots.items[i]]));
+        }
+        return result;
+    }
+
+    /* Lays out ORDER[lo, hi) as a subtree split on x if XAXIS and on y otherwise. */
+    private static void build(int[] order, double[] xs, double[] ys, int lo, int hi,
+                              boolean xAxis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(order, xs, ys, lo, hi, mid, xAxis);
+        build(order, xs, ys, lo, mid, !xAxis);
+        build(order, xs, ys, mid + 1, hi, !xAxis);
+    }
+
+    /* Rearranges ORDER[lo, hi) so that ORDER[k] is the point that would be there if the
+       range were sorted, with no greater point before it and no smaller point after it. */
+    private static void select(int[] order, double[] xs, double[] ys, int lo, int hi, int k,
+                               boolean xAxis) {
+        hi--;
+        while (lo < hi) {
+            int pivot = order[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (compare(xs, ys, order[i], pivot, xAxis) < 0) {
+                    i++;
+                }
+                while (compare(xs, ys, order[j], pivot, xAxis) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /* Compares points A and B on the splitting axis, breaking ties on the other axis. */
+    private static int compare(double[] xs, double[] ys, int a, int b, boolean xAxis) {
+        return compare(xs[a], ys[a], xs[b], ys[b], xAxis);
+    }
+
+    private static int compare(double xa, double ya, double xb, double yb, boolean xAxis) {
+        if (xAxis) {
+            int c = Double.compare(xa, xb);
+            return c != 0 ? c : Double.compare(ya, yb);
+        } else {
+            int c = Double.compare(ya, yb);
+            return c != 0 ? c : Double.compare(xa, xb);
+        }
+    }
+
+    /* Returns the distance from (X, Y) to the splitting line through slot MID. */
+    private double lineDistance(double x, double y, int mid, boolean xAxis) {
+        return xAxis ? Point.distance(x, xs[mid], y, y) : Point.distance(x, x, y, ys[mid]);
+    }
+
+    private int nearestSlot(double x, double y) {
+        if (ids.length == 0) {
+            return -1;
+        }
+        Nearest best = new Nearest();
+        nearest(0, ids.length, true, x, y, best);
+        return best.slot;
+    }
+
+    /* The best point found so far by one nearest query. */
+    private static class Nearest {
+        private int slot = -1;
+        private double distance = Double.POSITIVE_INFINITY;
+    }
+
+    private void nearest(int lo, int hi, boolean xAxis, double x, double y, Nearest best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double d = Point.distance(x, xs[mid], y, ys[mid]);
+        if (d < best.distance) {
+            best.distance = d;
+            best.slot = mid;
+        }
+        boolean goLeft = compare(x, y, xs[mid], ys[mid], xAxis) < 0;
+        if (goLeft) {
+            nearest(lo, mid, !xAxis, x, y, best);
+        } else {
+            nearest(mid + 1, hi, !xAxis, x, y, best);
+        }
+        if (best.distance > lineDistance(x, y, mid, xAxis)) {
+            if (goLeft) {
+                nearest(mid + 1, hi, !xAxis, x, y, best);
+            } else {
+                nearest(lo, mid, !xAxis, x, y, best);
+            }
+        }
+    }
+
+    /* Returns the slots of the K points closest to (X, Y), nearest first. */
+    private int[] kNearestSlots(double x, double y, int k) {
+        k = Math.min(k, ids.length);
+        if (k <= 0) {
+            return new int[0];
+        }
+        KNearest best = new KNearest(k);
+        kNearest(0, ids.length, true, x, y, best);
+        return best.sortedSlots();
+    }
+
+    private void kNearest(int lo, int hi, boolean xAxis, double x, double y, KNearest best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        best.offer(mid, Point.distance(x, xs[mid], y, ys[mid]));
+        boolean goLeft = compare(x, y, xs[mid], ys[mid], xAxis) < 0;
+        if (goLeft) {
+            kNearest(lo, mid, !xAxis, x, y, best);
+        } else {
+            kNearest(mid + 1, hi, !xAxis, x, y, best);
+        }
+        if (best.bound() > lineDistance(x, y, mid, xAxis)) {
+            if (goLeft) {
+                kNearest(mid + 1, hi, !xAxis, x, y, best);
+            } else {
+                kNearest(lo, mid, !xAxis, x, y, best);
+            }
+        }
+    }
+
+    /* The K best points found so far by one kNearest query, as a binary max-heap on
+       distance. */
+    private static class KNearest {
+        private final int[] slots;
+        private final double[] distances;
+        private int size = 0;
+
+        KNearest(int k) {
+            slots = new int[k];
+            distances = new double[k];
+        }
+
+        /* Returns the distance a point must beat to be kept. */
+        double bound() {
+            return size < slots.length ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(int slot, double distance) {
+            if (size < slots.length) {
+                int i = size;
+                size++;
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    slots[i] = slots[(i - 1) / 2];
+                    distances[i] = distances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                slots[i] = slot;
+                distances[i] = distance;
+            } else if (distance < distances[0]) {
+                siftDown(0, slot, distance);
+            }
+        }
+
+        /* Places (SLOT, DISTANCE) at heap position I or below it. */
+        private void siftDown(int i, int slot, double distance) {
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                slots[i] = slots[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            slots[i] = slot;
+            distances[i] = distance;
+        }
+
+        /* Empties the heap, returning its slots nearest first. */
+        int[] sortedSlots() {
+            int[] result = new int[size];
+            while (size > 0) {
+                result[size - 1] = slots[0];
+                size--;
+                siftDown(0, slots[size], distances[size]);
+            }
+            return result;
+        }
+    }
+
+    private void range(int lo, int hi, boolean xAxis, BoundingBox bbox, IntBuffer out) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double split = xAxis ? xs[mid] : ys[mid];
+        double min = xAxis ? bbox.getMinX() : bbox.getMinY();
+        double max = xAxis ? bbox.getMaxX() : bbox.getMaxY();
+        if (bbox.contains(xs[mid], ys[mid])) {
+            out.add(mid);
+        }
+        if (min <= split) {
+            range(lo, mid, !xAxis, bbox, out);
+        }
+        if (max >= split) {
+            range(mid + 1, hi, !xAxis, bbox, out);
+        }
+    }
+
+    /* A growable list of ints. */
+    private static class IntBuffer {
+        private int[] items = new int[16];
+        private int size = 0;
+
+        void add(int x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = x;
+            size++;
+        }
+    }
+
+    private static double[] xsOf(List<Point> points) {
+        double[] xs = new double[points.size()];
+        int i = 0;
+        for (Point p : points) {
+            xs[i] = p.getX();
+            i++;
+        }
+        return xs;
+    }
+
+    private static double[] ysOf(List<Point> points) {
+        double[] ys = new double[points.size()];
+        int i = 0;
+        for (Point p : points) {
+            ys[i] = p.getY();
+            i++;
+        }
+        return ys;
+    }
+}
@@ -54,7 +54,7 @@ $(function() {
     } else {
         host = 'http://localhost:4567';
     }
-    const raster_server = host + '/raster';
+    const raster_server = host + '/raster_image';
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
     const search = host + '/search';
@@ -108,49 +108,53 @@ $(function() {
            updates which are called before ajax() is called #sigh #why #justjavascriptthings */
         $loadingStatus.show();
         getInProgress = true;
-        $.get({
-            async: true,
-            url: raster_server,
-            data: params,
-            success: function(data) {
-                console.log(data);
-                if (data.query_success) {
-                    $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
-                    console.log('Updating map with image length: ' +
-                                data.b64_encoded_image_data.length);
-                    ullon_bound = data.raster_ul_lon;
-                    ullat_bound = data.raster_ul_lat;
-                    lrlon_bound = data.raster_lr_lon;
-                    lrlat_bound = data.raster_lr_lat;
-                    current_level = data.depth;
-                    img_w = data.raster_width;
-                    img_h = data.raster_height;
-                    wdpp = (lrlon_bound - ullon_bound) / img_w;
-                    hdpp = (ullat_bound - lrlat_bound) / img_h;
-                    // Compute initial transform
-                    tx = - (params.ullon - ullon_bound) * (1 / wdpp);
-                    ty = (params.ullat - ullat_bound) * (1 / hdpp);
-                    rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
-                    rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
-                    updateMarkers();
-                    getInProgress = false;
-                    if (successCallback) {
-                        successCallback();
-                    }
-                } else {
-                    $loadingstatus.hide();
+        /* The server answers with the encoded image itself and puts the raster bounds in headers. */
+        const xhr = new XMLHttpRequest();
+        xhr.open('GET', raster_server + '?' + $.param(params));
+        xhr.responseType = 'blob';
+        xhr.onload = function() {
+            if (xhr.status === 200) {
+                const header = function(name) { return Number(xhr.getResponseHeader(name)); };
+                $loadingStatus.hide();
+                if (map.src.startsWith('blob:')) {
+                    URL.revokeObjectURL(map.src);
                 }
-            },
-            error: function() {
+                map.src = URL.createObjectURL(xhr.response);
+                console.log('Updating map with image length: ' + xhr.response.size);
+                ullon_bound = header('X-Raster-UL-Lon');
+                ullat_bound = header('X-Raster-UL-Lat');
+                lrlon_bound = header('X-Raster-LR-Lon');
+                lrlat_bound = header('X-Raster-LR-Lat');
+                current_level = header('X-Raster-Depth');
+                img_w = header('X-Raster-Width');
+                img_h = header('X-Raster-Height');
+                wdpp = (lrlon_bound - ullon_bound) / img_w;
+                hdpp = (ullat_bound - lrlat_bound) / img_h;
+                // Compute initial transform
+                tx = - (params.ullon - ullon_bound) * (1 / wdpp);
+                ty = (params.ullat - ullat_bound) * (1 / hdpp);
+                rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
+                rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
+                updateMarkers();
                 getInProgress = false;
-                $errorStatus.show();
-                setTimeout(function() {
-                    $errorStatus.fadeOut();
-                }, 4000);
-            },
-            dataType: 'json'
-        });
+                if (successCallback) {
+                    successCallback();
+                }
+            } else if (xhr.status === 204) {
+                $loadingStatus.hide();
+                getInProgress = false;
+            } else {
+                xhr.onerror();
+            }
+        };
+        xhr.onerror = function() {
+            getInProgress = false;
+            $errorStatus.show();
+            setTimeout(function() {
+                $errorStatus.fadeOut();
+            }, 4000);
+        };
+        xhr.send();
     }
 
     function updateT() {
@@ -167,12 +171,14 @@ $(function() {
     }
 
     function updateRoute() {
+        /* Reuse this page's route id, if it has one, so the server replaces its route. */
         $.get({
             async: true,
             url: route_server,
-            data: route_params,
+            data: $.extend({}, route_params, params.route_id ? {route_id: params.route_id} : {}),
             success: function(data) {
                 data = JSON.parse(data);
+                params.route_id = data.route_id;
                 updateImg();
                 if (data.directions_success) {
                     $directionsText.html(data.directions);
@@ -323,16 +329,26 @@ $(function() {
     /* Hide scroll bar */
     $('body').css('overflow', 'hidden');
 
+    /* The part of the map in view, so that search ranks places there first. */
+    function viewport() {
+        return { ullon: params.ullon, ullat: params.ullat,
+                 lrlon: real_lrlon(), lrlat: real_lrlat() };
+    }
+
     /* Make search bar do autocomplete things */
     $('#tags').autocomplete({
-          source: search,
+          /* Forgive typos in what has been typed so far. */
+          source: function (request, response) {
+              $.getJSON(search, $.extend({ term: request.term, fuzzy: true }, viewport()),
+                        response);
+          },
           minLength: 2,
           select: function (event, ui) {
               $.get({
                   async: true,
                   url: search,
                   dataType: 'json',
-                  data: { term: ui.item.value, full: true},
+                  data: $.extend({ term: ui.item.value, full: true }, viewport()),
                   success: function(data) {
                       removeMarkers();
                       for (var i = 0; i < data.length; i++) {
@@ -407,7 +423,9 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: params.route_id ? {route_id: params.route_id} : {},
             success: function() {
+                delete params.route_id;
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
                 update();